@@ -1,12 +1,14 @@
 package me.staartvin.statz;
 
 import me.staartvin.statz.api.API;
+import me.staartvin.statz.cache.CacheApplier;
 import me.staartvin.statz.cache.CachingManager;
 import me.staartvin.statz.commands.manager.CommandsManager;
 import me.staartvin.statz.config.ConfigHandler;
 import me.staartvin.statz.database.DatabaseConnector;
 import me.staartvin.statz.database.datatype.RowRequirement;
 import me.staartvin.statz.datamanager.DataManager;
+import me.staartvin.statz.datamanager.PlayerDataLoader;
 import me.staartvin.statz.datamanager.player.PlayerInfo;
 import me.staartvin.statz.datamanager.player.PlayerStat;
 import me.staartvin.statz.gui.GUIManager;
@@ -14,13 +16,16 @@ import me.staartvin.statz.hooks.DependencyManager;
 import me.staartvin.statz.importer.ImportManager;
 import me.staartvin.statz.language.LanguageHandler;
 import me.staartvin.statz.language.StatisticDescriptionConfig;
+import me.staartvin.statz.leaderboard.LeaderboardManager;
 import me.staartvin.statz.listeners.*;
 import me.staartvin.statz.logger.LogManager;
 import me.staartvin.statz.patches.PatchManager;
+import me.staartvin.statz.placeholders.PlaceholderRankings;
 import me.staartvin.statz.placeholders.StatzPlaceholders;
 import me.staartvin.statz.statsdisabler.DisableManager;
 import me.staartvin.statz.tasks.TaskManager;
 import me.staartvin.statz.tasks.UpdateDatabaseTask;
+import me.staartvin.statz.update.MovementTracker;
 import me.staartvin.statz.update.UpdatePoolManager;
 import me.staartvin.statz.util.StatzUtil;
 import org.bukkit.ChatColor;
@@ -28,12 +33,12 @@ import org.bukkit.GameMode;
 import org.bukkit.entity.Player;
 import org.bukkit.plugin.java.JavaPlugin;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Random;
 import java.util.UUID;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Main class of Statz Spigot/Bukkit plugin.
@@ -56,8 +61,12 @@ public class Statz extends JavaPlugin {
     private GUIManager guiManager;
 
     private CachingManager cachingManager;
+    private CacheApplier cacheApplier;
+    private PlayerDataLoader playerDataLoader;
     private TaskManager taskManager;
     private UpdatePoolManager updatePoolManager;
+    private LeaderboardManager leaderboardManager;
+    private MovementTracker movementTracker;
 
     private StatisticDescriptionConfig statisticDescriptionConfig;
 
@@ -141,17 +150,42 @@ public class Statz extends JavaPlugin {
         }
 
         // Set up caching manager
-        this.setCachingManager(new CachingManager());
+        this.setCachingManager(new CachingManager(this));
+
+        // Start applying updates to the cache.
+        this.setCacheApplier(new CacheApplier(this));
+        this.getCacheApplier().start();
+
+        // Load data of players in the background.
+        this.setPlayerDataLoader(new PlayerDataLoader(this));
 
         // Start update pool manager.
         this.setUpdatePoolManager(new UpdatePoolManager(this));
 
+        // Write updates to disk and recover updates that were lost during a crash.
+        if (this.getConfigHandler().isUpdateJournalEnabled()) {
+            this.getUpdatePoolManager().openJournal(new File(this.getDataFolder(), "journal"),
+                    this.getConfigHandler().getUpdateJournalSyncInterval());
+        }
+
+        // Keep track of the top players of statistics.
+        this.setLeaderboardManager(new LeaderboardManager(this));
+
+        // Start tracking movement of players.
+        this.setMovementTracker(new MovementTracker(this));
+
         // Create task manager for starting and stopping tasks.
         this.setTaskManager(new TaskManager(this));
 
         // Run task to sync database with update list.
         this.getTaskManager().startUpdateDatabaseTask();
 
+        // Run task to send distance travelled to the update pool.
+        this.getTaskManager().startMovementSampleTask();
+
+        // Run task to refresh the cache of online players.
+        this.getTaskManager().startRefreshPlayerCacheTask();
+
         // Create Statistic Description handler
         this.setStatisticDescriptionConfig(new StatisticDescriptionConfig(this));
 
@@ -160,8 +194,13 @@ public class Statz extends JavaPlugin {
 
         // Only register placeholders if we have placeholder API available!
         if (this.getServer().getPluginManager().isPluginEnabled("PlaceholderAPI")) {
+            PlaceholderRankings rankings = new PlaceholderRankings(this);
+
             // Register Statz Placeholder
-            new StatzPlaceholders(this).register();
+            new StatzPlaceholders(this, rankings).register();
+
+            // Keep the rankings of the placeholders up to date.
+            this.getTaskManager().startPlaceholderRankingsTask(rankings);
         }
     }
 
@@ -169,10 +208,52 @@ public class Statz extends JavaPlugin {
     public void onDisable() {
         debugMessage(ChatColor.RED + "Saving updates to database!");
 
-        // Schedule task to update database for the last time.
-        ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(1);
-        scheduler.execute(new UpdateDatabaseTask(this));
-        scheduler.shutdown();
+        // Make sure the distance travelled is in the pool before we save it.
+        if (this.getMovementTracker() != null) {
+            this.getMovementTracker().flushAll();
+        }
+
+        // Stop reading leaderboards, so they don't hold up the last sync.
+        if (this.getLeaderboardManager() != null) {
+            this.getLeaderboardManager().shutdown();
+        }
+
+        if (this.getUpdatePoolManager() != null) {
+            long startTime = System.currentTimeMillis();
+
+            // Don't accept new updates, so we can write everything that is in the pool.
+            this.getUpdatePoolManager().stopAcceptingUpdates();
+
+            // Update database for the last time. This waits for a sync that is still running.
+            int writtenRows = new UpdateDatabaseTask(this).runFinalSync(TimeUnit.SECONDS.toMillis(this
+                    .getConfigHandler().getShutdownSaveTimeout()));
+
+            if (writtenRows >= 0) {
+                this.getLogger().info("Saved " + writtenRows + " rows to the database in " + (System
+                        .currentTimeMillis() - startTime) + " ms.");
+            } else {
+                this.getLogger().warning("Not all updates could be saved to the database in " + (System
+                        .currentTimeMillis() - startTime) + " ms.");
+            }
+
+            // Updates that do not reach the database stay in the journal, so they are recovered during the next start.
+            this.getUpdatePoolManager().closeJournal();
+        }
+
+        // Stop applying updates to the cache.
+        if (this.getCacheApplier() != null) {
+            this.getCacheApplier().stop();
+        }
+
+        // Stop loading data of players.
+        if (this.getPlayerDataLoader() != null) {
+            this.getPlayerDataLoader().shutdown();
+        }
+
+        // Close connections to the database.
+        if (this.getDatabaseConnector() != null) {
+            this.getDatabaseConnector().close();
+        }
 
         this.getLogger().info(this.getDescription().getFullName() + " has been disabled!");
 
@@ -240,6 +321,7 @@ public class Statz extends JavaPlugin {
         }
 
         // Important listeners that should always be on.
+        this.getServer().getPluginManager().registerEvents(new PreLoginListener(this), this);
         this.getServer().getPluginManager().registerEvents(new JoinPlayerListener(this), this);
         this.getServer().getPluginManager().registerEvents(new QuitListener(this), this);
 
@@ -572,6 +654,22 @@ public class Statz extends JavaPlugin {
         this.cachingManager = cachingManager;
     }
 
+    public CacheApplier getCacheApplier() {
+        return cacheApplier;
+    }
+
+    public void setCacheApplier(CacheApplier cacheApplier) {
+        this.cacheApplier = cacheApplier;
+    }
+
+    public PlayerDataLoader getPlayerDataLoader() {
+        return playerDataLoader;
+    }
+
+    public void setPlayerDataLoader(PlayerDataLoader playerDataLoader) {
+        this.playerDataLoader = playerDataLoader;
+    }
+
     public TaskManager getTaskManager() {
         return taskManager;
     }
@@ -588,6 +686,22 @@ public class Statz extends JavaPlugin {
         this.updatePoolManager = updatePoolManager;
     }
 
+    public LeaderboardManager getLeaderboardManager() {
+        return leaderboardManager;
+    }
+
+    public void setLeaderboardManager(LeaderboardManager leaderboardManager) {
+        this.leaderboardManager = leaderboardManager;
+    }
+
+    public MovementTracker getMovementTracker() {
+        return movementTracker;
+    }
+
+    public void setMovementTracker(MovementTracker movementTracker) {
+        this.movementTracker = movementTracker;
+    }
+
     public StatisticDescriptionConfig getStatisticDescriptionConfig() {
         return statisticDescriptionConfig;
     }
@@ -7,10 +7,12 @@ import me.staartvin.statz.datamanager.player.PlayerInfo;
 import me.staartvin.statz.datamanager.player.PlayerStat;
 import me.staartvin.statz.hooks.DependencyHandler;
 import me.staartvin.statz.hooks.StatzDependency;
+import me.staartvin.statz.leaderboard.LeaderboardEntry;
 import org.bukkit.Statistic;
 
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * API class of Statz that other plugins can use to retrieve information from Statz.
@@ -37,6 +39,83 @@ public class API {
 	public Double getTotalOf(final PlayerStat statType, final UUID uuid, final String worldName) {
 		PlayerInfo info = plugin.getDataManager().getPlayerInfo(uuid, statType);
 
+		if (info == null) {
+			return null;
+		}
+
+		return getTotal(info, statType, worldName);
+	}
+
+	/**
+	 * Get the total count for a stat of a specific player on a specific world, like
+	 * {@link #getTotalOf(PlayerStat, UUID, String)}. If Statz does not have info about this player regarding the
+	 * specific stat, it is loaded from the database first. This method never blocks the thread it is called on.
+	 * <br>Concurrent requests for the same player and stat share a single database read.
+	 * <br><b>The returned future is not completed on the main thread. Schedule a task if you need to use the Bukkit
+	 * API with the result.</b>
+	 * @param statType the {@link PlayerStat} to get info of.
+	 * @param uuid The UUID of the Player.
+	 * @param worldName Name of the world to get the info from, can also be null to find the total on all worlds.
+	 * @return a future that is completed with the total count of a stat.
+	 */
+	public CompletableFuture<Double> getTotalAsync(final PlayerStat statType, final UUID uuid, final String worldName) {
+		return plugin.getDataManager().getPlayerInfoAsync(uuid, statType)
+				.thenApply(info -> getTotal(info, statType, worldName));
+	}
+
+	/**
+	 * Get specific data of a specific statType for a given player, like
+	 * {@link #getSpecificData(PlayerStat, UUID, RowRequirement...)}. If Statz does not have info about this player
+	 * regarding the specific stat, it is loaded from the database first. This method never blocks the thread it is
+	 * called on.
+	 * <br>Concurrent requests for the same player and stat share a single database read.
+	 * <br><b>The returned future is not completed on the main thread. Schedule a task if you need to use the Bukkit
+	 * API with the result.</b>
+	 * @param statType The stat to get info of
+	 * @param uuid UUID of the Player
+	 * @param conditions Extra conditions that need to be met.
+	 * @return a future that is completed with the total count taking the given conditions in consideration.
+	 */
+	public CompletableFuture<Double> getSpecificDataAsync(final PlayerStat statType, final UUID uuid,
+														  final RowRequirement... conditions) {
+		return plugin.getDataManager().getPlayerInfoAsync(uuid, statType)
+				.thenApply(info -> info.getTotalValue(statType, conditions));
+	}
+
+	/**
+	 * Get the players with the highest total of a stat, highest first. The top players are kept in memory and
+	 * updated whenever Statz writes to the database, so most requests do not have to read the database.
+	 * This method never blocks the thread it is called on.
+	 * <br>Note that updates that have not been written to the database yet are not counted.
+	 * <br><b>The returned future is not completed on the main thread. Schedule a task if you need to use the Bukkit
+	 * API with the result.</b>
+	 * @param statType the {@link PlayerStat} to rank players on.
+	 * @param worldName Name of the world to rank players on, can also be null to rank players on all worlds.
+	 * @param count Number of players to get.
+	 * @return a future that is completed with at most count players, or an empty list if the stat cannot be ranked.
+	 */
+	public CompletableFuture<List<LeaderboardEntry>> getTopPlayers(final PlayerStat statType, final String worldName,
+																   final int count) {
+		return plugin.getLeaderboardManager().getTopPlayers(statType, worldName, count);
+	}
+
+	/**
+	 * Get the rank of a player for a stat. The player with the highest total has rank 1 and players with the same
+	 * total have the same rank. This method never blocks the thread it is called on.
+	 * <br>Note that updates that have not been written to the database yet are not counted.
+	 * <br><b>The returned future is not completed on the main thread. Schedule a task if you need to use the Bukkit
+	 * API with the result.</b>
+	 * @param statType the {@link PlayerStat} to rank the player on.
+	 * @param uuid The UUID of the Player.
+	 * @param worldName Name of the world to rank the player on, can also be null to rank the player on all worlds.
+	 * @return a future that is completed with the rank of the player, or null if the player has no data of the stat.
+	 */
+	public CompletableFuture<LeaderboardEntry> getRank(final PlayerStat statType, final UUID uuid,
+													   final String worldName) {
+		return plugin.getLeaderboardManager().getRank(statType, uuid, worldName);
+	}
+
+	private static Double getTotal(final PlayerInfo info, final PlayerStat statType, final String worldName) {
 		double value = 0;
 
         List<Query> results = info.getDataOfPlayerStat(statType);
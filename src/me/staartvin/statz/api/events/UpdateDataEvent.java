@@ -6,12 +6,17 @@ import me.staartvin.statz.datamanager.player.PlayerStat;
 import org.bukkit.event.Event;
 import org.bukkit.event.HandlerList;
 
-import java.util.HashMap;
-import java.util.List;
+import java.util.*;
 
 /**
- * This event is fired when changes are made to the Statz database. 
+ * This event is fired when changes are made to the Statz database.
  * <br>This event stores the queries in the pool privately and gives other plugins the ability to read the data that has changed.
+ * <br>
+ * <br>The event is fired asynchronously, once for every time the pools are written to the database. It only contains
+ * the updates that were actually written during that time. Conflicting updates are merged, so every player has at
+ * most one query per row of a statistic. Use {@link #getUpdatedValue(UUID, PlayerStat)} to get the total change of a
+ * statistic of a player, instead of polling the API.
+ * <br>The contents of the event cannot be changed.
  * @author Staartvin
  *
  */
@@ -22,23 +27,130 @@ public class UpdateDataEvent extends Event {
 	private static final HandlerList handlers = new HandlerList();
 
 	// Pool that stores all the changes made to the database
-	private HashMap<PlayerStat, List<Query>> pool = new HashMap<>();
+	private final Map<PlayerStat, List<Query>> pool = new EnumMap<>(PlayerStat.class);
+
+	// Sum of the changed values per player and statistic
+	private final Map<UUID, Map<PlayerStat, Double>> updatedValues = new HashMap<>();
+
+	public UpdateDataEvent(Map<PlayerStat, List<Query>> pool, Statz plugin) {
+		super(true);
 
-	public UpdateDataEvent(HashMap<PlayerStat, List<Query>> pool, Statz plugin) {
-		this.pool = pool;
 		this.plugin = plugin;
+
+		for (Map.Entry<PlayerStat, List<Query>> stat : pool.entrySet()) {
+			List<Query> queries = new ArrayList<>(stat.getValue().size());
+
+			for (Query query : stat.getValue()) {
+				// Copy the query, so changes to the original do not change the event.
+				queries.add(new Query(query.getData()));
+
+				UUID uuid = query.getUUID();
+
+				// Not all statistics have a value (such as the players table).
+				if (uuid == null || !query.hasColumn("value")) {
+					continue;
+				}
+
+				updatedValues.computeIfAbsent(uuid, player -> new EnumMap<>(PlayerStat.class)).merge(stat.getKey(),
+						query.getValue(), Double::sum);
+			}
+
+			this.pool.put(stat.getKey(), Collections.unmodifiableList(queries));
+		}
 	}
 
 	/**
 	 * Get the queries that have been sent to the server. This can be used to read what updates have been sent, but generally the
-	 * {@link #getUpdatedInfo(PlayerStat)} is used for that. 
+	 * {@link #getUpdatedValue(UUID, PlayerStat)} is used for that.
+	 * <br>Every call returns new copies of the queries, so changing them does not affect other plugins.
 	 * @param stat PlayerStat type to get the updated queries of.
 	 * @return a list of queries that were sent to the database or null if nothing was sent.
 	 */
 	public List<Query> getUpdateQueries(PlayerStat stat) {
-		return pool.get(stat);
+		List<Query> queries = pool.get(stat);
+
+		if (queries == null) {
+			return null;
+		}
+
+		List<Query> copies = new ArrayList<>(queries.size());
+
+		for (Query query : queries) {
+			copies.add(new Query(query.getData()));
+		}
+
+		return copies;
+	}
+
+	/**
+	 * Get the statistics that have been updated.
+	 * @return an unmodifiable set of the statistics that were sent to the database.
+	 */
+	public Set<PlayerStat> getUpdatedStats() {
+		return Collections.unmodifiableSet(pool.keySet());
+	}
+
+	/**
+	 * Get the players whose statistics have been updated.
+	 * @return an unmodifiable set of the UUIDs of the players that have changed values.
+	 */
+	public Set<UUID> getUpdatedPlayers() {
+		return Collections.unmodifiableSet(updatedValues.keySet());
+	}
+
+	/**
+	 * Get the total change of a statistic of a player. For statistics that are stored per world (or per other
+	 * column), this is the sum of the changes of all rows.
+	 * @param uuid UUID of the player
+	 * @param stat PlayerStat type to get the change of
+	 * @return the sum of the values that were added to the statistic of the player, or 0 if it did not change.
+	 * @throws IllegalArgumentException if the given uuid or stat is null.
+	 */
+	public double getUpdatedValue(UUID uuid, PlayerStat stat) throws IllegalArgumentException {
+		if (uuid == null) {
+			throw new IllegalArgumentException("UUID cannot be null.");
+		}
+
+		if (stat == null) {
+			throw new IllegalArgumentException("PlayerStat cannot be null.");
+		}
+
+		Map<PlayerStat, Double> values = updatedValues.get(uuid);
+
+		if (values == null) {
+			return 0;
+		}
+
+		return values.getOrDefault(stat, 0.0);
 	}
 
+	/**
+	 * Get the total change of every statistic of a player that has been updated.
+	 * @param uuid UUID of the player
+	 * @return an unmodifiable map of the sum of the changes per statistic. The map is empty if nothing changed.
+	 * @throws IllegalArgumentException if the given uuid is null.
+	 */
+	public Map<PlayerStat, Double> getUpdatedValues(UUID uuid) throws IllegalArgumentException {
+		if (uuid == null) {
+			throw new IllegalArgumentException("UUID cannot be null.");
+		}
+
+		Map<PlayerStat, Double> values = updatedValues.get(uuid);
+
+		if (values == null) {
+			return Collections.emptyMap();
+		}
+
+		return Collections.unmodifiableMap(values);
+	}
+
+	/**
+	 * Check whether any plugin listens to this event, so we can skip creating it when nobody does.
+	 * @return true if there is at least one listener registered.
+	 */
+	public static boolean hasListeners() {
+		return handlers.getRegisteredListeners().length > 0;
+	}
 
 	@Override
 	public HandlerList getHandlers() {
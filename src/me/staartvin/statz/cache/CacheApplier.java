@@ -0,0 +1,218 @@
+package me.staartvin.statz.cache;
+
+import me.staartvin.statz.Statz;
+import me.staartvin.statz.database.datatype.Query;
+import me.staartvin.statz.datamanager.player.PlayerStat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+
+/**
+ * The CacheApplier is responsible for applying new update queries to the cache of the {@link CachingManager}.
+ * Listeners register updates on the main thread, but updating the cache should not happen on the main thread.
+ * Instead of scheduling a new asynchronous task for every update, updates are put in a bounded queue. A single
+ * worker thread takes updates from this queue in batches and applies them to the cache. Since there is only one
+ * thread that applies updates, updates to the cache of the same player can never overwrite each other.
+ * <br>
+ * <br>
+ * When the queue is full, new updates are not applied to the cache. The update pool still has these updates, so
+ * the cache of the player is invalidated and refreshed with data from the database and the pending updates instead.
+ * <br>
+ * <br>
+ * Every update carries the sequence number it was given by the update pool. Updates that are already part of data
+ * the cache was refreshed with are skipped by the {@link CachingManager}.
+ */
+public class CacheApplier {
+
+    // Maximum number of updates that can be waiting to be applied.
+    private static final int QUEUE_CAPACITY = 8192;
+
+    // Maximum number of updates that are applied in one go.
+    private static final int MAX_BATCH_SIZE = 512;
+
+    private final Statz plugin;
+
+    private final BlockingQueue<CacheUpdate> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+
+    private final AtomicLong appliedUpdates = new AtomicLong();
+    private final AtomicLong droppedUpdates = new AtomicLong();
+    private final AtomicLong totalApplyLatency = new AtomicLong();
+    private volatile long lastApplyLatency = 0;
+
+    private volatile boolean running = false;
+    private Thread worker;
+
+    public CacheApplier(Statz instance) {
+        this.plugin = instance;
+    }
+
+    /**
+     * Start the worker thread that applies updates to the cache.
+     */
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+
+        running = true;
+
+        worker = new Thread(this::run, "Statz Cache Applier");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /**
+     * Stop the worker thread. Updates that are still in the queue will not be applied.
+     */
+    public synchronized void stop() {
+        if (!running) {
+            return;
+        }
+
+        running = false;
+        worker.interrupt();
+
+        try {
+            worker.join(TimeUnit.SECONDS.toMillis(1));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        queue.clear();
+    }
+
+    /**
+     * Add an update to the queue so it will be applied to the cache of the given player. This method never blocks.
+     *
+     * @param statType Type of statistic the query belongs to
+     * @param query    Query to apply
+     * @param uuid     UUID of the player
+     * @param sequenceNumber Sequence number the update pool assigned to the update
+     * @return true if the update was queued, false if the queue was full.
+     * @throws IllegalArgumentException if the given query is null or the uuid is null.
+     */
+    public boolean addUpdate(PlayerStat statType, Query query, UUID uuid, long sequenceNumber) throws
+            IllegalArgumentException {
+        if (query == null) {
+            throw new IllegalArgumentException("Query cannot be null.");
+        }
+
+        if (uuid == null) {
+            throw new IllegalArgumentException("UUID cannot be null.");
+        }
+
+        if (queue.offer(new CacheUpdate(statType, query, uuid, sequenceNumber))) {
+            return true;
+        }
+
+        droppedUpdates.incrementAndGet();
+        return false;
+    }
+
+    private void run() {
+        List<CacheUpdate> batch = new ArrayList<>(MAX_BATCH_SIZE);
+
+        while (running) {
+            try {
+                // Wait for at least one update and then take as many as we can.
+                batch.add(queue.take());
+                queue.drainTo(batch, MAX_BATCH_SIZE - 1);
+            } catch (InterruptedException e) {
+                break;
+            }
+
+            for (CacheUpdate update : batch) {
+                try {
+                    plugin.getCachingManager().applyCachedQuery(update.statType, update.query, update.uuid,
+                            update.sequenceNumber);
+                } catch (Exception e) {
+                    plugin.getLogger().log(Level.SEVERE, "Could not apply update to cache of " + update.uuid, e);
+                    continue;
+                }
+
+                long latency = System.nanoTime() - update.queuedTime;
+
+                lastApplyLatency = latency;
+                totalApplyLatency.addAndGet(latency);
+                appliedUpdates.incrementAndGet();
+            }
+
+            batch.clear();
+        }
+    }
+
+    /**
+     * Get the number of updates that are waiting to be applied to the cache.
+     *
+     * @return number of updates in the queue.
+     */
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    /**
+     * Get the number of updates that have been applied to the cache.
+     *
+     * @return number of applied updates.
+     */
+    public long getAppliedUpdates() {
+        return appliedUpdates.get();
+    }
+
+    /**
+     * Get the number of updates that were not applied because the queue was full.
+     *
+     * @return number of dropped updates.
+     */
+    public long getDroppedUpdates() {
+        return droppedUpdates.get();
+    }
+
+    /**
+     * Get the time between queueing and applying of the most recently applied update.
+     *
+     * @return latency of the last update (in milliseconds).
+     */
+    public double getLastApplyLatency() {
+        return lastApplyLatency / 1_000_000.0;
+    }
+
+    /**
+     * Get the average time between queueing and applying an update.
+     *
+     * @return average latency of all applied updates (in milliseconds) or 0 if no updates were applied.
+     */
+    public double getAverageApplyLatency() {
+        long applied = appliedUpdates.get();
+
+        if (applied == 0) {
+            return 0;
+        }
+
+        return totalApplyLatency.get() / (double) applied / 1_000_000.0;
+    }
+
+    /**
+     * An update that is waiting to be applied to the cache.
+     */
+    private static class CacheUpdate {
+        private final PlayerStat statType;
+        private final Query query;
+        private final UUID uuid;
+        private final long sequenceNumber;
+        private final long queuedTime = System.nanoTime();
+
+        private CacheUpdate(PlayerStat statType, Query query, UUID uuid, long sequenceNumber) {
+            this.statType = statType;
+            this.query = query;
+            this.uuid = uuid;
+            this.sequenceNumber = sequenceNumber;
+        }
+    }
+}
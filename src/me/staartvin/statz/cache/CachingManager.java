@@ -1,13 +1,16 @@
 package me.staartvin.statz.cache;
 
+import me.staartvin.statz.Statz;
 import me.staartvin.statz.database.datatype.Query;
 import me.staartvin.statz.datamanager.player.PlayerInfo;
 import me.staartvin.statz.datamanager.player.PlayerStat;
+import me.staartvin.statz.update.FlushEpochs;
+import me.staartvin.statz.update.PendingUpdates;
+import me.staartvin.statz.update.UpdatePoolManager;
 
-import java.util.ArrayList;
-import java.util.List;
-import java.util.UUID;
+import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * This class is responsible for keeping a record of cached data for a loaded player. Each time an update query is
@@ -21,18 +24,145 @@ import java.util.concurrent.ConcurrentHashMap;
  * <br>
  * <br>
  * Finally, there is task that runs periodically that grabs the data from the database and overwrites the cache. This
- * happens to prevent a possible deviation between the real data (in the database) and the cache.
+ * happens to prevent a possible deviation between the real data (in the database) and the cache. Data from the
+ * database is combined with the updates that have not been written to the database yet (see
+ * {@link #registerDatabaseData(UUID, PlayerInfo, FlushEpochs)}), so updates are never lost or counted twice when
+ * the cache is refreshed.
+ * <br>
+ * <br>
+ * For every player, the cache remembers which statistics have been loaded from the database (see
+ * {@link #isPlayerCacheLoaded(UUID, PlayerStat)}). A statistic that is loaded but has no data is cached as well, so
+ * we don't keep asking the database for data that does not exist. Updates that are applied to a statistic that was
+ * not loaded yet are cached, but do not mark the statistic as loaded.
+ * <br>
+ * <br>
+ * The data of online players is always kept in the cache (they are 'pinned'). The data of offline players (e.g.
+ * loaded by placeholders or commands) is kept in a tier with a limited size, see {@link OfflinePlayerCache}. When
+ * the tier is full, the offline players that were least recently used are evicted.
  */
 public class CachingManager {
 
-    // TODO: implement a way to check whether we already loaded a certain statistic. Now, when a player does not have
-    // anything stored in the database for a given statistic, the cache for that statistic is empty (as it should be)
-    // , but this means that it keeps loading fresh data from the database when cached data is requested. We should
-    // make a way to know when data has been cached but it is empty for a player.
+    // Default maximum number of rows of offline players that are kept in the cache.
+    public static final int DEFAULT_OFFLINE_PLAYER_CACHE_SIZE = 50000;
 
     // To keep track of the cached data
     private ConcurrentHashMap<UUID, PlayerInfo> cachedPlayerData = new ConcurrentHashMap<>();
 
+    // Keep track of the statistics that have been loaded from the database for each player. Only changed while
+    // computing the cache of the player.
+    private ConcurrentHashMap<UUID, LoadState> loadStates = new ConcurrentHashMap<>();
+
+    // Sequence number of the last update that is included in the cache of a player, per statistic. Updates with a
+    // lower sequence number should not be applied again. Only accessed while computing the cache of the player.
+    private ConcurrentHashMap<UUID, long[]> watermarks = new ConcurrentHashMap<>();
+
+    // Players whose data is never evicted from the cache (online players).
+    private Set<UUID> pinnedPlayers = ConcurrentHashMap.newKeySet();
+
+    // Players that are not pinned and can be evicted.
+    private OfflinePlayerCache offlinePlayers;
+
+    private final AtomicLong cacheHits = new AtomicLong();
+    private final AtomicLong cacheMisses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    private Statz plugin;
+
+    public CachingManager(Statz instance) {
+        this.plugin = instance;
+        this.offlinePlayers = new OfflinePlayerCache(instance.getConfigHandler().getOfflinePlayerCacheSize());
+    }
+
+    /**
+     * Pin the data of a player in the cache, so it will not be evicted. This should be done when a player joins the
+     * server.
+     *
+     * @param uuid UUID of the player
+     */
+    public void pinPlayer(UUID uuid) {
+        if (uuid == null) {
+            return;
+        }
+
+        pinnedPlayers.add(uuid);
+        offlinePlayers.remove(uuid);
+    }
+
+    /**
+     * Unpin the data of a player, so it can be evicted from the cache when the cache of offline players is full.
+     * This should be done when a player leaves the server.
+     *
+     * @param uuid UUID of the player
+     */
+    public void unpinPlayer(UUID uuid) {
+        if (uuid == null || !pinnedPlayers.remove(uuid)) {
+            return;
+        }
+
+        this.updateOfflinePlayer(uuid);
+    }
+
+    /**
+     * Update the weight of an offline player after its data was loaded and evict other offline players if needed.
+     *
+     * @param uuid UUID of the player
+     */
+    private void updateOfflinePlayer(UUID uuid) {
+        if (pinnedPlayers.contains(uuid)) {
+            return;
+        }
+
+        PlayerInfo cachedData = cachedPlayerData.get(uuid);
+
+        if (cachedData == null) {
+            return;
+        }
+
+        // Players without any rows still take up some space.
+        for (UUID evictedPlayer : offlinePlayers.put(uuid, cachedData.getTotalNumberOfRows() + 1)) {
+            this.evictPlayer(evictedPlayer);
+        }
+    }
+
+    /**
+     * Remove the data of a player from the cache, unless the player has been pinned in the meantime.
+     *
+     * @param uuid UUID of the player
+     */
+    private void evictPlayer(UUID uuid) {
+        cachedPlayerData.computeIfPresent(uuid, (id, cachedData) -> {
+            if (pinnedPlayers.contains(id)) {
+                return cachedData;
+            }
+
+            loadStates.remove(id);
+            watermarks.remove(id);
+
+            evictions.incrementAndGet();
+
+            return null;
+        });
+    }
+
+    /**
+     * Record a lookup of the cache of a player.
+     *
+     * @param uuid UUID of the player
+     * @param hit  Whether the requested data was found in the cache
+     */
+    private void recordLookup(UUID uuid, boolean hit) {
+        if (!hit) {
+            cacheMisses.incrementAndGet();
+            return;
+        }
+
+        cacheHits.incrementAndGet();
+
+        if (!pinnedPlayers.contains(uuid)) {
+            offlinePlayers.touch(uuid);
+        }
+    }
+
     /**
      * Register cached data for a player. It will overwrite any current cached data.
      *
@@ -48,7 +178,144 @@ public class CachingManager {
         }
 
         // Store data in cache, overwriting previous data
-        cachedPlayerData.put(uuid, dataToCache);
+        cachedPlayerData.compute(uuid, (id, cachedData) -> {
+            LoadState loadState = new LoadState();
+
+            loadState.markLoaded(dataToCache.getRowsPerStatistic().keySet());
+
+            loadStates.put(id, loadState);
+
+            return dataToCache;
+        });
+
+        this.updateOfflinePlayer(uuid);
+    }
+
+    /**
+     * Register data of a player that was read from the database. The data of each statistic is combined with the
+     * updates of the player that have not been written to the database yet and then overwrites the cached data of
+     * that statistic. Statistics that are not part of the given data are left untouched.
+     * <br>
+     * <br>
+     * The data of a statistic can only be combined with the pending updates if the statistic was not written to the
+     * database while it was read, as we cannot know whether the database data already contains the updates that
+     * were being written. Hence, a snapshot of the {@link FlushEpochs} should be taken before the database is read.
+     * The cached data of statistics that were written in the meantime is not changed; these statistics are returned
+     * so the caller can try again.
+     *
+     * @param uuid         UUID of the player
+     * @param databaseData Data that was read from the database
+     * @param epochs       Flush epochs that were obtained before the database was read
+     * @return the statistics of the given data that could not be registered.
+     * @throws IllegalArgumentException if any of the given arguments is null.
+     */
+    public Set<PlayerStat> registerDatabaseData(UUID uuid, PlayerInfo databaseData, FlushEpochs epochs) throws
+            IllegalArgumentException {
+
+        if (uuid == null) {
+            throw new IllegalArgumentException("UUID cannot be null.");
+        }
+
+        if (databaseData == null) {
+            throw new IllegalArgumentException("Database data cannot be null.");
+        }
+
+        if (epochs == null) {
+            throw new IllegalArgumentException("Flush epochs cannot be null.");
+        }
+
+        Set<PlayerStat> unstableStatistics = EnumSet.noneOf(PlayerStat.class);
+
+        Map<PlayerStat, List<Query>> databaseRows = databaseData.getRowsPerStatistic();
+
+        cachedPlayerData.compute(uuid, (id, cachedData) -> {
+            UpdatePoolManager updatePoolManager = plugin.getUpdatePoolManager();
+
+            // First get the pending updates and only then check whether a flush happened in the meantime, so the
+            // pending updates cannot be missing updates that were written after the database was read.
+            PendingUpdates pendingUpdates = updatePoolManager.getPendingUpdates(id);
+            FlushEpochs currentEpochs = updatePoolManager.getFlushEpochs();
+
+            long[] watermark = watermarks.computeIfAbsent(id, player -> new long[PlayerStat.values().length]);
+            LoadState loadState = loadStates.computeIfAbsent(id, player -> new LoadState());
+
+            Set<PlayerStat> loadedStatistics = EnumSet.noneOf(PlayerStat.class);
+
+            PlayerInfo newData = cachedData;
+
+            for (Map.Entry<PlayerStat, List<Query>> entry : databaseRows.entrySet()) {
+                PlayerStat statType = entry.getKey();
+
+                if (!epochs.isStable(statType, currentEpochs)) {
+                    unstableStatistics.add(statType);
+                    continue;
+                }
+
+                List<Query> rows = new ArrayList<>(entry.getValue());
+                rows.addAll(pendingUpdates.getUpdates(statType));
+
+                if (newData == null) {
+                    newData = new PlayerInfo(id);
+                }
+
+                newData.setData(statType, rows);
+
+                // Updates up to this sequence number are now part of the cache.
+                watermark[statType.ordinal()] = pendingUpdates.getSequenceNumber();
+
+                loadedStatistics.add(statType);
+            }
+
+            loadState.markLoaded(loadedStatistics);
+
+            return newData;
+        });
+
+        this.updateOfflinePlayer(uuid);
+
+        return unstableStatistics;
+    }
+
+    /**
+     * Mark the cache of a player as out-of-date, e.g. because an update could not be applied to it. The cache of
+     * online players is kept, but it is no longer considered validated, so it is refreshed as soon as possible. The
+     * data of offline players is removed from the cache, so it is loaded again the next time it is needed.
+     *
+     * @param uuid UUID of the player
+     */
+    public void invalidatePlayerCache(UUID uuid) {
+        if (uuid == null) {
+            return;
+        }
+
+        if (!pinnedPlayers.contains(uuid)) {
+            offlinePlayers.remove(uuid);
+            this.evictPlayer(uuid);
+        }
+
+        LoadState loadState = loadStates.get(uuid);
+
+        if (loadState != null) {
+            loadState.invalidate();
+        }
+    }
+
+    /**
+     * Get the last time the cache of a player was validated, i.e. overwritten with data from the database using
+     * {@link #registerCachedData(UUID, PlayerInfo)} or {@link #registerDatabaseData(UUID, PlayerInfo, FlushEpochs)}.
+     *
+     * @param uuid UUID of the player
+     * @return the time (in milliseconds since epoch) the cache of the player was validated or 0 if it was never
+     * validated.
+     */
+    public long getLastValidationTime(UUID uuid) {
+        if (uuid == null) {
+            return 0;
+        }
+
+        LoadState loadState = loadStates.get(uuid);
+
+        return loadState == null ? 0 : loadState.getValidationTime();
     }
 
     /**
@@ -67,18 +334,15 @@ public class CachingManager {
             throw new IllegalArgumentException("Data to cache is null.");
         }
 
-        PlayerInfo cachedData = getCachedPlayerData(uuid);
+        // Resolve conflicts with the cached data (if there is any) and update cache atomically.
+        cachedPlayerData.compute(uuid, (id, cachedData) -> {
+            loadStates.computeIfAbsent(id, player -> new LoadState()).markLoaded(dataToCache.getRowsPerStatistic()
+                    .keySet());
 
-        // There is no cached data, so we just register new data.
-        if (cachedData == null) {
-            registerCachedData(uuid, dataToCache);
-            return;
-        }
+            return cachedData == null ? dataToCache : cachedData.resolveConflicts(dataToCache);
+        });
 
-        // Resolve conflicts and update cache.
-        PlayerInfo resolvedCache = cachedData.resolveConflicts(dataToCache);
-        // Update cache with new cached data.
-        this.registerCachedData(uuid, resolvedCache);
+        this.updateOfflinePlayer(uuid);
     }
 
     /**
@@ -117,25 +381,96 @@ public class CachingManager {
             throw new IllegalArgumentException("UUID cannot be null.");
         }
 
-        PlayerInfo info = new PlayerInfo(uuid);
+        this.applyCachedQuery(statType, queryToAdd, uuid);
+    }
 
-        info.addRow(statType, queryToAdd);
+    /**
+     * Apply a single query to the cache of a player, changing the cached data in place. If the cache already has a
+     * row that conflicts with the given query, the value of the query is added to that row. If there is no cached
+     * data for the player yet, it is created.
+     * <br>
+     * Updates to the cache of the same player are performed atomically, so concurrent updates cannot overwrite each
+     * other.
+     *
+     * @param statType   Type of statistic the query belongs to
+     * @param queryToAdd Query to apply
+     * @param uuid       UUID of the player
+     * @throws IllegalArgumentException if the given query is null or the uuid is null.
+     */
+    public void applyCachedQuery(PlayerStat statType, Query queryToAdd, UUID uuid) throws IllegalArgumentException {
+        this.applyCachedQuery(statType, queryToAdd, uuid, Long.MAX_VALUE);
+    }
 
-        this.addCachedData(uuid, info);
+    /**
+     * Apply a single update of the update pool to the cache of a player, like
+     * {@link #applyCachedQuery(PlayerStat, Query, UUID)}. The update is skipped if the cache was refreshed with data
+     * that already includes it (see {@link #registerDatabaseData(UUID, PlayerInfo, FlushEpochs)}).
+     *
+     * @param statType       Type of statistic the query belongs to
+     * @param queryToAdd     Query to apply
+     * @param uuid           UUID of the player
+     * @param sequenceNumber Sequence number the update pool assigned to the update
+     * @throws IllegalArgumentException if the given query is null or the uuid is null.
+     */
+    public void applyCachedQuery(PlayerStat statType, Query queryToAdd, UUID uuid, long sequenceNumber) throws
+            IllegalArgumentException {
+
+        if (queryToAdd == null) {
+            throw new IllegalArgumentException("Query cannot be null.");
+        }
+
+        if (uuid == null) {
+            throw new IllegalArgumentException("UUID cannot be null.");
+        }
+
+        cachedPlayerData.compute(uuid, (id, cachedData) -> {
+            long[] watermark = watermarks.get(id);
+
+            // The cache already contains this update.
+            if (watermark != null && sequenceNumber <= watermark[statType.ordinal()]) {
+                return cachedData;
+            }
+
+            if (cachedData == null) {
+                // Offline players are only cached when their data is loaded. The update will be in the database by
+                // then.
+                if (!pinnedPlayers.contains(id)) {
+                    return null;
+                }
+
+                cachedData = new PlayerInfo(id);
+            }
+
+            cachedData.mergeRow(statType, queryToAdd);
+
+            return cachedData;
+        });
     }
 
     /**
      * Check whether a player's data is loaded in the cache.
      *
      * @param uuid UUID of player
-     * @return true if there is cached data about the given player. False otherwise.
+     * @return true if at least one statistic of the given player has been loaded from the database. False otherwise.
      */
     public boolean isPlayerCacheLoaded(UUID uuid) {
-        return cachedPlayerData.containsKey(uuid) && cachedPlayerData.get(uuid) != null;
+        if (uuid == null) {
+            return false;
+        }
+
+        LoadState loadState = loadStates.get(uuid);
+
+        boolean loaded = loadState != null && !loadState.getLoadedStatistics().isEmpty() && cachedPlayerData
+                .containsKey(uuid);
+
+        this.recordLookup(uuid, loaded);
+
+        return loaded;
     }
 
     /**
-     * Check whether a player's data is loaded for a given statistic in the cache.
+     * Check whether a player's data is loaded for a given statistic in the cache. Note that a statistic can be
+     * loaded while the player has no data of the statistic.
      *
      * @param uuid     UUID of the player
      * @param statType Type of statistic to check
@@ -144,13 +479,34 @@ public class CachingManager {
      */
     public boolean isPlayerCacheLoaded(UUID uuid, PlayerStat statType) {
 
-        // Check if we have at least one statistic stored for the player
-        if (!isPlayerCacheLoaded(uuid)) {
+        if (uuid == null) {
             return false;
         }
 
+        LoadState loadState = loadStates.get(uuid);
+
         // Check if the data has been loaded before (can be an empty list).
-        return cachedPlayerData.get(uuid).hasDataOfPlayerStat(statType);
+        boolean loaded = loadState != null && loadState.isLoaded(statType) && cachedPlayerData.containsKey(uuid);
+
+        this.recordLookup(uuid, loaded);
+
+        return loaded;
+    }
+
+    /**
+     * Get the statistics of a player that have been loaded from the database.
+     *
+     * @param uuid UUID of the player
+     * @return a set of statistics that are loaded for the player (can be empty).
+     */
+    public Set<PlayerStat> getLoadedStatistics(UUID uuid) {
+        if (uuid == null) {
+            return EnumSet.noneOf(PlayerStat.class);
+        }
+
+        LoadState loadState = loadStates.get(uuid);
+
+        return loadState == null ? EnumSet.noneOf(PlayerStat.class) : loadState.getLoadedStatistics();
     }
 
     /**
@@ -161,4 +517,88 @@ public class CachingManager {
     public List<UUID> getCachedPlayers() {
         return new ArrayList<>(this.cachedPlayerData.keySet());
     }
+
+    /**
+     * Get the number of lookups that found the requested data in the cache.
+     *
+     * @return number of cache hits.
+     */
+    public long getCacheHits() {
+        return cacheHits.get();
+    }
+
+    /**
+     * Get the number of lookups that did not find the requested data in the cache.
+     *
+     * @return number of cache misses.
+     */
+    public long getCacheMisses() {
+        return cacheMisses.get();
+    }
+
+    /**
+     * Get the number of offline players that have been evicted from the cache.
+     *
+     * @return number of evictions.
+     */
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    /**
+     * Get the number of offline players that are cached.
+     *
+     * @return number of offline players in the cache.
+     */
+    public int getCachedOfflinePlayerCount() {
+        return offlinePlayers.size();
+    }
+
+    /**
+     * Get the number of rows that are cached for offline players.
+     *
+     * @return total number of rows of offline players in the cache.
+     */
+    public long getCachedOfflinePlayerRows() {
+        return offlinePlayers.getTotalWeight();
+    }
+
+    /**
+     * The statistics of a player that have been loaded from the database and the last time the cache of the player
+     * was validated.
+     */
+    private static class LoadState {
+        private final Set<PlayerStat> loadedStatistics = EnumSet.noneOf(PlayerStat.class);
+        private long validationTime = 0;
+
+        /**
+         * Mark the given statistics as loaded. If any statistic is given, the validation time is updated.
+         *
+         * @param statTypes Statistics that have been loaded
+         */
+        private synchronized void markLoaded(Collection<PlayerStat> statTypes) {
+            if (statTypes.isEmpty()) {
+                return;
+            }
+
+            loadedStatistics.addAll(statTypes);
+            validationTime = System.currentTimeMillis();
+        }
+
+        private synchronized boolean isLoaded(PlayerStat statType) {
+            return loadedStatistics.contains(statType);
+        }
+
+        private synchronized Set<PlayerStat> getLoadedStatistics() {
+            return EnumSet.copyOf(loadedStatistics);
+        }
+
+        private synchronized void invalidate() {
+            validationTime = 0;
+        }
+
+        private synchronized long getValidationTime() {
+            return validationTime;
+        }
+    }
 }
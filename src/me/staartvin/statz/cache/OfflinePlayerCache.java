@@ -0,0 +1,109 @@
+package me.staartvin.statz.cache;
+
+import java.util.*;
+
+/**
+ * Keeps track of the cached data of offline players for the {@link CachingManager}. Every offline player has a
+ * weight (the number of rows that are cached for the player). When the total weight of all offline players exceeds
+ * the maximum weight, the players that were least recently used are evicted first.
+ * <br>
+ * <br>
+ * This class only decides which players should be evicted. The {@link CachingManager} removes their data from the
+ * cache. Online players are never part of this tier.
+ */
+class OfflinePlayerCache {
+
+    private final long maximumWeight;
+
+    // Weight of every offline player, in order of access (least recently used first).
+    private final LinkedHashMap<UUID, Integer> weights = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long totalWeight = 0;
+
+    OfflinePlayerCache(long maximumWeight) {
+        this.maximumWeight = maximumWeight;
+    }
+
+    /**
+     * Add or update an offline player in this tier and mark the player as most recently used.
+     *
+     * @param uuid   UUID of the player
+     * @param weight Number of rows that are cached for the player
+     * @return the players that should be evicted to stay within the maximum weight. The given player is only evicted
+     * if its weight is larger than the maximum weight on its own.
+     */
+    synchronized List<UUID> put(UUID uuid, int weight) {
+        Integer oldWeight = weights.put(uuid, weight);
+
+        if (oldWeight != null) {
+            totalWeight -= oldWeight;
+        }
+
+        totalWeight += weight;
+
+        List<UUID> evictedPlayers = new ArrayList<>();
+
+        Iterator<Map.Entry<UUID, Integer>> iterator = weights.entrySet().iterator();
+
+        while (totalWeight > maximumWeight && iterator.hasNext()) {
+            Map.Entry<UUID, Integer> entry = iterator.next();
+
+            totalWeight -= entry.getValue();
+            evictedPlayers.add(entry.getKey());
+
+            iterator.remove();
+        }
+
+        return evictedPlayers;
+    }
+
+    /**
+     * Mark an offline player as most recently used. Nothing happens if the player is not part of this tier.
+     *
+     * @param uuid UUID of the player
+     */
+    synchronized void touch(UUID uuid) {
+        // Reading an entry moves it to the end of the access order.
+        weights.get(uuid);
+    }
+
+    /**
+     * Remove a player from this tier, e.g. because the player came online.
+     *
+     * @param uuid UUID of the player
+     */
+    synchronized void remove(UUID uuid) {
+        Integer weight = weights.remove(uuid);
+
+        if (weight != null) {
+            totalWeight -= weight;
+        }
+    }
+
+    /**
+     * Get the number of offline players in this tier.
+     *
+     * @return number of offline players that are cached.
+     */
+    synchronized int size() {
+        return weights.size();
+    }
+
+    /**
+     * Get the total weight of all offline players in this tier.
+     *
+     * @return total number of rows that are cached for offline players.
+     */
+    synchronized long getTotalWeight() {
+        return totalWeight;
+    }
+
+    /**
+     * Get the maximum weight of this tier.
+     *
+     * @return maximum number of rows that can be cached for offline players.
+     */
+    long getMaximumWeight() {
+        return maximumWeight;
+    }
+}
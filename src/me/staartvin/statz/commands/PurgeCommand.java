@@ -94,6 +94,11 @@ public class PurgeCommand extends StatzCommand {
             count++;
         }
 
+        // Purged players may still be on a leaderboard.
+        if (count > 0) {
+            plugin.getLeaderboardManager().invalidate();
+        }
+
         sender.sendMessage(ChatColor.GREEN + "Successfully removed " + count + " players from the database.");
 
         return true;
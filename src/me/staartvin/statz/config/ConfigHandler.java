@@ -1,12 +1,21 @@
 package me.staartvin.statz.config;
 
 import me.staartvin.statz.Statz;
+import me.staartvin.statz.cache.CachingManager;
+import me.staartvin.statz.database.SQLiteProfile;
+import me.staartvin.statz.datamanager.PlayerDataLoader;
 import me.staartvin.statz.datamanager.player.PlayerStat;
+import me.staartvin.statz.leaderboard.LeaderboardManager;
+import me.staartvin.statz.placeholders.PlaceholderCache;
+import me.staartvin.statz.placeholders.PlaceholderRankings;
 import me.staartvin.statz.tasks.TaskManager;
+import me.staartvin.statz.update.FlushPriority;
+import me.staartvin.statz.update.FlushScheduler;
+import me.staartvin.statz.update.UpdateJournal;
+import me.staartvin.statz.update.UpdatePoolManager;
+import org.bukkit.configuration.ConfigurationSection;
 
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.List;
+import java.util.*;
 
 public class ConfigHandler {
 
@@ -47,6 +56,45 @@ public class ConfigHandler {
                 "disabled by default "
                 + "\nThe 'refresh player cache time' is the time (in seconds) to refresh the cache of a player, you " +
                 "should not have to alter it."
+                + "\nThe 'distance travelled sample time' is the time (in seconds) after which the distance " +
+                "travelled by players is added to the update pool. Distance is also added when a player changes " +
+                "worlds or leaves the server."
+                + "\nThe 'offline player cache size' is the maximum number of statistic rows of offline players " +
+                "that are kept in memory. Offline players that have not been looked at for the longest time are " +
+                "removed first. Online players are always kept in memory."
+                + "\nThe 'player data prefetch timeout' is the maximum time (in milliseconds) that Statz delays the " +
+                "login of a player while their data is loaded. The data keeps loading in the background when it " +
+                "takes longer. Set it to 0 to never delay logins."
+                + "\nThe sqlite section is only used when MySQL is disabled. 'use wal' lets Statz read from the " +
+                "database while it is writing to it. The 'performance profile' can be 'safe', 'balanced' or 'fast'. " +
+                "'safe' never loses data on a power failure, 'fast' uses more memory and may lose the latest data " +
+                "on a power failure. 'read connections' is the number of connections that can read at the same " +
+                "time and 'checkpoint interval' is the time (in seconds) after which the WAL file is written to the " +
+                "database."
+                + "\nWhen 'use update journal' is true, Statz writes every update to a journal on disk, so updates " +
+                "that were not saved to the database yet are recovered after a crash. The 'update journal sync " +
+                "interval' is the time (in milliseconds) between two writes of the journal to disk. This allows you " +
+                "to use a higher 'periodic save time' without losing data."
+                + "\nStatz writes updates to the database as soon as there are more than 'flush pool size' of them, " +
+                "when they take up more than 'flush memory limit' megabytes or when they have waited long enough. " +
+                "How long updates of a statistic may wait depends on its priority in 'flush priorities': 'fast' " +
+                "statistics are written five times as often as the 'periodic save time', 'normal' statistics every " +
+                "'periodic save time' and 'lazy' statistics six times less often. Flush priorities are ignored when " +
+                "'use update journal' is true, as the journal can only forget the updates of all statistics at " +
+                "once. When the database becomes slow, Statz waits longer between writes."
+                + "\nThe 'leaderboard size' is the number of top players of a statistic that Statz keeps in memory. " +
+                "Leaderboards are kept up to date as updates are written, but are read from the database again " +
+                "(at most once every 'leaderboard refresh interval' seconds) when a player may have entered them."
+                + "\nThe placeholders %statz_top_<stat>_<n>_name%, %statz_top_<stat>_<n>_value% and " +
+                "%statz_rank_<stat>% show the top 'placeholder ranking size' players of a statistic. The rankings are " +
+                "refreshed every 'placeholder ranking refresh interval' seconds. The rank of a player outside the " +
+                "top is looked up separately and remembered for the same interval. Other placeholders of a player " +
+                "are remembered for 'placeholder cache time' milliseconds."
+                + "\nThe 'maximum pending updates' is the number of updates Statz keeps in memory while the database " +
+                "is unavailable. When there are more, they are moved to a file on disk and written to the database " +
+                "when it is available again."
+                + "\nThe 'shutdown save timeout' is the maximum time (in seconds) that Statz waits for the last " +
+                "updates to be saved to the database when the server stops."
                 + "\nThe 'enable logging' option allows you to enable or disable logging of certain statistics. It " +
                 "is off by default and create large log files if left on for a long time."
                 + "\nThe option 'make backup of database before patching' tells Statz whether to make a backup of the" +
@@ -63,10 +111,44 @@ public class ConfigHandler {
         plugin.getConfig().addDefault("mysql.database", "Statz");
         plugin.getConfig().addDefault("mysql.database for backups", "Statz_backups");
 
+        plugin.getConfig().addDefault("sqlite.use wal", true);
+        plugin.getConfig().addDefault("sqlite.performance profile", SQLiteProfile.BALANCED.name().toLowerCase());
+        plugin.getConfig().addDefault("sqlite.read connections", 4);
+        plugin.getConfig().addDefault("sqlite.checkpoint interval", 60);
+
+        plugin.getConfig().addDefault("use update journal", false);
+        plugin.getConfig().addDefault("update journal sync interval", UpdateJournal.DEFAULT_SYNC_INTERVAL);
+
+        plugin.getConfig().addDefault("shutdown save timeout", 10);
+
+        plugin.getConfig().addDefault("maximum pending updates", UpdatePoolManager.DEFAULT_MAXIMUM_PENDING_UPDATES);
+
         plugin.getConfig().addDefault("periodic save time", TaskManager.UPDATE_DATABASE_TASK_INTERVAL);
 
+        plugin.getConfig().addDefault("flush pool size", FlushScheduler.DEFAULT_FLUSH_POOL_SIZE);
+        plugin.getConfig().addDefault("flush memory limit", FlushScheduler.DEFAULT_FLUSH_MEMORY_LIMIT);
+        plugin.getConfig().addDefault("flush priorities." + PlayerStat.TIME_PLAYED.name(), FlushPriority.LAZY.name()
+                .toLowerCase());
+        plugin.getConfig().addDefault("flush priorities." + PlayerStat.KILLS_PLAYERS.name(), FlushPriority.FAST.name()
+                .toLowerCase());
+
+        plugin.getConfig().addDefault("leaderboard size", LeaderboardManager.DEFAULT_LEADERBOARD_SIZE);
+        plugin.getConfig().addDefault("leaderboard refresh interval", LeaderboardManager.DEFAULT_REFRESH_INTERVAL);
+
+        plugin.getConfig().addDefault("placeholder ranking size", PlaceholderRankings.DEFAULT_RANKING_SIZE);
+        plugin.getConfig().addDefault("placeholder ranking refresh interval", PlaceholderRankings
+                .DEFAULT_REFRESH_INTERVAL);
+
+        plugin.getConfig().addDefault("placeholder cache time", PlaceholderCache.DEFAULT_TIME_TO_LIVE);
+
         plugin.getConfig().addDefault("refresh player cache time", TaskManager.UPDATE_PLAYER_CACHE_INTERVAL);
 
+        plugin.getConfig().addDefault("distance travelled sample time", TaskManager.MOVEMENT_SAMPLE_INTERVAL);
+
+        plugin.getConfig().addDefault("offline player cache size", CachingManager.DEFAULT_OFFLINE_PLAYER_CACHE_SIZE);
+
+        plugin.getConfig().addDefault("player data prefetch timeout", PlayerDataLoader.DEFAULT_PREFETCH_TIMEOUT);
+
         plugin.getConfig().addDefault("disabled statistics",
                 Arrays.asList("DISABLED_STAT_NAME_HERE", "OTHER_DISABLED_STAT_NAME"));
 
@@ -142,14 +224,119 @@ public class ConfigHandler {
         return plugin.getConfig().getString("mysql.database for backups", "Statz_backups");
     }
 
+    public boolean isSQLiteWALEnabled() {
+        return plugin.getConfig().getBoolean("sqlite.use wal", true);
+    }
+
+    public String getSQLiteProfile() {
+        return plugin.getConfig().getString("sqlite.performance profile", SQLiteProfile.BALANCED.name().toLowerCase());
+    }
+
+    public int getSQLiteReadConnections() {
+        return plugin.getConfig().getInt("sqlite.read connections", 4);
+    }
+
+    public int getSQLiteCheckpointInterval() {
+        return plugin.getConfig().getInt("sqlite.checkpoint interval", 60);
+    }
+
+    public boolean isUpdateJournalEnabled() {
+        return plugin.getConfig().getBoolean("use update journal", false);
+    }
+
+    public int getUpdateJournalSyncInterval() {
+        return plugin.getConfig().getInt("update journal sync interval", UpdateJournal.DEFAULT_SYNC_INTERVAL);
+    }
+
+    public int getMaximumPendingUpdates() {
+        return plugin.getConfig().getInt("maximum pending updates", UpdatePoolManager.DEFAULT_MAXIMUM_PENDING_UPDATES);
+    }
+
+    public int getShutdownSaveTimeout() {
+        return plugin.getConfig().getInt("shutdown save timeout", 10);
+    }
+
     public int getPeriodicSaveTime() {
         return plugin.getConfig().getInt("periodic save time", TaskManager.UPDATE_DATABASE_TASK_INTERVAL);
     }
 
+    public int getFlushPoolSize() {
+        return plugin.getConfig().getInt("flush pool size", FlushScheduler.DEFAULT_FLUSH_POOL_SIZE);
+    }
+
+    public int getFlushMemoryLimit() {
+        return plugin.getConfig().getInt("flush memory limit", FlushScheduler.DEFAULT_FLUSH_MEMORY_LIMIT);
+    }
+
+    public Map<PlayerStat, FlushPriority> getFlushPriorities() {
+        Map<PlayerStat, FlushPriority> priorities = new EnumMap<>(PlayerStat.class);
+
+        ConfigurationSection section = plugin.getConfig().getConfigurationSection("flush priorities");
+
+        if (section == null) {
+            return priorities;
+        }
+
+        // The journal drains all pools at once, so statistics cannot be written at different times.
+        if (isUpdateJournalEnabled()) {
+            if (!section.getKeys(false).isEmpty()) {
+                plugin.getLogger().warning("Flush priorities are ignored, as the update journal is enabled.");
+            }
+
+            return priorities;
+        }
+
+        for (String statName : section.getKeys(false)) {
+            try {
+                PlayerStat stat = PlayerStat.valueOf(statName.toUpperCase().replace(" ", "_"));
+                FlushPriority priority = FlushPriority.valueOf(section.getString(statName, "").toUpperCase());
+
+                priorities.put(stat, priority);
+            } catch (IllegalArgumentException e) {
+                plugin.getLogger().warning("Invalid flush priority for '" + statName + "', using 'normal' instead.");
+            }
+        }
+
+        return priorities;
+    }
+
+    public int getLeaderboardSize() {
+        return plugin.getConfig().getInt("leaderboard size", LeaderboardManager.DEFAULT_LEADERBOARD_SIZE);
+    }
+
+    public int getLeaderboardRefreshInterval() {
+        return plugin.getConfig().getInt("leaderboard refresh interval", LeaderboardManager.DEFAULT_REFRESH_INTERVAL);
+    }
+
+    public int getPlaceholderRankingSize() {
+        return plugin.getConfig().getInt("placeholder ranking size", PlaceholderRankings.DEFAULT_RANKING_SIZE);
+    }
+
+    public int getPlaceholderRankingRefreshInterval() {
+        return plugin.getConfig().getInt("placeholder ranking refresh interval", PlaceholderRankings
+                .DEFAULT_REFRESH_INTERVAL);
+    }
+
+    public int getPlaceholderCacheTime() {
+        return plugin.getConfig().getInt("placeholder cache time", PlaceholderCache.DEFAULT_TIME_TO_LIVE);
+    }
+
     public int getPeriodiceRefreshPlayerCacheTime() {
         return plugin.getConfig().getInt("refresh player cache time", TaskManager.UPDATE_PLAYER_CACHE_INTERVAL);
     }
 
+    public int getMovementSampleTime() {
+        return plugin.getConfig().getInt("distance travelled sample time", TaskManager.MOVEMENT_SAMPLE_INTERVAL);
+    }
+
+    public int getPrefetchTimeout() {
+        return plugin.getConfig().getInt("player data prefetch timeout", PlayerDataLoader.DEFAULT_PREFETCH_TIMEOUT);
+    }
+
+    public int getOfflinePlayerCacheSize() {
+        return plugin.getConfig().getInt("offline player cache size", CachingManager.DEFAULT_OFFLINE_PLAYER_CACHE_SIZE);
+    }
+
     public List<PlayerStat> getDisabledStats() {
         List<String> disabledStatsString = plugin.getConfig().getStringList("disabled statistics");
         List<PlayerStat> disabledStats = new ArrayList<>();
@@ -1,18 +1,20 @@
 package me.staartvin.statz.database;
 
 import me.staartvin.statz.Statz;
+import me.staartvin.statz.database.datatype.Column;
 import me.staartvin.statz.database.datatype.Query;
 import me.staartvin.statz.database.datatype.RowRequirement;
 import me.staartvin.statz.database.datatype.Table;
 import me.staartvin.statz.datamanager.player.PlayerStat;
+import me.staartvin.statz.leaderboard.LeaderboardEntry;
 import org.bukkit.ChatColor;
 
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.UUID;
+import java.util.*;
 import java.util.logging.Level;
 
 public abstract class DatabaseConnector {
@@ -139,12 +141,400 @@ public abstract class DatabaseConnector {
 		return this.getObjects(getTable(tableName), requirements);
 	}
 
+	/**
+	 * Gets all rows of a table where the value of the given column is one of the given values. This can be used to
+	 * retrieve the data of many players at once, e.g. by using the 'uuid' column.
+	 *
+	 * @param table      Table to get info from
+	 * @param columnName Name of the column to check
+	 * @param values     Values that the column may have. If empty, no rows are returned.
+	 * @return a list of {@link Query} objects, each representing one row in the database, or null if the rows could
+	 * not be read.
+	 */
+	public abstract List<Query> getObjects(final Table table, final String columnName, final Collection<String> values);
+
+	/**
+	 * Gets all rows of multiple tables where the given column has the given value, using a single query. This can be
+	 * used to retrieve all data of a player at once, by using the 'uuid' column. All given tables should have the
+	 * given column.
+	 *
+	 * @param tables     Tables to get info from
+	 * @param columnName Name of the column to check
+	 * @param value      Value that the column should have
+	 * @return a map with a list of {@link Query} objects for each given table, each representing one row in the
+	 * database. Tables without matching rows have an empty list. Returns null if the rows could not be read.
+	 */
+	public abstract Map<Table, List<Query>> getObjects(final Collection<Table> tables, final String columnName,
+													   final String value);
+
+	/**
+	 * Create a SQL statement that selects all rows of multiple tables where the value of a column is equal to a
+	 * value. The rows of the tables are combined with UNION ALL. As the tables have different columns, every select
+	 * returns the columns of all tables (see {@link #getUnionColumns(Collection)}), with NULL for columns that a
+	 * table does not have. The first column contains the name of the table a row belongs to. The value should be
+	 * bound as a parameter of the statement for every table.
+	 *
+	 * @param tables     Tables to select from
+	 * @param columnName Name of the column to check
+	 * @return a SQL statement with a parameter for each table.
+	 */
+	protected String createUnionSelectStatement(final Collection<Table> tables, final String columnName) {
+		final List<String> columns = getUnionColumns(tables);
+
+		final StringBuilder builder = new StringBuilder();
+
+		for (final Table table : tables) {
+			if (builder.length() > 0) {
+				builder.append(" UNION ALL ");
+			}
+
+			builder.append("SELECT '").append(table.getTableName()).append("' AS statz_table");
+
+			for (final String column : columns) {
+				if (table.getColumn(column) != null) {
+					builder.append(", ").append(column);
+				} else {
+					builder.append(", NULL AS ").append(column);
+				}
+			}
+
+			builder.append(" FROM ").append(table.getTableName()).append(" WHERE ").append(columnName).append(" = ?");
+		}
+
+		return builder.toString();
+	}
+
+	/**
+	 * Get the names of all columns of the given tables, in a fixed order.
+	 *
+	 * @param tables Tables to get the columns of
+	 * @return a list of the distinct column names of the given tables.
+	 */
+	protected List<String> getUnionColumns(final Collection<Table> tables) {
+		final Map<String, String> columns = new LinkedHashMap<>();
+
+		// Column names are not case sensitive.
+		for (final Table table : tables) {
+			for (final Column column : table.getColumns()) {
+				columns.putIfAbsent(column.getColumnName().toLowerCase(), column.getColumnName());
+			}
+		}
+
+		return new ArrayList<>(columns.values());
+	}
+
+	/**
+	 * Read all rows of a result set that was produced by a statement of
+	 * {@link #createUnionSelectStatement(Collection, String)}. Every row only gets the columns of the table it
+	 * belongs to.
+	 *
+	 * @param rs     Result set to read
+	 * @param tables Tables that were selected from
+	 * @return a map with a list of {@link Query} objects for each given table.
+	 * @throws SQLException if the result set could not be read.
+	 */
+	protected Map<Table, List<Query>> readUnionQueries(final ResultSet rs, final Collection<Table> tables) throws
+			SQLException {
+		final List<String> columns = getUnionColumns(tables);
+		final Map<String, Table> tablesByName = new HashMap<>();
+		final Map<Table, List<Query>> results = new LinkedHashMap<>();
+
+		for (final Table table : tables) {
+			tablesByName.put(table.getTableName(), table);
+			results.put(table, new ArrayList<>());
+		}
+
+		while (rs.next()) {
+			final Table table = tablesByName.get(rs.getString(1));
+
+			if (table == null) {
+				continue;
+			}
+
+			final HashMap<String, Object> result = new HashMap<>();
+
+			for (int i = 0; i < columns.size(); i++) {
+				final Column column = table.getColumn(columns.get(i));
+
+				if (column == null) {
+					continue;
+				}
+
+				Object value = rs.getObject(i + 2);
+
+				// Columns of different tables are combined, so an integer column may be returned as a decimal. Only
+				// whole numbers are narrowed, as SQLite also stores decimals in integer columns (e.g. distances).
+				if (column.getDataType() == Table.SQLDataType.INT && value instanceof Number) {
+					final double number = ((Number) value).doubleValue();
+
+					if (number == Math.rint(number) && number >= Integer.MIN_VALUE && number <= Integer.MAX_VALUE) {
+						value = (int) number;
+					}
+				}
+
+				// Put value in hashmap if not null, otherwise just put empty string
+				result.put(column.getColumnName(), (value != null ? value : ""));
+			}
+
+			results.get(table).add(new Query(result));
+		}
+
+		return results;
+	}
+
+	/**
+	 * Create a SQL statement that selects all rows of a table where the value of a column is one of a number of
+	 * values. The values should be bound as parameters of the statement.
+	 *
+	 * @param table      Table to select from
+	 * @param columnName Name of the column to check
+	 * @param count      Number of values that the column may have
+	 * @return a SQL statement with a parameter for each value.
+	 */
+	protected String createSelectInStatement(final Table table, final String columnName, final int count) {
+		StringBuilder builder = new StringBuilder(String.format("SELECT * FROM %s WHERE %s IN (",
+				table.getTableName(), columnName));
+
+		for (int i = 0; i < count; i++) {
+			builder.append(i == 0 ? "?" : ",?");
+		}
+
+		return builder.append(")").toString();
+	}
+
+	/**
+	 * Read all rows of a result set.
+	 *
+	 * @param rs Result set to read
+	 * @return a list of {@link Query} objects, each representing one row of the result set.
+	 * @throws SQLException if the result set could not be read.
+	 */
+	protected List<Query> readQueries(final ResultSet rs) throws SQLException {
+		final List<Query> results = new ArrayList<>();
+		final ResultSetMetaData metaData = rs.getMetaData();
+
+		while (rs.next()) {
+			final HashMap<String, Object> result = new HashMap<>();
+
+			// Populate hashmap
+			for (int i = 0; i < metaData.getColumnCount(); i++) {
+				final String columnName = metaData.getColumnName(i + 1);
+				final Object value = rs.getObject(i + 1);
+
+				// Put value in hashmap if not null, otherwise just put empty string
+				result.put(columnName, (value != null ? value : ""));
+			}
+
+			results.add(new Query(result));
+		}
+
+		return results;
+	}
+
 	/**
 	 * Instead of updating one single row, you can also perform a batch of updates.
 	 * This can drastically improve update time. See {@link #setBatchObjects(Table, List, SET_OPERATION)} for more
 	 * info.
+	 *
+	 * @return true if all queries were written, false if the batch failed. When a batch fails, none of its queries
+	 * are written.
+	 */
+	public abstract boolean setBatchObjects(final Table table, final List<Query> queries, SET_OPERATION mode);
+
+	/**
+	 * Perform a batch of updates for multiple tables at once. The tables are independent of each other, so a
+	 * connector may write them at the same time. By default, the tables are written one after another. This method
+	 * returns when all tables have been written.
+	 *
+	 * @param batches Queries to perform, per table
+	 * @param mode    Mode of operation
+	 * @return the tables that could not be written. None of the queries of these tables are written.
+	 */
+	public Set<Table> setBatchObjects(final Map<Table, List<Query>> batches, SET_OPERATION mode) {
+		Set<Table> failedTables = new HashSet<>();
+
+		for (Map.Entry<Table, List<Query>> batch : batches.entrySet()) {
+			if (!setBatchObjects(batch.getKey(), batch.getValue(), mode)) {
+				failedTables.add(batch.getKey());
+			}
+		}
+
+		return failedTables;
+	}
+
+	/**
+	 * Get the players with the highest total value of a statistic. The total of a player is the sum of the 'value'
+	 * column of all rows of the player. By default, this returns no players.
+	 *
+	 * @param table     Table of the statistic
+	 * @param worldName Name of the world to count the rows of, or null to count the rows of all worlds
+	 * @param limit     Maximum number of players to return
+	 * @return the players with the highest totals, highest first, or null if the database could not be read.
+	 */
+	public List<LeaderboardEntry> getLeaderboard(final Table table, final String worldName, final int limit) {
+		return new ArrayList<>();
+	}
+
+	/**
+	 * Get the total value of a statistic of a player and the rank of the player among all players. By default, this
+	 * returns null.
+	 *
+	 * @param table     Table of the statistic
+	 * @param uuid      UUID of the player
+	 * @param worldName Name of the world to count the rows of, or null to count the rows of all worlds
+	 * @return the position of the player, or null if the player does not have any rows.
 	 */
-	public abstract void setBatchObjects(final Table table, final List<Query> queries, SET_OPERATION mode);
+	public LeaderboardEntry getLeaderboardEntry(final Table table, final UUID uuid, final String worldName) {
+		return null;
+	}
+
+	/**
+	 * Check whether a leaderboard can be created for a table, i.e. whether it has a 'uuid' and 'value' column (and
+	 * a 'world' column, if a world is given).
+	 *
+	 * @param table     Table to check
+	 * @param worldName Name of the world, or null for all worlds
+	 * @return true if the table can be ranked.
+	 */
+	public static boolean supportsLeaderboard(final Table table, final String worldName) {
+		return table != null && table.getColumn("uuid") != null && table.getColumn("value") != null && (worldName ==
+				null || table.getColumn("world") != null);
+	}
+
+	/**
+	 * Read the players with the highest totals of a table, using the given connection. The totals are summed by the
+	 * database, using the index created by {@link #createLeaderboardIndexStatements(boolean)}.
+	 *
+	 * @param conn      Connection to use
+	 * @param table     Table of the statistic
+	 * @param worldName Name of the world, or null for all worlds
+	 * @param limit     Maximum number of players to return
+	 * @return the players with the highest totals, highest first.
+	 * @throws SQLException if the players could not be read.
+	 */
+	protected List<LeaderboardEntry> readLeaderboard(final Connection conn, final Table table, final String
+			worldName, final int limit) throws SQLException {
+		final List<LeaderboardEntry> entries = new ArrayList<>();
+
+		final String statement = String.format("SELECT uuid, SUM(value) AS total FROM %s%s GROUP BY uuid ORDER BY " +
+				"total DESC, uuid LIMIT ?", table.getTableName(), worldName == null ? "" : " WHERE world = ?");
+
+		try (PreparedStatement ps = conn.prepareStatement(statement)) {
+			int index = 1;
+
+			if (worldName != null) {
+				ps.setString(index++, worldName);
+			}
+
+			ps.setInt(index, limit);
+
+			try (ResultSet rs = ps.executeQuery()) {
+				int rank = 0;
+				double previousTotal = Double.NaN;
+
+				while (rs.next()) {
+					final double total = rs.getDouble(2);
+
+					// Players with the same total have the same rank.
+					if (total != previousTotal) {
+						rank = entries.size() + 1;
+						previousTotal = total;
+					}
+
+					entries.add(new LeaderboardEntry(UUID.fromString(rs.getString(1)), total, rank));
+				}
+			}
+		}
+
+		return entries;
+	}
+
+	/**
+	 * Read the total and rank of a player, using the given connection. The rank is one more than the number of
+	 * players with a higher total.
+	 *
+	 * @param conn      Connection to use
+	 * @param table     Table of the statistic
+	 * @param uuid      UUID of the player
+	 * @param worldName Name of the world, or null for all worlds
+	 * @return the position of the player, or null if the player does not have any rows.
+	 * @throws SQLException if the position could not be read.
+	 */
+	protected LeaderboardEntry readLeaderboardEntry(final Connection conn, final Table table, final UUID uuid, final
+			String worldName) throws SQLException {
+		final String filter = worldName == null ? "" : " AND world = ?";
+
+		double total;
+
+		try (PreparedStatement ps = conn.prepareStatement(String.format("SELECT SUM(value) FROM %s WHERE uuid = ?%s",
+				table.getTableName(), filter))) {
+			ps.setString(1, uuid.toString());
+
+			if (worldName != null) {
+				ps.setString(2, worldName);
+			}
+
+			try (ResultSet rs = ps.executeQuery()) {
+				if (!rs.next() || rs.getObject(1) == null) {
+					return null;
+				}
+
+				total = rs.getDouble(1);
+			}
+		}
+
+		try (PreparedStatement ps = conn.prepareStatement(String.format("SELECT COUNT(*) FROM (SELECT uuid FROM %s%s " +
+				"GROUP BY uuid HAVING SUM(value) > ?) ranked", table.getTableName(), worldName == null ? "" : " WHERE " +
+				"world = ?"))) {
+			int index = 1;
+
+			if (worldName != null) {
+				ps.setString(index++, worldName);
+			}
+
+			ps.setDouble(index, total);
+
+			try (ResultSet rs = ps.executeQuery()) {
+				return new LeaderboardEntry(uuid, total, rs.next() ? rs.getInt(1) + 1 : 1);
+			}
+		}
+	}
+
+	/**
+	 * Create the SQL statements that add the indexes used by leaderboards. Every table with a 'uuid' and 'value'
+	 * column gets an index on (uuid, value), so the totals of all players can be summed without reading the table
+	 * itself. Tables with a 'world' column also get an index on (world, uuid, value) for leaderboards of a world.
+	 *
+	 * @param ifNotExists Whether the statements may use IF NOT EXISTS
+	 * @return a list of CREATE INDEX statements.
+	 */
+	protected List<String> createLeaderboardIndexStatements(final boolean ifNotExists) {
+		final List<String> statements = new ArrayList<>();
+		final String create = ifNotExists ? "CREATE INDEX IF NOT EXISTS " : "CREATE INDEX ";
+
+		for (final Table table : this.getTables()) {
+			if (!supportsLeaderboard(table, null)) {
+				continue;
+			}
+
+			statements.add(create + table.getTableName() + "_leaderboard ON " + table.getTableName() + " (uuid, " +
+					"value)");
+
+			if (table.getColumn("world") != null) {
+				statements.add(create + table.getTableName() + "_world_leaderboard ON " + table.getTableName() + " " +
+						"(world, uuid, value)");
+			}
+		}
+
+		return statements;
+	}
+
+	/**
+	 * Close all connections to the database and stop the threads of this connector. The connector should not be used
+	 * afterwards. By default, this does nothing.
+	 */
+	public void close() {
+	}
 
 	/**
 	 * The mode of operation when setting objects in the database.
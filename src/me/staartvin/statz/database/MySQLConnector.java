@@ -10,14 +10,14 @@ import me.staartvin.statz.database.datatype.Table;
 import me.staartvin.statz.database.datatype.Table.SQLDataType;
 import me.staartvin.statz.database.datatype.mysql.MySQLTable;
 import me.staartvin.statz.datamanager.player.PlayerStat;
+import me.staartvin.statz.leaderboard.LeaderboardEntry;
 import org.bukkit.ChatColor;
 
 import java.sql.*;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
+import java.util.*;
 import java.util.Map.Entry;
-import java.util.UUID;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 
 public class MySQLConnector extends DatabaseConnector {
@@ -27,8 +27,19 @@ public class MySQLConnector extends DatabaseConnector {
     private String password = "";
     private String username = "root";
 
+    // Maximum number of rows that are written with one INSERT statement.
+    private static final int MAX_ROWS_PER_STATEMENT = 500;
+
+    // MySQL does not allow more than 65535 parameters in a prepared statement.
+    private static final int MAX_PARAMETERS_PER_STATEMENT = 60000;
+
+    // Number of connections of the pool that are not used for writing tables in parallel.
+    private static final int RESERVED_READ_CONNECTIONS = 2;
+
     private HikariDataSource dataSource = null;
 
+    private ExecutorService flushExecutor = null;
+
     public MySQLConnector(final Statz instance) {
         super(instance);
         plugin = instance;
@@ -118,6 +129,9 @@ public class MySQLConnector extends DatabaseConnector {
 
             // Apply patches
             plugin.getPatchManager().applyPatches();
+
+            // Add the indexes used by leaderboards. This is done after patching, as patches may recreate tables.
+            createLeaderboardIndexes();
         });
     }
 
@@ -189,6 +203,87 @@ public class MySQLConnector extends DatabaseConnector {
         return results;
     }
 
+    @Override
+    public List<Query> getObjects(Table table, String columnName, Collection<String> values) {
+        if (table == null) {
+            plugin.debugMessage("Tried to get data from a null table! This means some tables are not setup");
+            return new ArrayList<>();
+        }
+
+        if (values.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        try (Connection connection = getConnection()) {
+
+            if (connection == null) {
+                plugin.getLogger().warning("Statz is not connected to your database properly!");
+                return null;
+            }
+
+            try (PreparedStatement ps = connection.prepareStatement(createSelectInStatement(table, columnName,
+                    values.size()))) {
+
+                int index = 1;
+
+                for (String value : values) {
+                    ps.setString(index++, value);
+                }
+
+                try (ResultSet rs = ps.executeQuery()) {
+                    return readQueries(rs);
+                }
+            }
+        } catch (final SQLException ex) {
+            plugin.getLogger().log(Level.SEVERE, "Couldn't execute MySQL statement:", ex);
+            return null;
+        }
+    }
+
+    @Override
+    public Map<Table, List<Query>> getObjects(Collection<Table> tables, String columnName, String value) {
+        Map<Table, List<Query>> results = new LinkedHashMap<>();
+
+        List<Table> existingTables = new ArrayList<>();
+
+        for (Table table : tables) {
+            if (table == null) {
+                plugin.debugMessage("Tried to get data from a null table! This means some tables are not setup");
+                continue;
+            }
+
+            existingTables.add(table);
+            results.put(table, new ArrayList<>());
+        }
+
+        if (existingTables.isEmpty()) {
+            return results;
+        }
+
+        try (Connection connection = getConnection()) {
+
+            if (connection == null) {
+                plugin.getLogger().warning("Statz is not connected to your database properly!");
+                return null;
+            }
+
+            try (PreparedStatement ps = connection.prepareStatement(createUnionSelectStatement(existingTables,
+                    columnName))) {
+
+                for (int index = 1; index <= existingTables.size(); index++) {
+                    ps.setString(index, value);
+                }
+
+                try (ResultSet rs = ps.executeQuery()) {
+                    return readUnionQueries(rs, existingTables);
+                }
+            }
+        } catch (final SQLException ex) {
+            plugin.getLogger().log(Level.SEVERE, "Couldn't execute MySQL statement:", ex);
+            return null;
+        }
+    }
+
     /**
      * This function creates multiple strings in 'SQL style' to create the
      * proper tables. <br>
@@ -263,6 +358,73 @@ public class MySQLConnector extends DatabaseConnector {
         return statements;
     }
 
+    /**
+     * Create the indexes used by leaderboards, if they do not exist yet. MySQL does not support CREATE INDEX IF NOT
+     * EXISTS, so indexes that already exist are skipped based on the error code.
+     */
+    private void createLeaderboardIndexes() {
+        try (Connection connection = getConnection()) {
+            if (connection == null) {
+                return;
+            }
+
+            try (Statement s = connection.createStatement()) {
+                for (final String statement : createLeaderboardIndexStatements(false)) {
+                    try {
+                        s.executeUpdate(statement);
+                    } catch (final SQLException e) {
+                        // Error 1061 means the index already exists.
+                        if (e.getErrorCode() != 1061) {
+                            plugin.getLogger().log(Level.WARNING, "Could not create leaderboard index:", e);
+                        }
+                    }
+                }
+            }
+        } catch (final SQLException e) {
+            plugin.getLogger().log(Level.WARNING, "Could not create leaderboard indexes:", e);
+        }
+    }
+
+    @Override
+    public List<LeaderboardEntry> getLeaderboard(Table table, String worldName, int limit) {
+        if (!supportsLeaderboard(table, worldName)) {
+            return new ArrayList<>();
+        }
+
+        try (Connection connection = getConnection()) {
+
+            if (connection == null) {
+                plugin.getLogger().warning("Statz is not connected to your database properly!");
+                return null;
+            }
+
+            return readLeaderboard(connection, table, worldName, limit);
+        } catch (final SQLException ex) {
+            plugin.getLogger().log(Level.SEVERE, "Couldn't execute MySQL statement:", ex);
+            return null;
+        }
+    }
+
+    @Override
+    public LeaderboardEntry getLeaderboardEntry(Table table, UUID uuid, String worldName) {
+        if (!supportsLeaderboard(table, worldName)) {
+            return null;
+        }
+
+        try (Connection connection = getConnection()) {
+
+            if (connection == null) {
+                plugin.getLogger().warning("Statz is not connected to your database properly!");
+                return null;
+            }
+
+            return readLeaderboardEntry(connection, table, uuid, worldName);
+        } catch (final SQLException ex) {
+            plugin.getLogger().log(Level.SEVERE, "Couldn't execute MySQL statement:", ex);
+            return null;
+        }
+    }
+
     @Override
     public void loadTables() {
         // UUID table to look up uuid of players
@@ -887,85 +1049,237 @@ public class MySQLConnector extends DatabaseConnector {
     }
 
     @Override
-    public void setBatchObjects(final Table table, final List<Query> queries, SET_OPERATION mode) {
-        // Run SQLite query async to not disturb the main Server thread
+    public boolean setBatchObjects(final Table table, final List<Query> queries, SET_OPERATION mode) {
+        if (queries.isEmpty()) {
+            return true;
+        }
 
-        Statement stmt = null;
+        // Rows can only share a statement if they have the same columns.
+        Map<List<String>, List<Query>> rowsPerColumns = new LinkedHashMap<>();
 
-        try (Connection conn = getConnection()) {
-            stmt = conn.createStatement();
+        for (Query query : queries) {
+            List<String> columns = new ArrayList<>(query.getData().keySet());
+            Collections.sort(columns);
 
-            for (Query query : queries) {
-                StringBuilder columnNames = new StringBuilder("(");
+            rowsPerColumns.computeIfAbsent(columns, key -> new ArrayList<>()).add(query);
+        }
 
-                StringBuilder resultNames = new StringBuilder("(");
+        try (Connection conn = getConnection()) {
 
-                for (final Entry<String, Object> result : query.getEntrySet()) {
-                    columnNames.append(result.getKey() + ",");
+            if (conn == null) {
+                plugin.getLogger().warning("Statz is not connected to your database properly!");
+                return false;
+            }
 
-                    try {
-                        // Try to check if it is an integer
-                        Integer.parseInt(result.getValue().toString());
-                        resultNames.append(result.getValue() + ",");
-                    } catch (final NumberFormatException e) {
+            boolean autoCommit = conn.getAutoCommit();
 
-                        try {
-                            // Try to check if it is an double
-                            Double.parseDouble(result.getValue().toString());
-                            resultNames.append(result.getValue() + ",");
-                        } catch (NumberFormatException ev) {
-                            resultNames.append("'" + result.getValue().toString().replace("'", "''") + "',");
-                        }
-                    }
+            conn.setAutoCommit(false);
 
+            try {
+                for (Entry<List<String>, List<Query>> rows : rowsPerColumns.entrySet()) {
+                    writeRows(conn, table, rows.getKey(), rows.getValue(), mode);
                 }
 
-                // Remove last comma
-                columnNames = new StringBuilder(columnNames.substring(0, columnNames.lastIndexOf(",")) + ")");
-                resultNames = new StringBuilder(resultNames.substring(0, resultNames.lastIndexOf(",")) + ")");
+                conn.commit();
 
-                String update = "INSERT INTO " + table.getTableName() + " " + columnNames.toString() + " VALUES "
-                        + resultNames;
+                return true;
+            } catch (SQLException ex) {
+                conn.rollback();
+                throw ex;
+            } finally {
+                conn.setAutoCommit(autoCommit);
+            }
+        } catch (SQLException ex) {
+            plugin.getLogger().log(Level.SEVERE, "Couldn't execute MySQL statement:", ex);
+            return false;
+        }
+    }
 
-                String onDuplicate = "";
+    /**
+     * Write rows to a table with multi-row INSERT statements. Each statement writes at most
+     * {@link #MAX_ROWS_PER_STATEMENT} rows.
+     *
+     * @param conn    Connection to write with
+     * @param table   Table to write to
+     * @param columns Columns of the rows (every row should have exactly these columns)
+     * @param rows    Rows to write
+     * @param mode    Mode of operation
+     * @throws SQLException if the rows could not be written.
+     */
+    private void writeRows(Connection conn, Table table, List<String> columns, List<Query> rows, SET_OPERATION
+            mode) throws SQLException {
+        int chunkSize = Math.max(1, Math.min(MAX_ROWS_PER_STATEMENT, MAX_PARAMETERS_PER_STATEMENT / columns.size()));
 
-                if (query.hasColumn("value")) {
-                    if (mode == SET_OPERATION.OVERRIDE) {
-                        // Override current value
-                        onDuplicate = " ON DUPLICATE KEY UPDATE value=" + query.getValue();
-                    } else {
-                        // Add to current value
-                        onDuplicate = " ON DUPLICATE KEY UPDATE value=value+" + query.getValue();
+        PreparedStatement fullStatement = null;
+
+        try {
+            for (int start = 0; start < rows.size(); start += chunkSize) {
+                List<Query> chunk = rows.subList(start, Math.min(rows.size(), start + chunkSize));
+
+                PreparedStatement ps;
+
+                // All full chunks use the same statement, only the last chunk may be smaller.
+                if (chunk.size() == chunkSize) {
+                    if (fullStatement == null) {
+                        fullStatement = conn.prepareStatement(createInsertStatement(table, columns, chunkSize,
+                                mode));
                     }
+
+                    ps = fullStatement;
                 } else {
-                    onDuplicate = " ON DUPLICATE KEY UPDATE playerName='" + query.getValue("playerName") + "'";
+                    ps = conn.prepareStatement(createInsertStatement(table, columns, chunk.size(), mode));
                 }
 
-                update += onDuplicate;
+                try {
+                    int index = 1;
+
+                    for (Query row : chunk) {
+                        for (String column : columns) {
+                            ps.setObject(index++, row.getValue(column));
+                        }
+                    }
+
+                    ps.executeUpdate();
+                } finally {
+                    if (ps != fullStatement) {
+                        ps.close();
+                    }
+                }
+            }
+        } finally {
+            if (fullStatement != null) {
+                fullStatement.close();
+            }
+        }
+    }
+
+    /**
+     * Create an INSERT statement that writes multiple rows and updates the rows that already exist.
+     *
+     * @param table     Table to write to
+     * @param columns   Columns of the rows
+     * @param rowCount  Number of rows the statement writes
+     * @param mode      Mode of operation
+     * @return a statement with a parameter for every column of every row.
+     */
+    private String createInsertStatement(Table table, List<String> columns, int rowCount, SET_OPERATION mode) {
+        StringBuilder builder = new StringBuilder("INSERT INTO " + table.getTableName() + " (");
 
-                stmt.addBatch(update);
+        builder.append(String.join(",", columns)).append(") VALUES ");
+
+        String row = "(" + String.join(",", Collections.nCopies(columns.size(), "?")) + ")";
+
+        builder.append(String.join(",", Collections.nCopies(rowCount, row)));
+
+        if (columns.contains("value")) {
+            if (mode == SET_OPERATION.OVERRIDE) {
+                // Override current value
+                builder.append(" ON DUPLICATE KEY UPDATE value=VALUES(value)");
+            } else {
+                // Add to current value
+                builder.append(" ON DUPLICATE KEY UPDATE value=value+VALUES(value)");
             }
+        } else {
+            builder.append(" ON DUPLICATE KEY UPDATE playerName=VALUES(playerName)");
+        }
 
-            stmt.executeBatch();
+        return builder.toString();
+    }
 
-            if (!conn.getAutoCommit()) {
-                conn.commit();
+    @Override
+    public Set<Table> setBatchObjects(final Map<Table, List<Query>> batches, final SET_OPERATION mode) {
+        long startTime = System.nanoTime();
+
+        ExecutorService executor = getFlushExecutor();
+
+        Map<Table, Future<Boolean>> writes = new LinkedHashMap<>();
+
+        Set<Table> failedTables = new HashSet<>();
+
+        // Every table is written on its own connection, so independent tables are written at the same time.
+        for (Entry<Table, List<Query>> batch : batches.entrySet()) {
+            if (batch.getValue().isEmpty()) {
+                continue;
             }
 
-        } catch (BatchUpdateException b) {
-            plugin.getLogger().log(Level.SEVERE, "Couldn't execute MySQL statement:", b);
-        } catch (SQLException ex) {
-            plugin.getLogger().log(Level.SEVERE, "Couldn't execute MySQL statement:", ex);
-        } finally {
-            if (stmt != null) {
-                try {
-                    stmt.close();
-                } catch (SQLException e) {
+            try {
+                writes.put(batch.getKey(), executor.submit(() -> setBatchObjects(batch.getKey(), batch.getValue(),
+                        mode)));
+            } catch (RejectedExecutionException e) {
+                if (!setBatchObjects(batch.getKey(), batch.getValue(), mode)) {
+                    failedTables.add(batch.getKey());
+                }
+            }
+        }
 
-                    e.printStackTrace();
+        // Wait for every table, even when interrupted. A table that is still being written may commit, so it must
+        // not be retried, and a table that failed must be reported so its updates are not lost.
+        boolean interrupted = false;
+
+        for (Entry<Table, Future<Boolean>> write : writes.entrySet()) {
+            while (true) {
+                try {
+                    if (!write.getValue().get()) {
+                        failedTables.add(write.getKey());
+                    }
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    plugin.getLogger().log(Level.SEVERE, "Couldn't execute MySQL statement:", e.getCause());
+                    failedTables.add(write.getKey());
+                    break;
                 }
             }
         }
+
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+
+        plugin.debugMessage(String.format("Wrote tables to MySQL in %.1f ms (%d failed).", (System.nanoTime() -
+                startTime) / 1_000_000.0, failedTables.size()));
+
+        return failedTables;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (flushExecutor != null) {
+            flushExecutor.shutdown();
+            flushExecutor = null;
+        }
+
+        if (dataSource != null) {
+            dataSource.close();
+            dataSource = null;
+        }
+    }
+
+    /**
+     * Get the executor that writes tables in parallel. It has a thread for every connection of the connection pool,
+     * except for a few connections that are kept free for reading.
+     *
+     * @return executor to write tables with.
+     */
+    private synchronized ExecutorService getFlushExecutor() {
+        if (flushExecutor == null) {
+            if (dataSource == null) {
+                setupDatabaseConnection();
+            }
+
+            int threads = Math.max(1, dataSource.getMaximumPoolSize() - RESERVED_READ_CONNECTIONS);
+
+            AtomicInteger threadNumber = new AtomicInteger();
+
+            flushExecutor = Executors.newFixedThreadPool(threads, runnable -> {
+                Thread thread = new Thread(runnable, "Statz MySQL Writer #" + threadNumber.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+
+        return flushExecutor;
     }
 
     @Override
@@ -8,28 +8,255 @@ import me.staartvin.statz.database.datatype.Table;
 import me.staartvin.statz.database.datatype.Table.SQLDataType;
 import me.staartvin.statz.database.datatype.sqlite.SQLiteTable;
 import me.staartvin.statz.datamanager.player.PlayerStat;
+import me.staartvin.statz.leaderboard.LeaderboardEntry;
 import org.bukkit.ChatColor;
 
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.sql.*;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
+import java.util.*;
 import java.util.Map.Entry;
-import java.util.UUID;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.logging.Level;
 
+/**
+ * Connector to a SQLite database. All writes to the database are done by a single writer thread that owns the
+ * connection of {@link #getConnection()}, so writes never interfere with each other. When WAL journaling is enabled
+ * (the default), reads use a small pool of read-only connections, so they do not have to wait for writes. The WAL
+ * file is checkpointed periodically by the writer thread.
+ */
 public class SQLiteConnector extends DatabaseConnector {
 
+    // First version of SQLite that supports INSERT ... ON CONFLICT DO UPDATE.
+    private static final int[] UPSERT_VERSION = {3, 24, 0};
+
     private final Statz plugin;
     private Connection connection;
     private File databaseFile;
 
+    // Whether the SQLite library supports upserts (null if not checked yet).
+    private Boolean supportsUpsert = null;
+
+    // Tables that could not be updated with upserts (e.g. because they miss a unique index).
+    private final Set<String> legacyTables = ConcurrentHashMap.newKeySet();
+
+    // Prepared upsert statements, by table, mode and columns. They belong to the connection they were created on.
+    private final Map<String, PreparedStatement> upsertStatements = new HashMap<>();
+    private Connection upsertConnection = null;
+
+    // Performs all writes to the database and checkpoints the WAL file.
+    private final ScheduledExecutorService writer;
+    private volatile Thread writerThread;
+
+    // Connections that are only used for reading (when WAL is enabled). The semaphore limits the number of open
+    // read connections.
+    private final BlockingQueue<Connection> idleReadConnections = new LinkedBlockingQueue<>();
+    private final Semaphore readPermits;
+
+    private final boolean walEnabled;
+
+    // Set when the connector is being closed. From then on, writes are refused.
+    private volatile boolean closing = false;
+    private final SQLiteProfile profile;
+
     public SQLiteConnector(final Statz instance) {
         super(instance);
         plugin = instance;
+
+        walEnabled = instance.getConfigHandler().isSQLiteWALEnabled();
+        profile = SQLiteProfile.getProfile(instance.getConfigHandler().getSQLiteProfile());
+        readPermits = new Semaphore(Math.max(1, instance.getConfigHandler().getSQLiteReadConnections()));
+
+        writer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "Statz SQLite Writer");
+            thread.setDaemon(true);
+            writerThread = thread;
+            return thread;
+        });
+    }
+
+    /**
+     * Run a task that writes to the database on the writer thread. If this is called on the writer thread, the task
+     * is run immediately. Once the connector is being closed, the task is not run at all, so a write can never
+     * reopen the connection that is being closed.
+     *
+     * @param task Task to run
+     * @param wait Whether to wait until the task has been run. Waiting cannot be interrupted, as the task would still
+     *             be run while the caller thinks it was not. If the thread is interrupted while waiting, its interrupt
+     *             flag is restored after the task has been run.
+     */
+    private void executeWrite(final Runnable task, final boolean wait) {
+        if (Thread.currentThread() == writerThread) {
+            task.run();
+            return;
+        }
+
+        Future<?> future;
+
+        if (closing) {
+            plugin.getLogger().warning("Couldn't write to SQLite database, as it is being closed.");
+            return;
+        }
+
+        try {
+            future = writer.submit(task);
+        } catch (RejectedExecutionException e) {
+            // Writer has been shut down, so the connector is being closed.
+            plugin.getLogger().warning("Couldn't write to SQLite database, as it is being closed.");
+            return;
+        }
+
+        if (!wait) {
+            return;
+        }
+
+        boolean interrupted = false;
+
+        try {
+            while (true) {
+                try {
+                    future.get();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } catch (ExecutionException e) {
+            plugin.getLogger().log(Level.SEVERE, "Couldn't write to SQLite database:", e.getCause());
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Configure a new connection to the database according to the profile of the database.
+     *
+     * @param conn     Connection to configure
+     * @param readOnly Whether the connection will only be used for reading
+     * @throws SQLException if the connection could not be configured.
+     */
+    private void configureConnection(final Connection conn, final boolean readOnly) throws SQLException {
+        try (Statement statement = conn.createStatement()) {
+            if (walEnabled && !readOnly) {
+                statement.execute("PRAGMA journal_mode = WAL");
+            }
+
+            statement.execute("PRAGMA synchronous = " + profile.getSynchronous());
+            statement.execute("PRAGMA cache_size = -" + profile.getCacheSize());
+            statement.execute("PRAGMA mmap_size = " + profile.getMmapSize());
+            statement.execute("PRAGMA busy_timeout = 5000");
+
+            if (readOnly) {
+                statement.execute("PRAGMA query_only = ON");
+            }
+        }
+    }
+
+    /**
+     * Get a connection to read from the database. When WAL is enabled, this is one of the read-only connections,
+     * which should be given back with {@link #releaseReadConnection(Connection)}. Otherwise, the connection of
+     * {@link #getConnection()} is returned. The connection of the writer is never used for reading when WAL is
+     * enabled, as it may be in the middle of a transaction.
+     *
+     * @return a connection that can be used to read from the database, or null if no connection could be made.
+     */
+    private Connection borrowReadConnection() {
+        if (!walEnabled) {
+            return getConnection();
+        }
+
+        readPermits.acquireUninterruptibly();
+
+        Connection conn = idleReadConnections.poll();
+
+        try {
+            if (conn != null && !conn.isClosed()) {
+                return conn;
+            }
+
+            conn = DriverManager.getConnection("jdbc:sqlite:" + getDatabaseFile());
+            configureConnection(conn, true);
+
+            return conn;
+        } catch (SQLException e) {
+            plugin.getLogger().log(Level.SEVERE, "Couldn't open read connection to SQLite database:", e);
+
+            readPermits.release();
+
+            return null;
+        }
+    }
+
+    /**
+     * Give back a connection that was obtained by {@link #borrowReadConnection()}.
+     *
+     * @param conn Connection to give back
+     */
+    private void releaseReadConnection(final Connection conn) {
+        if (!walEnabled || conn == null || conn == connection) {
+            return;
+        }
+
+        idleReadConnections.offer(conn);
+        readPermits.release();
+    }
+
+    @Override
+    public void close() {
+        closing = true;
+
+        // Let the writer finish the writes that are still queued.
+        writer.shutdown();
+
+        try {
+            if (!writer.awaitTermination(5, TimeUnit.SECONDS)) {
+                plugin.getLogger().warning("Not all writes to the SQLite database finished in time.");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        Connection conn;
+
+        while ((conn = idleReadConnections.poll()) != null) {
+            try {
+                conn.close();
+            } catch (SQLException e) {
+                plugin.getLogger().log(Level.WARNING, "Failed to close SQLite connection: ", e);
+            }
+        }
+
+        closeUpsertStatements();
+
+        try {
+            if (connection != null && !connection.isClosed()) {
+                // Move all data of the WAL file into the database before closing.
+                if (walEnabled) {
+                    checkpoint("TRUNCATE");
+                }
+
+                connection.close();
+            }
+        } catch (SQLException e) {
+            plugin.getLogger().log(Level.WARNING, "Failed to close SQLite connection: ", e);
+        }
+    }
+
+    /**
+     * Write all data of the WAL file to the database. This is done periodically by the writer thread.
+     *
+     * @param mode Checkpoint mode (PASSIVE, FULL, RESTART or TRUNCATE)
+     */
+    private void checkpoint(final String mode) {
+        try (Statement statement = getConnection().createStatement()) {
+            statement.execute("PRAGMA wal_checkpoint(" + mode + ")");
+        } catch (SQLException e) {
+            plugin.getLogger().log(Level.WARNING, "Couldn't checkpoint SQLite database:", e);
+        }
     }
 
     /* (non-Javadoc)
@@ -47,7 +274,7 @@ public class SQLiteConnector extends DatabaseConnector {
             e1.printStackTrace();
         }
 
-        databaseFile = new File(plugin.getDataFolder(), databaseName + ".db");
+        databaseFile = getDatabaseFile();
         if (!databaseFile.exists()) {
             plugin.debugMessage(ChatColor.YELLOW + "Database not found! Creating one for you.");
             try {
@@ -62,6 +289,7 @@ public class SQLiteConnector extends DatabaseConnector {
         try {
             Class.forName("org.sqlite.JDBC");
             connection = DriverManager.getConnection("jdbc:sqlite:" + databaseFile);
+            configureConnection(connection, false);
             return connection;
         } catch (final Exception ex) {
             plugin.getLogger().log(Level.SEVERE, "SQLite exception on initialize", ex);
@@ -72,6 +300,16 @@ public class SQLiteConnector extends DatabaseConnector {
         return connection;
     }
 
+    /**
+     * Get the file of the database. Unlike {@link #getConnection()}, this does not create the file or open a
+     * connection, so it can be called from any thread.
+     *
+     * @return the file the database is stored in.
+     */
+    private File getDatabaseFile() {
+        return new File(plugin.getDataFolder(), databaseName + ".db");
+    }
+
     /* (non-Javadoc)
      * @see me.staartvin.statz.database.Database#load()
      */
@@ -79,25 +317,47 @@ public class SQLiteConnector extends DatabaseConnector {
     public void load() {
         plugin.getServer().getScheduler().runTaskAsynchronously(plugin, new Runnable() {
             public void run() {
-                connection = getConnection();
+                // Creating and patching tables writes to the database, so it is done by the writer like any other
+                // write. Otherwise, it would use the connection of the writer at the same time as the writer.
+                executeWrite(() -> {
+                    connection = getConnection();
 
-                try {
-                    final Statement s = connection.createStatement();
+                    try {
+                        final Statement s = connection.createStatement();
 
-                    // Run all statements to create tables
-                    for (final String statement : createTablesStatement()) {
-                        s.executeUpdate(statement);
+                        // Run all statements to create tables
+                        for (final String statement : createTablesStatement()) {
+                            s.executeUpdate(statement);
+                        }
+
+                        s.close();
+                    } catch (final SQLException e) {
+                        e.printStackTrace();
                     }
 
-                    s.close();
-                } catch (final SQLException e) {
-                    e.printStackTrace();
-                }
+                    initialize();
+
+                    // Apply patches
+                    plugin.getPatchManager().applyPatches();
 
-                initialize();
+                    // Add the indexes used by leaderboards. This is done after patching, as patches may recreate
+                    // tables.
+                    try (Statement s = connection.createStatement()) {
+                        for (final String statement : createLeaderboardIndexStatements(true)) {
+                            s.executeUpdate(statement);
+                        }
+                    } catch (final SQLException e) {
+                        plugin.getLogger().log(Level.WARNING, "Could not create leaderboard indexes:", e);
+                    }
+                }, true);
+
+                // Regularly move the data of the WAL file into the database, so it does not keep growing.
+                int checkpointInterval = plugin.getConfigHandler().getSQLiteCheckpointInterval();
 
-                // Apply patches
-                plugin.getPatchManager().applyPatches();
+                if (walEnabled && checkpointInterval > 0) {
+                    writer.scheduleWithFixedDelay(() -> checkpoint("PASSIVE"), checkpointInterval,
+                            checkpointInterval, TimeUnit.SECONDS);
+                }
             }
         });
     }
@@ -109,13 +369,18 @@ public class SQLiteConnector extends DatabaseConnector {
 
         final List<Query> results = new ArrayList<>();
 
-        try {
-            connection = getConnection();
+        Connection conn = borrowReadConnection();
 
+        if (conn == null) {
+            plugin.getLogger().warning("Statz is not connected to your database properly!");
+            return results;
+        }
+
+        try {
             // Create SQL query to retrieve data
             if (requirements == null || requirements.length == 0) {
                 // No requirements, so we can grab all data in the table.
-                ps = connection.prepareStatement("SELECT * FROM " + table.getTableName() + ";");
+                ps = conn.prepareStatement("SELECT * FROM " + table.getTableName() + ";");
             } else {
                 // We have requirements, so we need to filter the data using WHERE clause of SQL.
                 StringBuilder builder = new StringBuilder(String.format("SELECT * FROM %s WHERE ", table.getTableName
@@ -133,7 +398,7 @@ public class SQLiteConnector extends DatabaseConnector {
                     }
                 }
 
-                ps = connection.prepareStatement(builder.toString());
+                ps = conn.prepareStatement(builder.toString());
             }
 
 
@@ -166,10 +431,135 @@ public class SQLiteConnector extends DatabaseConnector {
             } catch (final SQLException ex) {
                 plugin.getLogger().log(Level.SEVERE, "Failed to close SQLite connection: ", ex);
             }
+
+            releaseReadConnection(conn);
         }
         return results;
     }
 
+    @Override
+    public List<Query> getObjects(Table table, String columnName, Collection<String> values) {
+        if (table == null || values.isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        Connection conn = borrowReadConnection();
+
+        if (conn == null) {
+            plugin.getLogger().warning("Statz is not connected to your database properly!");
+            return null;
+        }
+
+        try (PreparedStatement ps = conn.prepareStatement(createSelectInStatement(table, columnName,
+                values.size()))) {
+
+            int index = 1;
+
+            for (String value : values) {
+                ps.setString(index++, value);
+            }
+
+            try (ResultSet rs = ps.executeQuery()) {
+                return readQueries(rs);
+            }
+        } catch (final SQLException ex) {
+            plugin.getLogger().log(Level.SEVERE, "Couldn't execute SQLite statement:", ex);
+            return null;
+        } finally {
+            releaseReadConnection(conn);
+        }
+    }
+
+    @Override
+    public Map<Table, List<Query>> getObjects(Collection<Table> tables, String columnName, String value) {
+        Map<Table, List<Query>> results = new LinkedHashMap<>();
+
+        List<Table> existingTables = new ArrayList<>();
+
+        for (Table table : tables) {
+            if (table == null) {
+                continue;
+            }
+
+            existingTables.add(table);
+            results.put(table, new ArrayList<>());
+        }
+
+        if (existingTables.isEmpty()) {
+            return results;
+        }
+
+        Connection conn = borrowReadConnection();
+
+        if (conn == null) {
+            plugin.getLogger().warning("Statz is not connected to your database properly!");
+            return null;
+        }
+
+        try (PreparedStatement ps = conn.prepareStatement(createUnionSelectStatement(existingTables,
+                columnName))) {
+
+            for (int index = 1; index <= existingTables.size(); index++) {
+                ps.setString(index, value);
+            }
+
+            try (ResultSet rs = ps.executeQuery()) {
+                return readUnionQueries(rs, existingTables);
+            }
+        } catch (final SQLException ex) {
+            plugin.getLogger().log(Level.SEVERE, "Couldn't execute SQLite statement:", ex);
+            return null;
+        } finally {
+            releaseReadConnection(conn);
+        }
+    }
+
+    @Override
+    public List<LeaderboardEntry> getLeaderboard(Table table, String worldName, int limit) {
+        if (!supportsLeaderboard(table, worldName)) {
+            return new ArrayList<>();
+        }
+
+        Connection conn = borrowReadConnection();
+
+        if (conn == null) {
+            plugin.getLogger().warning("Statz is not connected to your database properly!");
+            return null;
+        }
+
+        try {
+            return readLeaderboard(conn, table, worldName, limit);
+        } catch (final SQLException ex) {
+            plugin.getLogger().log(Level.SEVERE, "Couldn't execute SQLite statement:", ex);
+            return null;
+        } finally {
+            releaseReadConnection(conn);
+        }
+    }
+
+    @Override
+    public LeaderboardEntry getLeaderboardEntry(Table table, UUID uuid, String worldName) {
+        if (!supportsLeaderboard(table, worldName)) {
+            return null;
+        }
+
+        Connection conn = borrowReadConnection();
+
+        if (conn == null) {
+            plugin.getLogger().warning("Statz is not connected to your database properly!");
+            return null;
+        }
+
+        try {
+            return readLeaderboardEntry(conn, table, uuid, worldName);
+        } catch (final SQLException ex) {
+            plugin.getLogger().log(Level.SEVERE, "Couldn't execute SQLite statement:", ex);
+            return null;
+        } finally {
+            releaseReadConnection(conn);
+        }
+    }
+
     /**
      * This function creates multiple strings in 'SQL style' to create the
      * proper tables.
@@ -799,8 +1189,8 @@ public class SQLiteConnector extends DatabaseConnector {
 
     @Override
     public void setObjects(final Table table, final Query results, final SET_OPERATION mode) {
-        // Run SQLite query async to not disturb the main Server thread
-        plugin.getServer().getScheduler().runTaskAsynchronously(plugin, new Runnable() {
+        // Run SQLite query on the writer thread to not disturb the main Server thread
+        executeWrite(new Runnable() {
 
             @SuppressWarnings("resource")
             public void run() {
@@ -882,17 +1272,287 @@ public class SQLiteConnector extends DatabaseConnector {
                     }
                 }
             }
-        });
+        }, false);
     }
 
     @Override
-    public void setBatchObjects(final Table table, final List<Query> queries, SET_OPERATION mode) {
-        // Run SQLite query async to not disturb the main Server thread
+    public boolean setBatchObjects(final Table table, final List<Query> queries, SET_OPERATION mode) {
+        if (queries.isEmpty()) {
+            return true;
+        }
+
+        AtomicBoolean written = new AtomicBoolean(false);
+
+        executeWrite(() -> {
+            long startTime = System.nanoTime();
+
+            if (setBatchObjectsWithUpsert(table, queries, mode)) {
+                written.set(true);
+            } else {
+                written.set(setBatchObjectsLegacy(table, queries, mode));
+            }
+
+            if (!written.get()) {
+                return;
+            }
+
+            double duration = (System.nanoTime() - startTime) / 1_000_000_000.0;
+
+            plugin.debugMessage(String.format("Wrote %d rows to %s in %.1f ms (%.0f rows/s).", queries.size(),
+                    table.getTableName(), duration * 1000, duration > 0 ? queries.size() / duration : 0));
+        }, true);
+
+        return written.get();
+    }
+
+    /**
+     * Write a batch of queries to a table using prepared upsert statements (INSERT ... ON CONFLICT DO UPDATE). One
+     * statement is prepared for every combination of columns and reused for later batches. All queries are written
+     * in a single transaction.
+     *
+     * @param table   Table to write to
+     * @param queries Queries to write
+     * @param mode    Whether values should be added or overridden
+     * @return true if the queries were written, false if the table cannot be updated using upserts. In that case,
+     * nothing has been written.
+     */
+    private boolean setBatchObjectsWithUpsert(final Table table, final List<Query> queries, SET_OPERATION mode) {
+        List<String> conflictColumns = getConflictColumns(table);
+
+        if (conflictColumns.isEmpty() || legacyTables.contains(table.getTableName()) || !supportsUpsert()) {
+            return false;
+        }
+
+        Connection conn = getConnection();
+
+        if (conn == null) {
+            return false;
+        }
+
+        // Statements are bound to a connection, so forget about them if the connection changed.
+        if (upsertConnection != conn) {
+            closeUpsertStatements();
+            upsertConnection = conn;
+        }
+
+        // Group queries by the statement they need.
+        Map<String, List<Query>> queriesPerStatement = new LinkedHashMap<>();
+        Map<String, List<String>> columnsPerStatement = new HashMap<>();
+
+        for (Query query : queries) {
+            List<String> columns = new ArrayList<>(query.getData().keySet());
+            Collections.sort(columns);
+
+            // Rows without the columns of the unique index cannot conflict with existing rows.
+            if (!columns.containsAll(conflictColumns)) {
+                return false;
+            }
+
+            String key = table.getTableName() + "|" + mode + "|" + String.join(",", columns);
+
+            queriesPerStatement.computeIfAbsent(key, k -> new ArrayList<>()).add(query);
+            columnsPerStatement.putIfAbsent(key, columns);
+        }
+
+        try {
+            conn.setAutoCommit(false);
+
+            for (Map.Entry<String, List<Query>> entry : queriesPerStatement.entrySet()) {
+                List<String> columns = columnsPerStatement.get(entry.getKey());
+
+                PreparedStatement ps = upsertStatements.get(entry.getKey());
+
+                if (ps == null) {
+                    ps = conn.prepareStatement(createUpsertStatement(table, columns, conflictColumns, mode));
+                    upsertStatements.put(entry.getKey(), ps);
+                }
+
+                for (Query query : entry.getValue()) {
+                    for (int i = 0; i < columns.size(); i++) {
+                        String column = columns.get(i);
+
+                        if (column.equals("value")) {
+                            ps.setDouble(i + 1, query.getValue());
+                        } else {
+                            ps.setString(i + 1, query.getValue(column).toString());
+                        }
+                    }
+
+                    ps.addBatch();
+                }
+
+                ps.executeBatch();
+            }
+
+            conn.commit();
+
+            return true;
+        } catch (SQLException e) {
+            try {
+                conn.rollback();
+            } catch (SQLException rollbackException) {
+                plugin.getLogger().log(Level.SEVERE, "Couldn't roll back SQLite transaction:", rollbackException);
+            }
+
+            // Don't try to upsert to this table again, but use the old method.
+            legacyTables.add(table.getTableName());
+            closeUpsertStatements();
+
+            plugin.getLogger().log(Level.WARNING, "Couldn't upsert into " + table.getTableName() + ", falling " +
+                    "back to separate updates and inserts:", e);
+
+            return false;
+        } finally {
+            try {
+                conn.setAutoCommit(true);
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Create an upsert statement for a table. The values of the given columns should be bound as parameters in the
+     * same order.
+     *
+     * @param table           Table to insert into
+     * @param columns         Columns of the rows that are inserted
+     * @param conflictColumns Columns of the unique index of the table
+     * @param mode            Whether the value of an existing row should be increased or overridden
+     * @return a SQL statement with a parameter for every column.
+     */
+    private String createUpsertStatement(final Table table, final List<String> columns,
+                                         final List<String> conflictColumns, SET_OPERATION mode) {
+        StringBuilder statement = new StringBuilder("INSERT INTO " + table.getTableName() + " (" + String.join(",",
+                columns) + ") VALUES (");
+
+        for (int i = 0; i < columns.size(); i++) {
+            statement.append(i == 0 ? "?" : ",?");
+        }
+
+        statement.append(") ON CONFLICT(").append(String.join(",", conflictColumns)).append(") DO ");
+
+        List<String> assignments = new ArrayList<>();
+
+        for (String column : columns) {
+            if (conflictColumns.contains(column)) {
+                continue;
+            }
+
+            if (column.equals("value") && mode == SET_OPERATION.ADD) {
+                assignments.add("value = value + excluded.value");
+            } else {
+                assignments.add(column + " = excluded." + column);
+            }
+        }
+
+        if (assignments.isEmpty()) {
+            return statement.append("NOTHING").toString();
+        }
+
+        return statement.append("UPDATE SET ").append(String.join(", ", assignments)).toString();
+    }
+
+    /**
+     * Get the columns that identify a row of a table, i.e. the columns of its unique index or its primary key.
+     *
+     * @param table Table to get the columns of
+     * @return the (lowercase) names of the columns, or an empty list if the table has no such columns.
+     */
+    private List<String> getConflictColumns(final Table table) {
+        List<String> columns = new ArrayList<>();
+
+        for (Column column : table.getUniqueMatched()) {
+            columns.add(column.getColumnName().toLowerCase());
+        }
+
+        if (!columns.isEmpty()) {
+            return columns;
+        }
+
+        for (Column column : table.getColumns()) {
+            if (column.isPrimaryKey() && !column.isAutoIncrement()) {
+                columns.add(column.getColumnName().toLowerCase());
+            }
+        }
+
+        return columns;
+    }
+
+    /**
+     * Check whether the SQLite library supports upserts (version 3.24.0 or newer).
+     *
+     * @return true if upserts are supported, false otherwise.
+     */
+    private boolean supportsUpsert() {
+        if (supportsUpsert != null) {
+            return supportsUpsert;
+        }
+
+        try (Statement statement = getConnection().createStatement();
+             ResultSet rs = statement.executeQuery("SELECT sqlite_version()")) {
+
+            String[] version = rs.next() ? rs.getString(1).split("\\.") : new String[0];
+
+            supportsUpsert = true;
+
+            for (int i = 0; i < UPSERT_VERSION.length; i++) {
+                int part = i < version.length ? Integer.parseInt(version[i]) : 0;
+
+                if (part != UPSERT_VERSION[i]) {
+                    supportsUpsert = part > UPSERT_VERSION[i];
+                    break;
+                }
+            }
+        } catch (SQLException | NumberFormatException e) {
+            supportsUpsert = false;
+        }
+
+        if (!supportsUpsert) {
+            plugin.debugMessage("Your SQLite version does not support upserts, so Statz uses separate updates and " +
+                    "inserts.");
+        }
+
+        return supportsUpsert;
+    }
+
+    /**
+     * Close all prepared upsert statements.
+     */
+    private void closeUpsertStatements() {
+        for (PreparedStatement statement : upsertStatements.values()) {
+            try {
+                statement.close();
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+        }
+
+        upsertStatements.clear();
+    }
+
+    /**
+     * Write a batch of queries to a table by sending an UPDATE and an INSERT OR IGNORE statement for every query
+     * (or INSERT OR REPLACE when the values should be overridden). This works with every version of SQLite and for
+     * tables without a unique index.
+     *
+     * @param table   Table to write to
+     * @param queries Queries to write
+     * @param mode    Whether values should be added or overridden
+     */
+    private boolean setBatchObjectsLegacy(final Table table, final List<Query> queries, SET_OPERATION mode) {
 
         Connection conn = getConnection();
         Statement stmt = null;
 
+        if (conn == null) {
+            return false;
+        }
+
         try {
+            // Write all queries in one transaction, so a failed batch does not leave half of its updates behind.
+            conn.setAutoCommit(false);
+
             stmt = conn.createStatement();
 
             for (Query query : queries) {
@@ -957,14 +1617,19 @@ public class SQLiteConnector extends DatabaseConnector {
             @SuppressWarnings("unused")
             int[] updateCounts = stmt.executeBatch();
 
-            if (!conn.getAutoCommit()) {
-                conn.commit();
-            }
+            conn.commit();
 
-        } catch (BatchUpdateException b) {
-            plugin.getLogger().log(Level.SEVERE, "Couldn't execute SQLite statement:", b);
+            return true;
         } catch (SQLException ex) {
             plugin.getLogger().log(Level.SEVERE, "Couldn't execute SQLite statement:", ex);
+
+            try {
+                conn.rollback();
+            } catch (SQLException rollbackException) {
+                plugin.getLogger().log(Level.SEVERE, "Couldn't roll back SQLite transaction:", rollbackException);
+            }
+
+            return false;
         } finally {
             if (stmt != null) {
                 try {
@@ -986,7 +1651,7 @@ public class SQLiteConnector extends DatabaseConnector {
     @Override
     public void purgeData(final UUID uuid) {
 
-        plugin.getServer().getScheduler().runTaskAsynchronously(plugin, new Runnable() {
+        executeWrite(new Runnable() {
 
             public void run() {
 
@@ -1017,7 +1682,7 @@ public class SQLiteConnector extends DatabaseConnector {
                 }
 
             }
-        });
+        }, false);
     }
 
 
@@ -1110,6 +1775,11 @@ public class SQLiteConnector extends DatabaseConnector {
             return false;
         }
 
+        // Make sure all data of the WAL file is in the database file.
+        if (walEnabled) {
+            executeWrite(() -> checkpoint("TRUNCATE"), true);
+        }
+
         // Try to make a backup of the database.
         File backupDatabase = new File(databaseFile.getAbsolutePath() + "-" + identifier + ".db");
 
@@ -0,0 +1,78 @@
+package me.staartvin.statz.database;
+
+/**
+ * Performance profiles of the SQLite database. Each profile sets the 'synchronous', 'cache_size' and 'mmap_size'
+ * pragmas of every connection to the database. Safer profiles make sure that data survives a power loss, faster
+ * profiles make fewer calls to the disk.
+ */
+public enum SQLiteProfile {
+
+    /**
+     * Make sure every transaction is on the disk before continuing.
+     */
+    SAFE("FULL", 2000, 0),
+
+    /**
+     * A committed transaction may be lost on a power loss, but the database cannot get corrupted (in WAL mode).
+     */
+    BALANCED("NORMAL", 8000, 64L * 1024 * 1024),
+
+    /**
+     * Let the operating system decide when data is written to the disk. The database may get corrupted when the
+     * server crashes.
+     */
+    FAST("OFF", 32000, 256L * 1024 * 1024);
+
+    private final String synchronous;
+    private final int cacheSize;
+    private final long mmapSize;
+
+    SQLiteProfile(String synchronous, int cacheSize, long mmapSize) {
+        this.synchronous = synchronous;
+        this.cacheSize = cacheSize;
+        this.mmapSize = mmapSize;
+    }
+
+    /**
+     * Get the value of the 'synchronous' pragma.
+     *
+     * @return the synchronous mode of this profile.
+     */
+    public String getSynchronous() {
+        return synchronous;
+    }
+
+    /**
+     * Get the size of the page cache of a connection.
+     *
+     * @return the size of the cache (in KiB).
+     */
+    public int getCacheSize() {
+        return cacheSize;
+    }
+
+    /**
+     * Get the maximum number of bytes of the database that are memory-mapped.
+     *
+     * @return the value of the 'mmap_size' pragma.
+     */
+    public long getMmapSize() {
+        return mmapSize;
+    }
+
+    /**
+     * Get a profile by its name.
+     *
+     * @param name Name of the profile (case insensitive)
+     * @return the profile with the given name or {@link #BALANCED} if there is no such profile.
+     */
+    public static SQLiteProfile getProfile(String name) {
+        for (SQLiteProfile profile : values()) {
+            if (profile.name().equalsIgnoreCase(name)) {
+                return profile;
+            }
+        }
+
+        return BALANCED;
+    }
+}
@@ -271,6 +271,90 @@ public class Query {
         return true;
     }
 
+    /**
+     * Get the key that identifies the group of queries this query conflicts with. Two queries have equal conflict
+     * keys if and only if they conflict with each other (see {@link #conflicts(Query)}). This allows conflicting
+     * queries to be grouped using a hash map, instead of comparing every query with every other query.
+     * <br>
+     * <br>
+     * The key consists of the UUID, the number of columns and the (sorted) column-value pairs of every column except
+     * the 'value' column.
+     *
+     * @return the conflict key of this query or null if this query does not have a UUID (and hence cannot conflict
+     * with any query).
+     */
+    public List<Object> conflictKey() {
+        UUID uuid = this.getUUID();
+
+        // Queries without a UUID can't conflict.
+        if (uuid == null) {
+            return null;
+        }
+
+        List<String> columns = new ArrayList<>(data.keySet());
+        Collections.sort(columns);
+
+        List<Object> key = new ArrayList<>(columns.size() * 2 + 2);
+
+        key.add(uuid);
+        key.add(data.size());
+
+        for (String columnName : columns) {
+            // Ignore 'value' column, as it ought to be different.
+            if (columnName.equals("value")) {
+                continue;
+            }
+
+            key.add(columnName);
+            key.add(data.get(columnName));
+        }
+
+        return Collections.unmodifiableList(key);
+    }
+
+    /**
+     * Compress a list of queries so that none of the resulting queries conflict with each other. All queries that
+     * conflict are merged into one query, where the 'value' column is the sum of the values of the conflicting
+     * queries. Queries without a 'value' column (such as those of the players table) are not summed: the first query
+     * is kept.
+     * <br>
+     * <br>
+     * The resulting list is ordered by the first occurrence of each group of conflicting queries. The given list is
+     * not altered.
+     *
+     * @param queries Queries to compress
+     * @return a new list of queries that do not conflict with each other.
+     */
+    public static List<Query> compress(Collection<Query> queries) {
+        Map<Object, Query> compressedQueries = new LinkedHashMap<>();
+
+        for (Query query : queries) {
+            if (query == null) {
+                continue;
+            }
+
+            Object key = query.conflictKey();
+
+            // This query cannot conflict, so give it a unique key.
+            if (key == null) {
+                key = new Object();
+            }
+
+            Query compressedQuery = compressedQueries.get(key);
+
+            if (compressedQuery == null) {
+                compressedQuery = new Query(query.getData());
+                compressedQuery.setSpecification(query.specification);
+
+                compressedQueries.put(key, compressedQuery);
+            } else if (compressedQuery.hasColumn("value")) {
+                compressedQuery.addValue("value", query.getValue());
+            }
+        }
+
+        return new ArrayList<>(compressedQueries.values());
+    }
+
     @Override
     public String toString() {
 
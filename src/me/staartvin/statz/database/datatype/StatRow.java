@@ -0,0 +1,374 @@
+package me.staartvin.statz.database.datatype;
+
+import me.staartvin.statz.datamanager.player.PlayerStat;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A compact, typed representation of a row of a statistic. Where a {@link Query} stores every column as a string in
+ * a hash map, a StatRow stores the UUID of the player, the 'value' column as a primitive double and the other columns
+ * (the dimensions of the row, such as the world or the type of mob) in a fixed order that is shared by all rows of
+ * the same statistic (its schema).
+ * <br>
+ * <br>
+ * Two rows are equal if and only if their queries conflict (see {@link Query#conflicts(Query)}): the 'value' column
+ * is ignored when comparing rows. Dimension values are interned and the hash of a row is computed once, so rows can
+ * be used as keys of a hash map without sorting or comparing column names.
+ * <br>
+ * <br>
+ * StatRows are used internally where many rows are merged (such as the pools and the cache). Use
+ * {@link #fromQuery(PlayerStat, Query)} and {@link #toQuery()} to convert between rows and queries. StatRows cannot
+ * be changed.
+ */
+public final class StatRow {
+
+    // Schemas that have been seen for each statistic.
+    private static final Map<PlayerStat, List<Schema>> SCHEMAS = new ConcurrentHashMap<>();
+
+    private final Schema schema;
+    private final UUID uuid;
+    private final String[] dimensions;
+    private final double value;
+    private final int hash;
+
+    private StatRow(Schema schema, UUID uuid, String[] dimensions, double value, int hash) {
+        this.schema = schema;
+        this.uuid = uuid;
+        this.dimensions = dimensions;
+        this.value = value;
+        this.hash = hash;
+    }
+
+    /**
+     * Convert a query to a row.
+     *
+     * @param statType Type of statistic the query belongs to
+     * @param query    Query to convert
+     * @return a row with the same data as the query.
+     * @throws IllegalArgumentException if statType or query is null.
+     */
+    public static StatRow fromQuery(PlayerStat statType, Query query) throws IllegalArgumentException {
+        if (statType == null) {
+            throw new IllegalArgumentException("Stat cannot be null.");
+        }
+
+        if (query == null) {
+            throw new IllegalArgumentException("Query cannot be null.");
+        }
+
+        Map<String, Object> data = query.getData();
+        Schema schema = getSchema(statType, data);
+
+        String[] dimensions = new String[schema.columns.length];
+
+        for (int i = 0; i < dimensions.length; i++) {
+            dimensions[i] = schema.intern(i, String.valueOf(data.get(schema.columns[i])));
+        }
+
+        UUID uuid = schema.hasUUID ? query.getUUID() : null;
+        double value = schema.hasValue ? query.getValue() : 0;
+
+        int hash = schema.hash;
+        hash = 31 * hash + Objects.hashCode(uuid);
+        hash = 31 * hash + Arrays.hashCode(dimensions);
+
+        return new StatRow(schema, uuid, dimensions, value, hash);
+    }
+
+    /**
+     * Convert this row to a query.
+     *
+     * @return a new query with the data of this row.
+     */
+    public Query toQuery() {
+        Query query = new Query();
+
+        if (uuid != null) {
+            query.setValue("uuid", uuid);
+        }
+
+        for (int i = 0; i < dimensions.length; i++) {
+            query.setValue(schema.columns[i], dimensions[i]);
+        }
+
+        if (schema.hasValue) {
+            query.setValue("value", value);
+        }
+
+        query.setSpecification(schema.statType.getSpecification());
+
+        return query;
+    }
+
+    /**
+     * Create a copy of this row with a different value.
+     *
+     * @param value Value of the 'value' column
+     * @return a row with the same dimensions as this row and the given value.
+     */
+    public StatRow withValue(double value) {
+        return new StatRow(schema, uuid, dimensions, value, hash);
+    }
+
+    public PlayerStat getStatType() {
+        return schema.statType;
+    }
+
+    /**
+     * Get the UUID of the player this row belongs to.
+     *
+     * @return UUID of the player or null if the row does not have a UUID.
+     */
+    public UUID getUUID() {
+        return uuid;
+    }
+
+    /**
+     * Get the value of the 'value' column.
+     *
+     * @return the value of this row or 0 if the row does not have a 'value' column.
+     */
+    public double getValue() {
+        return value;
+    }
+
+    /**
+     * Check whether this row has a 'value' column. Rows of the players table, for example, do not have one.
+     *
+     * @return true if this row has a 'value' column, false otherwise.
+     */
+    public boolean hasValue() {
+        return schema.hasValue;
+    }
+
+    /**
+     * Check whether this row can conflict with other rows. Rows without a UUID never conflict, so they are only equal
+     * to themselves.
+     *
+     * @return true if this row has a UUID.
+     */
+    public boolean canConflict() {
+        return uuid != null;
+    }
+
+    /**
+     * Get the value of a column of this row (other than the UUID and 'value' columns).
+     *
+     * @param columnName Name of the column
+     * @return value of the column or null if this row does not have the column.
+     */
+    public String getDimension(String columnName) {
+        int index = Arrays.binarySearch(schema.columns, columnName.toLowerCase());
+
+        return index < 0 ? null : dimensions[index];
+    }
+
+    /**
+     * Check whether this row meets all given requirements, like {@link Query#meetsAllRequirements(Collection)}.
+     *
+     * @param requirements Requirements that should be checked
+     * @return true if this row has every column of the requirements with the required value.
+     */
+    public boolean meetsAllRequirements(Collection<RowRequirement> requirements) {
+        for (RowRequirement requirement : requirements) {
+            String columnName = requirement.getColumnName().toLowerCase();
+            String columnValue;
+
+            if (columnName.equals("uuid")) {
+                columnValue = uuid == null ? null : uuid.toString();
+            } else {
+                // The 'value' column is a number, so it never equals the (textual) value of a requirement.
+                columnValue = columnName.equals("value") ? null : getDimension(columnName);
+            }
+
+            if (columnValue == null || !columnValue.equals(requirement.getColumnValue())) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    @Override
+    public boolean equals(Object object) {
+        if (this == object) {
+            return true;
+        }
+
+        if (!(object instanceof StatRow)) {
+            return false;
+        }
+
+        StatRow row = (StatRow) object;
+
+        // Rows without a UUID can't conflict.
+        if (uuid == null || row.uuid == null || hash != row.hash) {
+            return false;
+        }
+
+        return uuid.equals(row.uuid) && schema.equals(row.schema) && Arrays.equals(dimensions, row.dimensions);
+    }
+
+    @Override
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    public String toString() {
+        return toQuery().toString();
+    }
+
+    /**
+     * Get the schema of a row of the given statistic, creating it if it has not been seen before.
+     *
+     * @param statType Type of statistic
+     * @param data     Columns of the row
+     * @return the schema that matches the columns of the row.
+     */
+    private static Schema getSchema(PlayerStat statType, Map<String, Object> data) {
+        List<Schema> schemas = SCHEMAS.get(statType);
+
+        // Rows of a statistic almost always have the same columns, so this is usually the first schema.
+        if (schemas != null) {
+            for (Schema schema : schemas) {
+                if (schema.matches(data)) {
+                    return schema;
+                }
+            }
+        }
+
+        Schema schema = new Schema(statType, data);
+
+        SCHEMAS.compute(statType, (stat, knownSchemas) -> {
+            List<Schema> newSchemas = knownSchemas == null ? new ArrayList<>() : new ArrayList<>(knownSchemas);
+
+            if (!newSchemas.contains(schema) && newSchemas.size() < Schema.MAX_SCHEMAS_PER_STAT) {
+                newSchemas.add(schema);
+            }
+
+            return Collections.unmodifiableList(newSchemas);
+        });
+
+        return schema;
+    }
+
+    /**
+     * The columns of the rows of a statistic. The dimension columns are sorted by name, so rows with the same columns
+     * store their dimensions in the same order.
+     */
+    private static final class Schema {
+
+        // Number of different schemas that are remembered for a statistic.
+        private static final int MAX_SCHEMAS_PER_STAT = 8;
+
+        // Number of different values that are interned for a column.
+        private static final int MAX_INTERNED_VALUES = 1024;
+
+        private final PlayerStat statType;
+        private final String[] columns;
+        private final boolean hasUUID;
+        private final boolean hasValue;
+        private final int hash;
+
+        // Interned values of each column.
+        private final List<Map<String, String>> internedValues;
+
+        private Schema(PlayerStat statType, Map<String, Object> data) {
+            List<String> dimensionColumns = new ArrayList<>();
+
+            for (Map.Entry<String, Object> column : data.entrySet()) {
+                if (column.getValue() == null || column.getKey().equals("uuid") || column.getKey().equals("value")) {
+                    continue;
+                }
+
+                dimensionColumns.add(column.getKey());
+            }
+
+            Collections.sort(dimensionColumns);
+
+            this.statType = statType;
+            this.columns = dimensionColumns.toArray(new String[0]);
+            this.hasUUID = data.get("uuid") != null;
+            this.hasValue = data.get("value") != null;
+            this.hash = Objects.hash(statType, Arrays.hashCode(columns), hasUUID, hasValue);
+
+            this.internedValues = new ArrayList<>(columns.length);
+
+            for (int i = 0; i < columns.length; i++) {
+                internedValues.add(new ConcurrentHashMap<>());
+            }
+        }
+
+        /**
+         * Check whether the given columns are the columns of this schema.
+         *
+         * @param data Columns of a row
+         * @return true if the row has exactly the columns of this schema.
+         */
+        private boolean matches(Map<String, Object> data) {
+            int size = columns.length + (hasUUID ? 1 : 0) + (hasValue ? 1 : 0);
+
+            if (data.size() != size || (data.get("uuid") != null) != hasUUID || (data.get("value") != null) !=
+                    hasValue) {
+                return false;
+            }
+
+            for (String column : columns) {
+                if (data.get(column) == null) {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+
+        /**
+         * Get a shared instance of a value of a column. Only a limited number of values is kept per column, so
+         * columns with many different values (such as commands) do not use up memory.
+         *
+         * @param column Index of the column
+         * @param value  Value to intern
+         * @return an equal value that is shared by other rows, or the given value.
+         */
+        private String intern(int column, String value) {
+            Map<String, String> values = internedValues.get(column);
+
+            String internedValue = values.get(value);
+
+            if (internedValue != null) {
+                return internedValue;
+            }
+
+            if (values.size() >= MAX_INTERNED_VALUES) {
+                return value;
+            }
+
+            internedValue = values.putIfAbsent(value, value);
+
+            return internedValue == null ? value : internedValue;
+        }
+
+        @Override
+        public boolean equals(Object object) {
+            if (this == object) {
+                return true;
+            }
+
+            if (!(object instanceof Schema)) {
+                return false;
+            }
+
+            Schema schema = (Schema) object;
+
+            return statType == schema.statType && hasUUID == schema.hasUUID && hasValue == schema.hasValue && Arrays
+                    .equals(columns, schema.columns);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
@@ -10,6 +10,7 @@ import me.staartvin.statz.database.datatype.Table;
 import me.staartvin.statz.datamanager.player.PlayerInfo;
 import me.staartvin.statz.datamanager.player.PlayerStat;
 import me.staartvin.statz.language.DescriptionMatcher;
+import me.staartvin.statz.update.FlushEpochs;
 import net.md_5.bungee.api.chat.*;
 import org.bukkit.ChatColor;
 import org.bukkit.command.CommandSender;
@@ -38,6 +39,12 @@ import java.util.stream.Collectors;
  */
 public class DataManager {
 
+    // Maximum number of players whose data is retrieved in a single query.
+    private static final int MAX_PLAYERS_PER_QUERY = 500;
+
+    // Maximum number of times we read the database again when the data was written while we were reading it.
+    private static final int MAX_LOAD_ATTEMPTS = 3;
+
     private final Statz plugin;
 
     public DataManager(final Statz instance) {
@@ -101,7 +108,7 @@ public class DataManager {
             return null;
         }
 
-        PlayerInfo info = this.getPlayerInfo(uuid);
+        PlayerInfo info = plugin.getCachingManager().getCachedPlayerData(uuid);
 
         if (info == null) {
             return null;
@@ -114,12 +121,38 @@ public class DataManager {
 
         // Don't store data that is null or empty.
         if (queriesStored != null && !queriesStored.isEmpty()) {
-            newInfo.setData(statType, info.getDataOfPlayerStat(statType));
+            newInfo.setData(statType, queriesStored);
         }
 
         return newInfo;
     }
 
+    /**
+     * Get all known data of a player for a given statistic, like {@link #getPlayerInfo(UUID, PlayerStat)}. If the
+     * data is not cached yet, it is loaded into the cache asynchronously (see {@link PlayerDataLoader}). This method
+     * never blocks the thread it is called on.
+     *
+     * @param uuid     UUID of the player
+     * @param statType Type of statistic to get data of
+     * @return a future that is completed with the data of the requested player and the given statistic.
+     * @throws IllegalArgumentException if the given uuid is null.
+     */
+    public CompletableFuture<PlayerInfo> getPlayerInfoAsync(UUID uuid, PlayerStat statType) throws
+            IllegalArgumentException {
+        PlayerInfo info = this.getPlayerInfo(uuid, statType);
+
+        if (info != null) {
+            return CompletableFuture.completedFuture(info);
+        }
+
+        return plugin.getPlayerDataLoader().loadPlayerData(uuid, statType).thenApply(loadedInfo -> {
+            PlayerInfo cachedInfo = this.getPlayerInfo(uuid, statType);
+
+            // Data could not be put in the cache, so use the data that was loaded.
+            return cachedInfo != null ? cachedInfo : loadedInfo;
+        });
+    }
+
     /**
      * Get data of a player for a given statistic. This method will obtain 'fresh' data from the database, meaning
      * that it will ignore cached data. Hence, this method will block the thread it is ran on. It is therefore
@@ -146,8 +179,13 @@ public class DataManager {
         List<Query> databaseRows = plugin.getDatabaseConnector().getObjects(table,
                 new RowRequirement("uuid", uuid.toString()));
 
-        // Set specification of query, so we know how we can read data.
-        databaseRows.forEach(query -> query.setSpecification(statType.getSpecification()));
+        for (Query query : databaseRows) {
+            // Set specification of query, so we know how we can read data.
+            query.setSpecification(statType.getSpecification());
+
+            // Remove 'id' column to prevent leakage from the database. Otherwise rows never conflict with updates.
+            query.removeColumn("id");
+        }
 
         PlayerInfo info = new PlayerInfo(uuid);
 
@@ -157,6 +195,140 @@ public class DataManager {
         return info;
     }
 
+    /**
+     * Get fresh data of a player for the given statistics, like {@link #getFreshPlayerInfo(UUID, PlayerStat)}. The
+     * data of all statistics is retrieved with a single query, so this is a lot faster than retrieving the
+     * statistics one by one. This method will block the thread it is ran on, so it should be run asynchronously.
+     *
+     * @param uuid      UUID of the player.
+     * @param statTypes Types of statistic to retrieve.
+     * @return fresh player data with data of all the given statistics (the data of a statistic is empty if the
+     * player has no rows for that statistic), or null if the data could not be read from the database.
+     * @throws IllegalArgumentException if the given uuid or statistics are null.
+     */
+    public PlayerInfo getFreshPlayerInfo(UUID uuid, Collection<PlayerStat> statTypes) throws
+            IllegalArgumentException {
+
+        if (uuid == null) {
+            throw new IllegalArgumentException("UUID cannot be null.");
+        }
+
+        if (statTypes == null) {
+            throw new IllegalArgumentException("Statistics cannot be null.");
+        }
+
+        Map<Table, PlayerStat> tables = new LinkedHashMap<>();
+
+        for (PlayerStat statType : statTypes) {
+            Table table = DatabaseConnector.getTable(statType);
+
+            if (table != null) {
+                tables.put(table, statType);
+            }
+        }
+
+        Map<Table, List<Query>> databaseRows = plugin.getDatabaseConnector().getObjects(tables.keySet(), "uuid",
+                uuid.toString());
+
+        // Don't mistake a failed read for a player without data.
+        if (databaseRows == null) {
+            return null;
+        }
+
+        PlayerInfo info = new PlayerInfo(uuid);
+
+        for (PlayerStat statType : statTypes) {
+            info.setData(statType, new ArrayList<>());
+        }
+
+        for (Map.Entry<Table, List<Query>> entry : databaseRows.entrySet()) {
+            PlayerStat statType = tables.get(entry.getKey());
+
+            for (Query query : entry.getValue()) {
+                // Set specification of query, so we know how we can read data.
+                query.setSpecification(statType.getSpecification());
+
+                // Remove 'id' column to prevent leakage from the database.
+                query.removeColumn("id");
+            }
+
+            info.setData(statType, entry.getValue());
+        }
+
+        return info;
+    }
+
+    /**
+     * Get fresh data of multiple players for the given statistics, like {@link #getFreshPlayerInfo(UUID, PlayerStat)}.
+     * Instead of sending a query per player, the data of many players is retrieved with one query per statistic.
+     * This method will block the thread it is ran on, so it should be run asynchronously.
+     *
+     * @param uuids     UUIDs of the players.
+     * @param statTypes Types of statistic to retrieve.
+     * @return fresh player data of each given player. Every {@link PlayerInfo} object has data of all the given
+     * statistics that could be read (the data of a statistic is empty if the player has no rows for that statistic).
+     * Statistics that could not be read from the database are left out.
+     * @throws IllegalArgumentException if the given uuids or statistics are null.
+     */
+    public Map<UUID, PlayerInfo> getFreshPlayerInfo(Collection<UUID> uuids, Collection<PlayerStat> statTypes) throws
+            IllegalArgumentException {
+
+        if (uuids == null) {
+            throw new IllegalArgumentException("UUIDs cannot be null.");
+        }
+
+        if (statTypes == null) {
+            throw new IllegalArgumentException("Statistics cannot be null.");
+        }
+
+        List<String> uuidStrings = new ArrayList<>();
+
+        for (UUID uuid : uuids) {
+            uuidStrings.add(uuid.toString());
+        }
+
+        Map<UUID, PlayerInfo> infos = new HashMap<>();
+
+        for (PlayerStat statType : statTypes) {
+            Map<UUID, List<Query>> rowsPerPlayer = new HashMap<>();
+            boolean readFailed = false;
+
+            // Split players in chunks so we don't create huge queries.
+            for (int i = 0; i < uuidStrings.size() && !readFailed; i += MAX_PLAYERS_PER_QUERY) {
+                List<Query> databaseRows = plugin.getDatabaseConnector().getObjects(DatabaseConnector.getTable
+                        (statType), "uuid", uuidStrings.subList(i, Math.min(i + MAX_PLAYERS_PER_QUERY,
+                        uuidStrings.size())));
+
+                if (databaseRows == null) {
+                    readFailed = true;
+                    continue;
+                }
+
+                for (Query query : databaseRows) {
+                    // Set specification of query, so we know how we can read data.
+                    query.setSpecification(statType.getSpecification());
+
+                    // Remove 'id' column to prevent leakage from the database.
+                    query.removeColumn("id");
+
+                    rowsPerPlayer.computeIfAbsent(query.getUUID(), uuid -> new ArrayList<>()).add(query);
+                }
+            }
+
+            // Leave out the statistic, so the players don't look like they have no data.
+            if (readFailed) {
+                continue;
+            }
+
+            for (UUID uuid : uuids) {
+                infos.computeIfAbsent(uuid, PlayerInfo::new).setData(statType,
+                        rowsPerPlayer.getOrDefault(uuid, new ArrayList<>()));
+            }
+        }
+
+        return infos;
+    }
+
     /**
      * Get Player info like {@link #getPlayerInfo(UUID, PlayerStat)}, but check for additional conditions.
      * Let's say you want to get all the player info for a player on world 'world'. You would call this method with
@@ -172,12 +344,16 @@ public class DataManager {
         PlayerInfo info = this.getPlayerInfo(uuid, statType);
 
         // There are no requirement, so we don't need to check any data.
-        if (requirements == null || requirements.length == 0) {
+        if (info == null || requirements == null || requirements.length == 0) {
             return info;
         }
 
+        List<Query> rows = info.getDataOfPlayerStat(statType);
+
         // Remove query if it does not meet the given requirements.
-        info.getDataOfPlayerStat(statType).removeIf(query -> !query.meetsAllRequirements(Arrays.asList(requirements)));
+        rows.removeIf(query -> !query.meetsAllRequirements(Arrays.asList(requirements)));
+
+        info.setData(statType, rows);
 
         return info;
     }
@@ -219,13 +395,7 @@ public class DataManager {
             throw new IllegalArgumentException("UUID cannot be null.");
         }
 
-        // Retrieve info from database.
-        PlayerInfo info = this.getFreshPlayerInfo(uuid, statType);
-
-        // Put new data into cache.
-        plugin.getCachingManager().addCachedData(uuid, info);
-
-        return info;
+        return this.loadPlayerData(uuid, Collections.singletonList(statType));
     }
 
     /**
@@ -241,17 +411,63 @@ public class DataManager {
             throw new IllegalArgumentException("UUID cannot be null.");
         }
 
+        // Load all data of a player
+        return this.loadPlayerData(uuid, Arrays.asList(PlayerStat.values()));
+    }
+
+    /**
+     * Load the data of a player of the given statistics into the cache. The data in the database is combined with
+     * the updates that have not been written to the database yet. If a statistic was written to the database while
+     * we were reading it, it is read again.
+     *
+     * @param uuid      UUID of the player
+     * @param statTypes Types of statistic to load
+     * @return the PlayerInfo data that was loaded into the cache.
+     */
+    private PlayerInfo loadPlayerData(UUID uuid, Collection<PlayerStat> statTypes) {
+        Set<PlayerStat> statsToLoad = EnumSet.copyOf(statTypes);
+
         PlayerInfo info = new PlayerInfo(uuid);
 
-        // Load all data of a player
-        for (PlayerStat statType : PlayerStat.values()) {
-            PlayerInfo freshPlayerInfo = getFreshPlayerInfo(uuid, statType);
+        for (int attempt = 0; attempt < MAX_LOAD_ATTEMPTS && !statsToLoad.isEmpty(); attempt++) {
+            // Remember which flushes happened before we read the database.
+            FlushEpochs epochs = plugin.getUpdatePoolManager().getFlushEpochs();
 
-            info.setData(statType, freshPlayerInfo.getDataOfPlayerStat(statType));
+            // Read all statistics at once.
+            PlayerInfo databaseInfo = getFreshPlayerInfo(uuid, statsToLoad);
+
+            // The statistics are not marked as loaded, so they are loaded again the next time they are needed.
+            if (databaseInfo == null) {
+                plugin.debugMessage("Could not load " + statsToLoad + " of " + uuid + " from the database.");
+                return info;
+            }
+
+            for (PlayerStat statType : statsToLoad) {
+                // Keep the database data in case we cannot put it in the cache.
+                info.setData(statType, databaseInfo.getDataOfPlayerStat(statType));
+            }
+
+            // Put new data into cache.
+            statsToLoad = plugin.getCachingManager().registerDatabaseData(uuid, databaseInfo, epochs);
+        }
+
+        if (!statsToLoad.isEmpty()) {
+            plugin.debugMessage("Could not load " + statsToLoad + " of " + uuid + " as the database was being " +
+                    "updated.");
         }
 
-        // Put new data into cache.
-        plugin.getCachingManager().registerCachedData(uuid, info);
+        PlayerInfo cachedInfo = plugin.getCachingManager().getCachedPlayerData(uuid);
+
+        if (cachedInfo == null) {
+            return info;
+        }
+
+        // Return the cached data of the loaded statistics, or the database data if it could not be cached.
+        for (PlayerStat statType : statTypes) {
+            if (plugin.getCachingManager().isPlayerCacheLoaded(uuid, statType)) {
+                info.setData(statType, cachedInfo.getDataOfPlayerStat(statType));
+            }
+        }
 
         return info;
     }
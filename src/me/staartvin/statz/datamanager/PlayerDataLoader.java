@@ -0,0 +1,175 @@
+package me.staartvin.statz.datamanager;
+
+import me.staartvin.statz.Statz;
+import me.staartvin.statz.datamanager.player.PlayerInfo;
+import me.staartvin.statz.datamanager.player.PlayerStat;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * The PlayerDataLoader loads the data of players into the cache on its own threads. When the data of a player is
+ * requested while it is already being loaded, the running load is shared instead of starting a new one. This way,
+ * the data of a player can be loaded ahead of time (e.g. when the player is logging in) without reading the
+ * database twice when the data is requested while the first load has not finished yet.
+ * <br>
+ * <br>
+ * Loads never run on the main thread of the server. Note that the returned futures are completed on the threads of
+ * this loader, so callbacks that need the Bukkit API should be scheduled on the main thread.
+ */
+public class PlayerDataLoader {
+
+    // Default time (in milliseconds) that a login waits for the data of the player to be loaded.
+    public static final int DEFAULT_PREFETCH_TIMEOUT = 1000;
+
+    // Number of threads that load data of players.
+    private static final int LOADER_THREADS = 2;
+
+    private final Statz plugin;
+
+    // Loads of all data of a player that have not finished yet.
+    private final Map<UUID, CompletableFuture<PlayerInfo>> runningLoads = new ConcurrentHashMap<>();
+
+    // Loads of a single statistic of a player (uuid, statistic) that have not finished yet.
+    private final Map<List<Object>, CompletableFuture<PlayerInfo>> runningStatLoads = new ConcurrentHashMap<>();
+
+    private final ExecutorService executor;
+
+    public PlayerDataLoader(Statz instance) {
+        this.plugin = instance;
+
+        AtomicInteger threadCount = new AtomicInteger();
+
+        this.executor = Executors.newFixedThreadPool(LOADER_THREADS, runnable -> {
+            Thread thread = new Thread(runnable, "Statz Data Loader #" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Load all data of a player into the cache (see {@link DataManager#loadPlayerData(UUID)}) without blocking the
+     * current thread. If the data of the player is already being loaded, no new load is started.
+     *
+     * @param uuid UUID of the player
+     * @return a future that is completed with the data of the player when it has been loaded into the cache.
+     * @throws IllegalArgumentException if the given uuid is null.
+     */
+    public CompletableFuture<PlayerInfo> loadPlayerData(UUID uuid) throws IllegalArgumentException {
+        if (uuid == null) {
+            throw new IllegalArgumentException("UUID cannot be null.");
+        }
+
+        return this.startLoad(runningLoads, uuid, () -> plugin.getDataManager().loadPlayerData(uuid));
+    }
+
+    /**
+     * Load the data of a statistic of a player into the cache (see
+     * {@link DataManager#loadPlayerData(UUID, PlayerStat)}) without blocking the current thread. If the statistic (or
+     * all data) of the player is already being loaded, no new load is started.
+     *
+     * @param uuid     UUID of the player
+     * @param statType Type of statistic
+     * @return a future that is completed with the loaded data when it has been loaded into the cache.
+     * @throws IllegalArgumentException if the given uuid or statistic is null.
+     */
+    public CompletableFuture<PlayerInfo> loadPlayerData(UUID uuid, PlayerStat statType) throws
+            IllegalArgumentException {
+        if (uuid == null) {
+            throw new IllegalArgumentException("UUID cannot be null.");
+        }
+
+        if (statType == null) {
+            throw new IllegalArgumentException("Statistic cannot be null.");
+        }
+
+        // All data of the player is being loaded, which includes the requested statistic.
+        CompletableFuture<PlayerInfo> runningLoad = runningLoads.get(uuid);
+
+        if (runningLoad != null) {
+            return runningLoad;
+        }
+
+        return this.startLoad(runningStatLoads, Arrays.asList(uuid, statType),
+                () -> plugin.getDataManager().loadPlayerData(uuid, statType));
+    }
+
+    /**
+     * Start a load, unless a load with the same key is running already.
+     *
+     * @param loads  Running loads of this type
+     * @param key    Key of the load
+     * @param loader Function that loads the data
+     * @return the future of the running load or the new load.
+     */
+    private <K> CompletableFuture<PlayerInfo> startLoad(Map<K, CompletableFuture<PlayerInfo>> loads, K key,
+                                                        Supplier<PlayerInfo> loader) {
+        CompletableFuture<PlayerInfo> newLoad = new CompletableFuture<>();
+
+        CompletableFuture<PlayerInfo> runningLoad = loads.putIfAbsent(key, newLoad);
+
+        // Someone else is already loading this data.
+        if (runningLoad != null) {
+            return runningLoad;
+        }
+
+        try {
+            executor.execute(() -> {
+                try {
+                    newLoad.complete(loader.get());
+                } catch (Throwable e) {
+                    newLoad.completeExceptionally(e);
+                } finally {
+                    loads.remove(key, newLoad);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            loads.remove(key, newLoad);
+            newLoad.completeExceptionally(e);
+        }
+
+        return newLoad;
+    }
+
+    /**
+     * Check whether the data of a player is being loaded.
+     *
+     * @param uuid UUID of the player
+     * @return true if the data of the player is being loaded, false otherwise.
+     */
+    public boolean isLoading(UUID uuid) {
+        return uuid != null && runningLoads.containsKey(uuid);
+    }
+
+    /**
+     * Get the number of players whose data is being loaded.
+     *
+     * @return number of running loads.
+     */
+    public int getRunningLoads() {
+        return runningLoads.size() + runningStatLoads.size();
+    }
+
+    /**
+     * Stop loading data of players. Loads that have not started yet are cancelled.
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+
+        for (CompletableFuture<PlayerInfo> runningLoad : runningLoads.values()) {
+            runningLoad.cancel(false);
+        }
+
+        for (CompletableFuture<PlayerInfo> runningLoad : runningStatLoads.values()) {
+            runningLoad.cancel(false);
+        }
+
+        runningLoads.clear();
+        runningStatLoads.clear();
+    }
+}
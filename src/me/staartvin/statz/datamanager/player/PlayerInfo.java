@@ -2,6 +2,7 @@ package me.staartvin.statz.datamanager.player;
 
 import me.staartvin.statz.database.datatype.Query;
 import me.staartvin.statz.database.datatype.RowRequirement;
+import me.staartvin.statz.database.datatype.StatRow;
 import me.staartvin.statz.util.StatzUtil;
 
 import java.util.*;
@@ -13,6 +14,12 @@ import java.util.*;
  * Statistics of a player are stored in (key, value) pairs where a key is a PlayerStat object and a value is a list
  * of queries that represent the data retrieved from the database. Each {@link Query} object represents one row in
  * the database.
+ * <br>
+ * <br>
+ * Internally, the rows of each statistic are stored as {@link StatRow}s, which are equal for rows that conflict
+ * (see {@link Query#conflicts(Query)}). Each row is mapped to the sum of the values of all rows that were merged into
+ * it, so merging a row only adds a number. Queries are only created when rows are requested, so the lists returned by
+ * this object can be used freely. All methods are thread-safe.
  * <p>
  * Date created: 15:07:07
  * 17 apr. 2016
@@ -23,7 +30,8 @@ public class PlayerInfo {
 
     private UUID uuid;
 
-    private Map<PlayerStat, List<Query>> statistics = new HashMap<>();
+    // For each statistic, the rows of that statistic indexed by their conflict key.
+    private final Map<PlayerStat, Map<StatRow, IndexedRow>> statistics = new EnumMap<>(PlayerStat.class);
 
     public PlayerInfo(final UUID uuid) {
         this.setUUID(uuid);
@@ -70,14 +78,16 @@ public class PlayerInfo {
      *
      * @param statType Type of statistic to get data for.
      * @return A list of {@link Query} objects that represent the rows in the database. If there is no data for the
-     * given type of statistic, an empty list will be returned.
+     * given type of statistic, an empty list will be returned. Changing the list does not change this object.
      */
-    public List<Query> getDataOfPlayerStat(PlayerStat statType) {
-        if (!this.hasDataOfPlayerStat(statType)) {
+    public synchronized List<Query> getDataOfPlayerStat(PlayerStat statType) {
+        Map<StatRow, IndexedRow> rows = statistics.get(statType);
+
+        if (rows == null) {
             return new ArrayList<>();
         }
 
-        return statistics.get(statType);
+        return toQueries(rows.values());
     }
 
     /**
@@ -88,7 +98,7 @@ public class PlayerInfo {
      * @param rowNumber Row number to get query of.
      * @return a Query that corresponds to this row, or null if it doesn't exist.
      */
-    public Query getRow(PlayerStat statType, int rowNumber) {
+    public synchronized Query getRow(PlayerStat statType, int rowNumber) {
         List<Query> rows = this.getDataOfPlayerStat(statType);
 
         if (rowNumber < 0 || rowNumber >= rows.size()) {
@@ -103,11 +113,11 @@ public class PlayerInfo {
      *
      * @return total number of rows.
      */
-    public int getTotalNumberOfRows() {
+    public synchronized int getTotalNumberOfRows() {
         int totalSize = 0;
 
-        for (PlayerStat statType : PlayerStat.values()) {
-            totalSize += getNumberOfRows(statType);
+        for (Map<StatRow, IndexedRow> rows : statistics.values()) {
+            totalSize += rows.size();
         }
 
         return totalSize;
@@ -119,10 +129,10 @@ public class PlayerInfo {
      * @param statType Type of statistic
      * @return number of rows that are stored. If no rows are stored, zero is returned.
      */
-    public int getNumberOfRows(PlayerStat statType) {
-        List<Query> rows = this.getDataOfPlayerStat(statType);
+    public synchronized int getNumberOfRows(PlayerStat statType) {
+        Map<StatRow, IndexedRow> rows = statistics.get(statType);
 
-        return rows.size();
+        return rows == null ? 0 : rows.size();
     }
 
     /**
@@ -130,7 +140,7 @@ public class PlayerInfo {
      *
      * @return number of statistics stored.
      */
-    public int getNumberOfStatistics() {
+    public synchronized int getNumberOfStatistics() {
         return statistics.size();
     }
 
@@ -140,8 +150,8 @@ public class PlayerInfo {
      * @param statType Type of statistic to check.
      * @return true if the data is available, false otherwise.
      */
-    public boolean hasDataOfPlayerStat(PlayerStat statType) {
-        return statistics.containsKey(statType) && statistics.get(statType) != null;
+    public synchronized boolean hasDataOfPlayerStat(PlayerStat statType) {
+        return statistics.containsKey(statType);
     }
 
     /**
@@ -152,7 +162,7 @@ public class PlayerInfo {
      * @param columnName Name of the column to get info out of the row.
      * @return a value that corresponds to the given value in the returned results or null if nothing was found.
      */
-    public Object getValue(PlayerStat statType, int rowNumber, String columnName) {
+    public synchronized Object getValue(PlayerStat statType, int rowNumber, String columnName) {
         Query row = this.getRow(statType, rowNumber);
 
         if (row == null) return null;
@@ -169,7 +179,7 @@ public class PlayerInfo {
      * @return the sum of the values in the rows that meet the given requirement or 0 if results were invalid or
      * non-existent.
      */
-    public double getTotalValue(PlayerStat statType, RowRequirement... reqs) {
+    public synchronized double getTotalValue(PlayerStat statType, RowRequirement... reqs) {
         // Check if we have any requirements - if not, just return double value.
         if (reqs == null || reqs.length == 0) {
             return this.getTotalValue(statType);
@@ -177,31 +187,33 @@ public class PlayerInfo {
 
         double value = 0;
 
-        List<Query> rows = this.getDataOfPlayerStat(statType);
+        Map<StatRow, IndexedRow> rows = statistics.get(statType);
 
-        if (rows.isEmpty())
+        if (rows == null)
             return value;
 
-        for (Query row : rows) {
-            if (!row.meetsAllRequirements(Arrays.asList(reqs))) {
+        List<RowRequirement> requirements = Arrays.asList(reqs);
+
+        for (IndexedRow row : rows.values()) {
+            if (!row.row.meetsAllRequirements(requirements)) {
                 continue;
             }
 
             // All conditions were met, so we add this value.
-            value += row.getDoubleValue("value");
+            value += row.value;
         }
 
         return value;
     }
 
     /**
-     * Set the data for a specific statistic.
+     * Set the data for a specific statistic. Rows that conflict with each other are merged.
      *
      * @param statType Type of statistic
      * @param rows     Data to set
      * @throws IllegalArgumentException if statType or rows is invalid.
      */
-    public void setData(PlayerStat statType, List<Query> rows) throws IllegalArgumentException {
+    public synchronized void setData(PlayerStat statType, List<Query> rows) throws IllegalArgumentException {
 
         if (statType == null) {
             throw new IllegalArgumentException("Stat cannot be null.");
@@ -211,17 +223,41 @@ public class PlayerInfo {
             throw new IllegalArgumentException("Given rows cannot be null");
         }
 
-        statistics.put(statType, rows);
+        Map<StatRow, IndexedRow> index = new LinkedHashMap<>();
+
+        for (Query row : rows) {
+            if (row == null) {
+                continue;
+            }
+
+            mergeIntoIndex(index, StatRow.fromQuery(statType, row));
+        }
+
+        statistics.put(statType, index);
     }
 
     /**
-     * Add a row of data of a specific statistic.
+     * Add a row of data of a specific statistic. If there is already a row that conflicts with the given row, the
+     * value of the given row is added to the existing row. See {@link #mergeRow(PlayerStat, Query)}.
      *
      * @param statType Type of statistic.
      * @param row      Row to add.
      * @throws IllegalArgumentException if statistic is null or the row is null.
      */
     public void addRow(PlayerStat statType, Query row) throws IllegalArgumentException {
+        this.mergeRow(statType, row);
+    }
+
+    /**
+     * Merge a row of data into the data of a specific statistic. If there is a row that conflicts with the given row
+     * (see {@link Query#conflicts(Query)}), the value of the given row is added to the existing row. Otherwise the
+     * row is added.
+     *
+     * @param statType Type of statistic.
+     * @param row      Row to merge.
+     * @throws IllegalArgumentException if statistic is null or the row is null.
+     */
+    public synchronized void mergeRow(PlayerStat statType, Query row) throws IllegalArgumentException {
 
         if (statType == null) {
             throw new IllegalArgumentException("Stat cannot be null.");
@@ -231,21 +267,19 @@ public class PlayerInfo {
             throw new IllegalArgumentException("Row cannot be null");
         }
 
-        List<Query> rows = this.getDataOfPlayerStat(statType);
-
-        rows.add(row);
-
-        this.setData(statType, rows);
+        mergeIntoIndex(statistics.computeIfAbsent(statType, stat -> new LinkedHashMap<>()), StatRow.fromQuery(statType,
+                row));
     }
 
     /**
-     * Remove a row from data of a specific statistic.
+     * Remove a row from data of a specific statistic. The row that has the same data as the given row (except for
+     * the 'value' column) is removed.
      *
      * @param statType Type of statistic.
      * @param row      Row to remove.
      * @throws IllegalArgumentException if statistic is null or row is null.
      */
-    public void removeRow(PlayerStat statType, Query row) throws IllegalArgumentException {
+    public synchronized void removeRow(PlayerStat statType, Query row) throws IllegalArgumentException {
         if (statType == null) {
             throw new IllegalArgumentException("Stat cannot be null");
         }
@@ -254,16 +288,58 @@ public class PlayerInfo {
             throw new IllegalArgumentException("Row cannot be null");
         }
 
+        Map<StatRow, IndexedRow> rows = statistics.get(statType);
+
         // No row to be removed
-        if (!this.hasDataOfPlayerStat(statType)) {
+        if (rows == null) {
             return;
         }
 
-        List<Query> rows = this.getDataOfPlayerStat(statType);
+        StatRow key = StatRow.fromQuery(statType, row);
+
+        if (key.canConflict()) {
+            rows.remove(key);
+            return;
+        }
+
+        // Rows without a conflict key are stored under a unique key, so we have to look for them.
+        Map<String, Object> data = key.toQuery().getData();
+
+        rows.keySet().removeIf(storedRow -> !storedRow.canConflict() && storedRow.toQuery().getData().equals(data));
+    }
+
+    /**
+     * Merge a row into the given index of rows. If the index has a row that conflicts with the given row, the value
+     * of the given row is added to it.
+     *
+     * @param index Index of rows (by conflict key)
+     * @param row   Row to merge
+     */
+    private static void mergeIntoIndex(Map<StatRow, IndexedRow> index, StatRow row) {
+        // Rows that conflict are equal, so the row is its own key. Rows without a UUID are only equal to themselves.
+        IndexedRow storedRow = index.get(row);
+
+        if (storedRow == null) {
+            index.put(row, new IndexedRow(row));
+        } else {
+            storedRow.merge(row);
+        }
+    }
+
+    /**
+     * Convert indexed rows to queries.
+     *
+     * @param rows Rows to convert
+     * @return a new list of new queries.
+     */
+    private static List<Query> toQueries(Collection<IndexedRow> rows) {
+        List<Query> queries = new ArrayList<>(rows.size());
 
-        rows.remove(row);
+        for (IndexedRow row : rows) {
+            queries.add(row.toQuery());
+        }
 
-        this.setData(statType, rows);
+        return queries;
     }
 
     /**
@@ -272,11 +348,17 @@ public class PlayerInfo {
      *
      * @return the sum of the values of each row.
      */
-    public double getTotalValue(PlayerStat statType) {
+    public synchronized double getTotalValue(PlayerStat statType) {
         double value = 0;
 
-        for (Query q : this.getDataOfPlayerStat(statType)) {
-            value += q.getValue();
+        Map<StatRow, IndexedRow> rows = statistics.get(statType);
+
+        if (rows == null) {
+            return value;
+        }
+
+        for (IndexedRow row : rows.values()) {
+            value += row.value;
         }
 
         return value;
@@ -295,14 +377,14 @@ public class PlayerInfo {
     }
 
     @Override
-    public String toString() {
+    public synchronized String toString() {
         StringBuilder endString = new StringBuilder("PlayerInfo of " + this.getUUID() + ": {");
 
         StringBuilder queryString;
 
-        for (Map.Entry<PlayerStat, List<Query>> entry : statistics.entrySet()) {
+        for (Map.Entry<PlayerStat, Map<StatRow, IndexedRow>> entry : statistics.entrySet()) {
             PlayerStat statType = entry.getKey();
-            List<Query> queries = entry.getValue();
+            List<Query> queries = toQueries(entry.getValue().values());
 
             queryString = new StringBuilder(statType + ": {");
 
@@ -344,69 +426,69 @@ public class PlayerInfo {
 
         PlayerInfo nonConflictingPlayerInfo = new PlayerInfo(this.getUUID());
 
+        Map<PlayerStat, List<IndexedRow>> rows = this.copyIndexedRows();
+        Map<PlayerStat, List<IndexedRow>> comparedRows = comparePlayerInfo.copyIndexedRows();
+
         for (PlayerStat statType : PlayerStat.values()) {
 
-            if (!this.hasDataOfPlayerStat(statType) && !comparePlayerInfo.hasDataOfPlayerStat(statType)) {
+            if (!rows.containsKey(statType) && !comparedRows.containsKey(statType)) {
                 // If both PlayerInfo objects do not store data about this stat type, ignore it.
                 continue;
             }
 
-            List<Query> rows = this.getDataOfPlayerStat(statType);
+            Map<StatRow, IndexedRow> index = new LinkedHashMap<>();
 
-            List<Query> comparedRows = comparePlayerInfo.getDataOfPlayerStat(statType);
-
-            List<Query> conflictingQueries = new ArrayList<>();
-
-            List<Query> nonConflictingQueries = new ArrayList<>();
+            // Add rows of both objects. Rows that conflict are merged by the index.
+            for (IndexedRow row : rows.getOrDefault(statType, Collections.emptyList())) {
+                index.put(row.row, row);
+            }
 
-            // If one of the lists is empty, the other will never conflict and so we can safely add all queries.
-            if (comparedRows.isEmpty()) {
-                nonConflictingQueries.addAll(rows);
-            } else if (rows.isEmpty()) {
-                nonConflictingQueries.addAll(comparedRows);
-            } else {
-                for (Query row : rows) {
-                    for (Query comparedRow : comparedRows) {
-                        // If rows conflict, add their non conflicting counterpart and put both rows on a list of
-                        // conflicting queries.
-                        if (row.conflicts(comparedRow)) {
-                            nonConflictingQueries.add(row.resolveConflict(comparedRow));
+            for (IndexedRow comparedRow : comparedRows.getOrDefault(statType, Collections.emptyList())) {
+                IndexedRow storedRow = index.get(comparedRow.row);
 
-                            // We store all queries that conflict.
-                            conflictingQueries.add(row);
-                            conflictingQueries.add(comparedRow);
-                        }
-                    }
+                if (storedRow == null) {
+                    index.put(comparedRow.row, comparedRow);
+                } else {
+                    storedRow.merge(comparedRow);
                 }
+            }
 
+            // We've built up all queries that are non-conflicting. Hence, we should add this to the PlayerInfo object.
+            nonConflictingPlayerInfo.setIndex(statType, index);
+        }
 
-                // Now, we add all queries that have not conflicted in some way. This means that we add the negation of
-                // conflictingQueries.
+        return nonConflictingPlayerInfo;
+    }
 
-                // Loop over both lists and add queries that do not conflict.
-                for (Query row : rows) {
-                    if (!conflictingQueries.contains(row)) {
-                        nonConflictingQueries.add(row);
-                    }
-                }
+    /**
+     * Set the index of rows of a statistic without copying the rows.
+     *
+     * @param statType Type of statistic
+     * @param index    Index of rows
+     */
+    private synchronized void setIndex(PlayerStat statType, Map<StatRow, IndexedRow> index) {
+        statistics.put(statType, index);
+    }
 
-                for (Query comparedRow : comparedRows) {
-                    if (!conflictingQueries.contains(comparedRow)) {
-                        nonConflictingQueries.add(comparedRow);
-                    }
-                }
-            }
+    /**
+     * Get a copy of the rows of every statistic that can be changed without changing this object.
+     *
+     * @return copies of the indexed rows, per statistic.
+     */
+    private synchronized Map<PlayerStat, List<IndexedRow>> copyIndexedRows() {
+        Map<PlayerStat, List<IndexedRow>> map = new EnumMap<>(PlayerStat.class);
+
+        for (Map.Entry<PlayerStat, Map<StatRow, IndexedRow>> entry : this.statistics.entrySet()) {
+            List<IndexedRow> rows = new ArrayList<>(entry.getValue().size());
 
-            // If the list is empty, we do not need to add it.
-            if (nonConflictingQueries.isEmpty()) {
-                //continue;
+            for (IndexedRow row : entry.getValue().values()) {
+                rows.add(row.copy());
             }
 
-            // We've built up all queries that are non-conflicting. Hence, we should add this to the PlayerInfo object.
-            nonConflictingPlayerInfo.setData(statType, nonConflictingQueries);
+            map.put(entry.getKey(), rows);
         }
 
-        return nonConflictingPlayerInfo;
+        return map;
     }
 
     /**
@@ -414,7 +496,7 @@ public class PlayerInfo {
      *
      * @return a list of statistics
      */
-    public List<PlayerStat> getStatistics() {
+    public synchronized List<PlayerStat> getStatistics() {
         List<PlayerStat> statTypes = new ArrayList<>();
 
         for (PlayerStat statType : this.statistics.keySet()) {
@@ -431,11 +513,7 @@ public class PlayerInfo {
      * @return a list of rows or an empty list if this object does not store info about the requested statistic.
      */
     public List<Query> getRows(PlayerStat statType) {
-        if (!this.hasDataOfPlayerStat(statType)) {
-            return new ArrayList<>();
-        }
-
-        return this.statistics.get(statType);
+        return this.getDataOfPlayerStat(statType);
     }
 
     /**
@@ -443,11 +521,11 @@ public class PlayerInfo {
      *
      * @return a list of rows in the PlayerInfo object.
      */
-    public List<Query> getRows() {
+    public synchronized List<Query> getRows() {
         List<Query> rows = new ArrayList<>();
 
-        for (PlayerStat statType : PlayerStat.values()) {
-            rows.addAll(this.getRows(statType));
+        for (Map<StatRow, IndexedRow> statRows : statistics.values()) {
+            rows.addAll(toQueries(statRows.values()));
         }
 
         return rows;
@@ -460,17 +538,51 @@ public class PlayerInfo {
      *
      * @return all queries stored per statistic type.
      */
-    public Map<PlayerStat, List<Query>> getRowsPerStatistic() {
+    public synchronized Map<PlayerStat, List<Query>> getRowsPerStatistic() {
         Map<PlayerStat, List<Query>> map = new HashMap<>();
 
-        for (Map.Entry<PlayerStat, List<Query>> entry : this.statistics.entrySet()) {
-            if (entry.getValue() == null) {
-                continue;
+        for (Map.Entry<PlayerStat, Map<StatRow, IndexedRow>> entry : this.statistics.entrySet()) {
+            map.put(entry.getKey(), toQueries(entry.getValue().values()));
+        }
+
+        return map;
+    }
+
+    /**
+     * A row of a statistic together with the sum of the values of all rows that were merged into it. The value of
+     * the {@link StatRow} itself is not kept up-to-date.
+     */
+    private static final class IndexedRow {
+
+        private final StatRow row;
+        private double value;
+
+        private IndexedRow(StatRow row) {
+            this.row = row;
+            this.value = row.getValue();
+        }
+
+        private IndexedRow copy() {
+            IndexedRow copy = new IndexedRow(row);
+            copy.value = value;
+            return copy;
+        }
+
+        private void merge(StatRow mergedRow) {
+            // Rows without a value (such as those of the players table) are not summed.
+            if (row.hasValue()) {
+                value += mergedRow.getValue();
             }
+        }
 
-            map.put(entry.getKey(), entry.getValue());
+        private void merge(IndexedRow mergedRow) {
+            if (row.hasValue()) {
+                value += mergedRow.value;
+            }
         }
 
-        return map;
+        private Query toQuery() {
+            return row.withValue(value).toQuery();
+        }
     }
 }
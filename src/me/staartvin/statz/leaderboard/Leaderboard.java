@@ -0,0 +1,216 @@
+package me.staartvin.statz.leaderboard;
+
+import java.util.*;
+
+/**
+ * The players with the highest totals of a statistic (optionally on a single world), kept in memory. The leaderboard
+ * is loaded from the database once (see {@link #load(List, long)}) and then kept up to date with the updates that
+ * are written to the database (see {@link #applyUpdate(UUID, double, Double)}), so it does not have to be loaded
+ * again after every change.
+ * <br>
+ * <br>
+ * The leaderboard holds at most {@link #getCapacity()} players. Values only increase, so the players on the
+ * leaderboard can only be passed by players that receive updates themselves. When a player that is not on the
+ * leaderboard receives an update and we cannot tell whether the player has passed the lowest player of the
+ * leaderboard, the leaderboard is marked as stale and should be loaded again.
+ */
+public class Leaderboard {
+
+    private final int capacity;
+
+    // Total value of every player on the leaderboard.
+    private final Map<UUID, Double> totals = new HashMap<>();
+
+    // Whether all players that have a value are on the leaderboard.
+    private boolean complete = false;
+
+    // Whether the leaderboard may be missing a player that should be on it.
+    private boolean stale = true;
+
+    // Time (in milliseconds) the leaderboard was last loaded.
+    private long loadTime = 0;
+
+    /**
+     * Create a new leaderboard. The leaderboard is stale until it is loaded.
+     *
+     * @param capacity Maximum number of players on the leaderboard
+     */
+    public Leaderboard(int capacity) {
+        this.capacity = Math.max(1, capacity);
+    }
+
+    /**
+     * Replace the players of the leaderboard with the players that were read from the database.
+     *
+     * @param entries Players with the highest totals, at most {@link #getCapacity()}
+     * @param now     Current time (in milliseconds)
+     */
+    public synchronized void load(List<LeaderboardEntry> entries, long now) {
+        totals.clear();
+
+        for (LeaderboardEntry entry : entries) {
+            totals.put(entry.getUUID(), entry.getValue());
+        }
+
+        complete = entries.size() < capacity;
+        stale = false;
+        loadTime = now;
+
+        trim();
+    }
+
+    /**
+     * Add a value that has been written to the database to the total of a player.
+     *
+     * @param uuid         UUID of the player
+     * @param delta        Value that was added to the total of the player
+     * @param currentTotal An upper bound of the new total of the player (e.g. from the cache), or null if it is
+     *                     unknown. Only used if the player is not on the leaderboard.
+     */
+    public synchronized void applyUpdate(UUID uuid, double delta, Double currentTotal) {
+        if (delta == 0) {
+            return;
+        }
+
+        Double total = totals.get(uuid);
+
+        if (total != null) {
+            totals.put(uuid, total + delta);
+            return;
+        }
+
+        // All players with a value are on the leaderboard, so the player did not have a value before.
+        if (complete) {
+            totals.put(uuid, delta);
+            trim();
+            return;
+        }
+
+        // The player cannot have passed the lowest player of the leaderboard.
+        if (currentTotal != null && currentTotal <= getLowestTotal()) {
+            return;
+        }
+
+        stale = true;
+    }
+
+    /**
+     * Get the players with the highest totals, highest first.
+     *
+     * @param count Maximum number of players to return
+     * @return the ranked players of the leaderboard.
+     */
+    public synchronized List<LeaderboardEntry> getTop(int count) {
+        List<Map.Entry<UUID, Double>> sortedTotals = getSortedTotals();
+
+        List<LeaderboardEntry> entries = new ArrayList<>(Math.min(count, sortedTotals.size()));
+
+        int rank = 0;
+        double previousTotal = Double.NaN;
+
+        for (int i = 0; i < sortedTotals.size() && i < count; i++) {
+            Map.Entry<UUID, Double> total = sortedTotals.get(i);
+
+            // Players with the same total have the same rank.
+            if (total.getValue() != previousTotal) {
+                rank = i + 1;
+                previousTotal = total.getValue();
+            }
+
+            entries.add(new LeaderboardEntry(total.getKey(), total.getValue(), rank));
+        }
+
+        return entries;
+    }
+
+    /**
+     * Get the position of a player on the leaderboard.
+     *
+     * @param uuid UUID of the player
+     * @return the entry of the player, or null if the player is not on the leaderboard.
+     */
+    public synchronized LeaderboardEntry getEntry(UUID uuid) {
+        Double total = totals.get(uuid);
+
+        if (total == null) {
+            return null;
+        }
+
+        int rank = 1;
+
+        for (double otherTotal : totals.values()) {
+            if (otherTotal > total) {
+                rank++;
+            }
+        }
+
+        return new LeaderboardEntry(uuid, total, rank);
+    }
+
+    /**
+     * Check whether the leaderboard may be missing a player and should be loaded again.
+     *
+     * @return true if the leaderboard is stale.
+     */
+    public synchronized boolean isStale() {
+        return stale;
+    }
+
+    /**
+     * Mark the leaderboard as stale, e.g. because data was written to the database without being passed to the
+     * leaderboard.
+     */
+    public synchronized void markStale() {
+        stale = true;
+    }
+
+    /**
+     * Get the time the leaderboard was last loaded from the database.
+     *
+     * @return the load time in milliseconds, or 0 if it was never loaded.
+     */
+    public synchronized long getLoadTime() {
+        return loadTime;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Remove the lowest players until the leaderboard holds no more players than its capacity.
+     */
+    private void trim() {
+        if (totals.size() <= capacity) {
+            return;
+        }
+
+        List<Map.Entry<UUID, Double>> sortedTotals = getSortedTotals();
+
+        for (int i = capacity; i < sortedTotals.size(); i++) {
+            totals.remove(sortedTotals.get(i).getKey());
+        }
+
+        // Some players with a value are not on the leaderboard anymore.
+        complete = false;
+    }
+
+    private double getLowestTotal() {
+        double lowestTotal = Double.MAX_VALUE;
+
+        for (double total : totals.values()) {
+            lowestTotal = Math.min(lowestTotal, total);
+        }
+
+        return totals.isEmpty() ? 0 : lowestTotal;
+    }
+
+    private List<Map.Entry<UUID, Double>> getSortedTotals() {
+        List<Map.Entry<UUID, Double>> sortedTotals = new ArrayList<>(totals.entrySet());
+
+        sortedTotals.sort(Map.Entry.<UUID, Double>comparingByValue().reversed().thenComparing(Map.Entry
+                .comparingByKey()));
+
+        return sortedTotals;
+    }
+}
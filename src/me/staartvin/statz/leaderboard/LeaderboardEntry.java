@@ -0,0 +1,52 @@
+package me.staartvin.statz.leaderboard;
+
+import java.util.UUID;
+
+/**
+ * A single position on a leaderboard: a player, the total value of the statistic of the player and the rank of the
+ * player. Players with the same total have the same rank.
+ */
+public class LeaderboardEntry {
+
+    private final UUID uuid;
+    private final double value;
+    private final int rank;
+
+    public LeaderboardEntry(UUID uuid, double value, int rank) {
+        this.uuid = uuid;
+        this.value = value;
+        this.rank = rank;
+    }
+
+    /**
+     * Get the UUID of the player of this entry.
+     *
+     * @return UUID of the player.
+     */
+    public UUID getUUID() {
+        return uuid;
+    }
+
+    /**
+     * Get the total value of the statistic of the player.
+     *
+     * @return the sum of all rows of the player (on a world, if the leaderboard is for a specific world).
+     */
+    public double getValue() {
+        return value;
+    }
+
+    /**
+     * Get the rank of the player. The player with the highest total has rank 1.
+     *
+     * @return the rank of the player.
+     */
+    public int getRank() {
+        return rank;
+    }
+
+    @Override
+    public String toString() {
+        return "#" + rank + " " + uuid + ": " + value;
+    }
+}
@@ -0,0 +1,350 @@
+package me.staartvin.statz.leaderboard;
+
+import me.staartvin.statz.Statz;
+import me.staartvin.statz.database.DatabaseConnector;
+import me.staartvin.statz.database.datatype.Query;
+import me.staartvin.statz.database.datatype.RowRequirement;
+import me.staartvin.statz.database.datatype.Table;
+import me.staartvin.statz.datamanager.player.PlayerInfo;
+import me.staartvin.statz.datamanager.player.PlayerStat;
+import me.staartvin.statz.update.UpdatePoolManager;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * The LeaderboardManager ranks players by the total value of a statistic. The totals are summed by the database
+ * (see {@link DatabaseConnector#getLeaderboard(Table, String, int)}), so the data of all players never has to be
+ * loaded into memory.
+ * <br>
+ * <br>
+ * The top players of every statistic (and world) that is requested are kept in a {@link Leaderboard}. After every
+ * sync, the updates that were written to the database are added to the leaderboards (see
+ * {@link #applyWrittenUpdates(Map)}), so they stay up to date without reading the database again. A leaderboard is
+ * only read again when it may have missed a player, at most once every refresh interval.
+ * <br>
+ * <br>
+ * Note that leaderboards only contain data that has been written to the database. Updates that are still in the pools
+ * are not counted.
+ */
+public class LeaderboardManager {
+
+    public static final int DEFAULT_LEADERBOARD_SIZE = 100;
+
+    // Default time (in seconds) between two reads of a stale leaderboard.
+    public static final int DEFAULT_REFRESH_INTERVAL = 30;
+
+    // Maximum time (in milliseconds) to wait for a running sync before a leaderboard is read.
+    private static final long LOAD_TIMEOUT = 5000;
+
+    // Number of threads that read leaderboards from the database.
+    private static final int READER_THREADS = 2;
+
+    private final Statz plugin;
+    private final int leaderboardSize;
+    private final long refreshInterval;
+
+    private final Map<LeaderboardKey, Leaderboard> leaderboards = new ConcurrentHashMap<>();
+
+    // Only one leaderboard is read from the database at a time.
+    private final Object loadLock = new Object();
+
+    // Reading a leaderboard blocks on the database (and on a running sync), so it is not done on the common pool.
+    private final ExecutorService executor;
+
+    // Reads that have not finished yet, so they can be cancelled when the manager is shut down.
+    private final Set<CompletableFuture<?>> runningReads = ConcurrentHashMap.newKeySet();
+
+    public LeaderboardManager(Statz instance) {
+        this.plugin = instance;
+        this.leaderboardSize = Math.max(1, instance.getConfigHandler().getLeaderboardSize());
+        this.refreshInterval = TimeUnit.SECONDS.toMillis(instance.getConfigHandler().getLeaderboardRefreshInterval());
+
+        AtomicInteger threadCount = new AtomicInteger();
+
+        this.executor = Executors.newFixedThreadPool(READER_THREADS, runnable -> {
+            Thread thread = new Thread(runnable, "Statz Leaderboard Reader #" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Get the players with the highest total of a statistic. This method never blocks the thread it is called on.
+     *
+     * @param statType  Type of statistic
+     * @param worldName Name of the world to rank the players on, or null to rank the players on all worlds
+     * @param count     Number of players to get
+     * @return a future that is completed with the ranked players, highest first. The list is empty if the statistic
+     * cannot be ranked (e.g. because it does not have a value or is not stored per world).
+     * @throws IllegalArgumentException if the given statType is null.
+     */
+    public CompletableFuture<List<LeaderboardEntry>> getTopPlayers(PlayerStat statType, String worldName, int count)
+            throws IllegalArgumentException {
+        if (statType == null) {
+            throw new IllegalArgumentException("Stat cannot be null.");
+        }
+
+        Table table = DatabaseConnector.getTable(statType);
+
+        if (count <= 0 || !DatabaseConnector.supportsLeaderboard(table, worldName)) {
+            return CompletableFuture.completedFuture(new ArrayList<>());
+        }
+
+        // Larger leaderboards are not kept in memory, so read them from the database directly.
+        if (count > leaderboardSize) {
+            return readAsync(() -> {
+                List<LeaderboardEntry> entries = plugin.getDatabaseConnector().getLeaderboard(table, worldName, count);
+
+                return entries != null ? entries : new ArrayList<>();
+            }, new ArrayList<>());
+        }
+
+        Leaderboard leaderboard = leaderboards.computeIfAbsent(new LeaderboardKey(statType, worldName), key -> new
+                Leaderboard(leaderboardSize));
+
+        if (!needsLoad(leaderboard)) {
+            return CompletableFuture.completedFuture(leaderboard.getTop(count));
+        }
+
+        return readAsync(() -> {
+            load(leaderboard, table, worldName);
+
+            return leaderboard.getTop(count);
+        }, leaderboard.getTop(count));
+    }
+
+    /**
+     * Get the rank of a player for a statistic. If the player is on a leaderboard in memory, no database access is
+     * needed. This method never blocks the thread it is called on.
+     *
+     * @param statType  Type of statistic
+     * @param uuid      UUID of the player
+     * @param worldName Name of the world to rank the player on, or null to rank the player on all worlds
+     * @return a future that is completed with the position of the player, or null if the player does not have data
+     * of the statistic.
+     * @throws IllegalArgumentException if the given statType or uuid is null.
+     */
+    public CompletableFuture<LeaderboardEntry> getRank(PlayerStat statType, UUID uuid, String worldName) throws
+            IllegalArgumentException {
+        if (statType == null) {
+            throw new IllegalArgumentException("Stat cannot be null.");
+        }
+
+        if (uuid == null) {
+            throw new IllegalArgumentException("UUID cannot be null.");
+        }
+
+        Table table = DatabaseConnector.getTable(statType);
+
+        if (!DatabaseConnector.supportsLeaderboard(table, worldName)) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        Leaderboard leaderboard = leaderboards.get(new LeaderboardKey(statType, worldName));
+
+        if (leaderboard != null && !leaderboard.isStale()) {
+            LeaderboardEntry entry = leaderboard.getEntry(uuid);
+
+            if (entry != null) {
+                return CompletableFuture.completedFuture(entry);
+            }
+        }
+
+        return readAsync(() -> plugin.getDatabaseConnector().getLeaderboardEntry(table, uuid, worldName), null);
+    }
+
+    /**
+     * Add updates that have been written to the database to the leaderboards. This should be called by the task
+     * that writes the pools, before it releases the right to flush (see {@link UpdatePoolManager#tryStartFlush()}).
+     *
+     * @param updates Updates that were written, per statistic
+     */
+    public void applyWrittenUpdates(Map<PlayerStat, List<Query>> updates) {
+        for (Map.Entry<LeaderboardKey, Leaderboard> leaderboard : leaderboards.entrySet()) {
+            LeaderboardKey key = leaderboard.getKey();
+            List<Query> queries = updates.get(key.statType);
+
+            if (queries == null) {
+                continue;
+            }
+
+            Map<UUID, Double> deltas = new HashMap<>();
+
+            for (Query query : queries) {
+                UUID uuid = query.getUUID();
+
+                if (uuid == null || !query.hasColumn("value")) {
+                    continue;
+                }
+
+                if (key.worldName != null && !key.worldName.equals(query.getValue("world"))) {
+                    continue;
+                }
+
+                deltas.merge(uuid, query.getValue(), Double::sum);
+            }
+
+            for (Map.Entry<UUID, Double> delta : deltas.entrySet()) {
+                Double cachedTotal = getCachedTotal(delta.getKey(), key.statType, key.worldName);
+
+                // The cache may not have applied the latest updates yet, so add the update to be sure.
+                leaderboard.getValue().applyUpdate(delta.getKey(), delta.getValue(), cachedTotal == null ? null :
+                        cachedTotal + delta.getValue());
+            }
+        }
+    }
+
+    /**
+     * Mark all leaderboards as stale, e.g. because data was written to or removed from the database without
+     * passing it to {@link #applyWrittenUpdates(Map)}.
+     */
+    public void invalidate() {
+        for (Leaderboard leaderboard : leaderboards.values()) {
+            leaderboard.markStale();
+        }
+    }
+
+    /**
+     * Stop reading leaderboards. Reads that have not finished yet are cancelled and a read that waits for a sync stops
+     * waiting.
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+
+        for (CompletableFuture<?> runningRead : runningReads) {
+            runningRead.cancel(false);
+        }
+    }
+
+    /**
+     * Read from the database on the threads of this manager. The read is cancelled when the manager is shut down.
+     *
+     * @param reader   Reads the value from the database
+     * @param fallback Value to complete the future with if the manager has been shut down
+     * @param <T>      Type of the value that is read
+     * @return a future that is completed with the value that was read.
+     */
+    private <T> CompletableFuture<T> readAsync(Supplier<T> reader, T fallback) {
+        CompletableFuture<T> read;
+
+        try {
+            read = CompletableFuture.supplyAsync(reader, executor);
+        } catch (RejectedExecutionException e) {
+            return CompletableFuture.completedFuture(fallback);
+        }
+
+        runningReads.add(read);
+        read.whenComplete((value, throwable) -> runningReads.remove(read));
+
+        return read;
+    }
+
+    /**
+     * Read a leaderboard from the database, if it still needs to be read. No updates are written to the database
+     * while it is read, so the updates that are added afterwards are not counted twice.
+     *
+     * @param leaderboard Leaderboard to load
+     * @param table       Table of the statistic
+     * @param worldName   Name of the world, or null for all worlds
+     */
+    private void load(Leaderboard leaderboard, Table table, String worldName) {
+        synchronized (loadLock) {
+            // Another thread may have loaded it in the meantime.
+            if (!needsLoad(leaderboard)) {
+                return;
+            }
+
+            UpdatePoolManager updatePoolManager = plugin.getUpdatePoolManager();
+
+            try {
+                if (!updatePoolManager.tryStartFlush(LOAD_TIMEOUT)) {
+                    plugin.debugMessage("Could not load leaderboard of " + table.getTableName() + ", as the " +
+                            "database is busy.");
+                    return;
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+
+            try {
+                List<LeaderboardEntry> entries = plugin.getDatabaseConnector().getLeaderboard(table, worldName,
+                        leaderboard.getCapacity());
+
+                if (entries != null) {
+                    leaderboard.load(entries, System.currentTimeMillis());
+                }
+            } finally {
+                updatePoolManager.finishFlush();
+            }
+        }
+    }
+
+    /**
+     * Check whether a leaderboard should be read from the database.
+     *
+     * @param leaderboard Leaderboard to check
+     * @return true if the leaderboard was never read, or is stale and has not been read for a refresh interval.
+     */
+    private boolean needsLoad(Leaderboard leaderboard) {
+        long loadTime = leaderboard.getLoadTime();
+
+        return loadTime == 0 || (leaderboard.isStale() && System.currentTimeMillis() - loadTime >= refreshInterval);
+    }
+
+    /**
+     * Get the total of a statistic of a player from the cache.
+     *
+     * @param uuid      UUID of the player
+     * @param statType  Type of statistic
+     * @param worldName Name of the world, or null for all worlds
+     * @return the cached total, or null if the statistic of the player is not cached.
+     */
+    private Double getCachedTotal(UUID uuid, PlayerStat statType, String worldName) {
+        if (!plugin.getCachingManager().isPlayerCacheLoaded(uuid, statType)) {
+            return null;
+        }
+
+        PlayerInfo info = plugin.getCachingManager().getCachedPlayerData(uuid);
+
+        if (info == null) {
+            return null;
+        }
+
+        return worldName == null ? info.getTotalValue(statType) : info.getTotalValue(statType, new RowRequirement
+                ("world", worldName));
+    }
+
+    /**
+     * Identifies the leaderboard of a statistic on a world (or on all worlds).
+     */
+    private static final class LeaderboardKey {
+
+        private final PlayerStat statType;
+        private final String worldName;
+
+        private LeaderboardKey(PlayerStat statType, String worldName) {
+            this.statType = statType;
+            this.worldName = worldName;
+        }
+
+        @Override
+        public boolean equals(Object object) {
+            if (!(object instanceof LeaderboardKey)) {
+                return false;
+            }
+
+            LeaderboardKey key = (LeaderboardKey) object;
+
+            return statType == key.statType && Objects.equals(worldName, key.worldName);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * statType.hashCode() + Objects.hashCode(worldName);
+        }
+    }
+}
@@ -2,13 +2,12 @@ package me.staartvin.statz.listeners;
 
 import me.staartvin.statz.Statz;
 import me.staartvin.statz.datamanager.player.PlayerStat;
-import me.staartvin.statz.datamanager.player.specification.DistanceTravelledSpecification;
-import me.staartvin.statz.datamanager.player.specification.PlayerStatSpecification;
 import me.staartvin.statz.util.StatzUtil;
 import org.bukkit.entity.Player;
 import org.bukkit.event.EventHandler;
 import org.bukkit.event.EventPriority;
 import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerChangedWorldEvent;
 import org.bukkit.event.player.PlayerMoveEvent;
 
 public class DistanceTravelledListener implements Listener {
@@ -46,11 +45,15 @@ public class DistanceTravelledListener implements Listener {
             return;
         }
 
-        PlayerStatSpecification specification = new DistanceTravelledSpecification(player.getUniqueId(),
-                distTravelled, player.getWorld().getName(), movementType);
+        // Add distance to the movement tracker. It will be sent to the update pool periodically.
+        plugin.getMovementTracker().addDistance(player.getUniqueId(), player.getWorld().getName(), movementType,
+                distTravelled);
 
-        // Update value to new stat.
-        plugin.getDataManager().setPlayerInfo(player.getUniqueId(), stat, specification.constructQuery());
+    }
 
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onWorldChange(final PlayerChangedWorldEvent event) {
+        // Register the distance travelled in the previous world before the player starts moving in the new world.
+        plugin.getMovementTracker().flushPlayer(event.getPlayer().getUniqueId());
     }
 }
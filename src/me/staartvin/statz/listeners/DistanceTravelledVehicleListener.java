@@ -2,8 +2,6 @@ package me.staartvin.statz.listeners;
 
 import me.staartvin.statz.Statz;
 import me.staartvin.statz.datamanager.player.PlayerStat;
-import me.staartvin.statz.datamanager.player.specification.DistanceTravelledSpecification;
-import me.staartvin.statz.datamanager.player.specification.PlayerStatSpecification;
 import me.staartvin.statz.util.StatzUtil;
 import org.bukkit.entity.Player;
 import org.bukkit.entity.Vehicle;
@@ -67,11 +65,9 @@ public class DistanceTravelledVehicleListener implements Listener {
             return;
         }
 
-        PlayerStatSpecification specification = new DistanceTravelledSpecification(player.getUniqueId(),
-                distTravelled, player.getWorld().getName(), movementType);
-
-        // Update value to new stat.
-        plugin.getDataManager().setPlayerInfo(player.getUniqueId(), stat, specification.constructQuery());
+        // Add distance to the movement tracker. It will be sent to the update pool periodically.
+        plugin.getMovementTracker().addDistance(player.getUniqueId(), player.getWorld().getName(), movementType,
+                distTravelled);
 
     }
 }
@@ -17,6 +17,9 @@ public class JoinPlayerListener implements Listener {
     @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
     public void onJoin(final PlayerJoinEvent event) {
 
+        // Keep the data of the player in the cache while they are online.
+        plugin.getCachingManager().pinPlayer(event.getPlayer().getUniqueId());
+
         // Start task that periodically updates cache of a player.
         plugin.getTaskManager().startUpdatePlayerCacheTask(event.getPlayer().getUniqueId());
 
@@ -0,0 +1,66 @@
+package me.staartvin.statz.listeners;
+
+import me.staartvin.statz.Statz;
+import me.staartvin.statz.datamanager.player.PlayerInfo;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.AsyncPlayerPreLoginEvent;
+
+import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+
+public class PreLoginListener implements Listener {
+
+    private final Statz plugin;
+
+    public PreLoginListener(final Statz plugin) {
+        this.plugin = plugin;
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPreLogin(final AsyncPlayerPreLoginEvent event) {
+
+        // Player is not allowed to join, so don't load their data.
+        if (event.getLoginResult() != AsyncPlayerPreLoginEvent.Result.ALLOWED) {
+            return;
+        }
+
+        UUID uuid = event.getUniqueId();
+
+        // Data is already in the cache.
+        if (plugin.getDataManager().isPlayerLoaded(uuid)) {
+            return;
+        }
+
+        // Load data of the player before they join, so it never has to be loaded on the main thread.
+        CompletableFuture<PlayerInfo> load = plugin.getPlayerDataLoader().loadPlayerData(uuid);
+
+        int timeout = plugin.getConfigHandler().getPrefetchTimeout();
+
+        if (timeout <= 0) {
+            return;
+        }
+
+        // This event is called asynchronously, so we can wait for the data without blocking the server. Don't
+        // delay the login for too long though.
+        try {
+            load.get(timeout, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            plugin.debugMessage("Data of " + event.getName() + " was not loaded within " + timeout + " ms, " +
+                    "continuing login.");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            plugin.getLogger().log(Level.WARNING, "Could not load data of " + event.getName(), e.getCause());
+        } catch (CancellationException e) {
+            // Statz is disabling.
+        }
+    }
+
+}
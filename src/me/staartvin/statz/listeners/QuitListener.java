@@ -29,8 +29,14 @@ public class QuitListener implements Listener {
 			JoinsListener.updateID.remove(player.getUniqueId());
 		}
 
+		// Register the distance the player travelled since the last sample.
+		plugin.getMovementTracker().removePlayer(player.getUniqueId());
+
 		// Stop task of periodically refreshing cache of a player, as they logged out.
 		plugin.getTaskManager().stopUpdatePlayerCacheTask(player.getUniqueId());
+
+		// Data of the player can now be evicted from the cache.
+		plugin.getCachingManager().unpinPlayer(player.getUniqueId());
 	}
 
 }
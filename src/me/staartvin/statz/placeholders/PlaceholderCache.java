@@ -0,0 +1,128 @@
+package me.staartvin.statz.placeholders;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Stores the results of placeholders per player for a short time. Scoreboards request the same placeholders of a
+ * player several times per second, while the underlying data only changes when the player does something. Results
+ * are stored for {@link #getTimeToLive()} milliseconds, after which they are computed again.
+ * <br>
+ * <br>
+ * Expired results are removed every now and then when new results are stored, so the cache does not keep results of
+ * players that have left.
+ */
+public class PlaceholderCache {
+
+    public static final int DEFAULT_TIME_TO_LIVE = 1000;
+
+    // Minimum time (in milliseconds) between two removals of expired results.
+    private static final long CLEAN_UP_INTERVAL = 60000;
+
+    private final long timeToLive;
+
+    private final Map<UUID, Map<String, CachedResult>> results = new ConcurrentHashMap<>();
+
+    private volatile long nextCleanUp = 0;
+
+    /**
+     * Create a new cache.
+     *
+     * @param timeToLive Time (in milliseconds) a result is stored. If it is not positive, nothing is stored.
+     */
+    public PlaceholderCache(long timeToLive) {
+        this.timeToLive = timeToLive;
+    }
+
+    /**
+     * Get a stored result of a placeholder.
+     *
+     * @param uuid   UUID of the player
+     * @param params Placeholder (without the 'statz_' prefix)
+     * @param now    Current time (in milliseconds)
+     * @return the stored result or null if there is no result or it has expired.
+     */
+    public String get(UUID uuid, String params, long now) {
+        Map<String, CachedResult> playerResults = results.get(uuid);
+
+        if (playerResults == null) {
+            return null;
+        }
+
+        CachedResult result = playerResults.get(params);
+
+        return result == null || result.expiryTime <= now ? null : result.value;
+    }
+
+    /**
+     * Get the latest stored result of a placeholder, even if it has expired. Expired results are only kept until they
+     * are removed by the next clean up, so this can be used to show an old result while a new one is computed.
+     *
+     * @param uuid   UUID of the player
+     * @param params Placeholder (without the 'statz_' prefix)
+     * @return the latest stored result or null if there is no result.
+     */
+    public String getLatest(UUID uuid, String params) {
+        Map<String, CachedResult> playerResults = results.get(uuid);
+
+        if (playerResults == null) {
+            return null;
+        }
+
+        CachedResult result = playerResults.get(params);
+
+        return result == null ? null : result.value;
+    }
+
+    /**
+     * Store the result of a placeholder.
+     *
+     * @param uuid   UUID of the player
+     * @param params Placeholder (without the 'statz_' prefix)
+     * @param value  Result of the placeholder
+     * @param now    Current time (in milliseconds)
+     */
+    public void put(UUID uuid, String params, String value, long now) {
+        if (timeToLive <= 0) {
+            return;
+        }
+
+        if (now >= nextCleanUp) {
+            nextCleanUp = now + CLEAN_UP_INTERVAL;
+
+            cleanUp(now);
+        }
+
+        results.computeIfAbsent(uuid, key -> new ConcurrentHashMap<>()).put(params, new CachedResult(value, now +
+                timeToLive));
+    }
+
+    public long getTimeToLive() {
+        return timeToLive;
+    }
+
+    /**
+     * Remove all results that have expired.
+     *
+     * @param now Current time (in milliseconds)
+     */
+    private void cleanUp(long now) {
+        for (Map<String, CachedResult> playerResults : results.values()) {
+            playerResults.values().removeIf(result -> result.expiryTime <= now);
+        }
+
+        results.values().removeIf(Map::isEmpty);
+    }
+
+    private static final class CachedResult {
+
+        private final String value;
+        private final long expiryTime;
+
+        private CachedResult(String value, long expiryTime) {
+            this.value = value;
+            this.expiryTime = expiryTime;
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package me.staartvin.statz.placeholders;
+
+import me.staartvin.statz.Statz;
+import me.staartvin.statz.database.DatabaseConnector;
+import me.staartvin.statz.datamanager.player.PlayerStat;
+import me.staartvin.statz.leaderboard.LeaderboardEntry;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.logging.Level;
+
+/**
+ * Keeps a {@link RankingSnapshot} of the top players of every statistic that is used in a placeholder. Placeholders
+ * are requested very often (e.g. by scoreboards and holograms), so they should never touch the database. Instead,
+ * this task periodically gets the top players from the {@link me.staartvin.statz.leaderboard.LeaderboardManager} and
+ * replaces the snapshots at once. Looking up a placeholder is then only a matter of reading a snapshot.
+ * <br>
+ * <br>
+ * Statistics are only ranked after they have been requested for the first time, so statistics that are not used in
+ * any placeholder do not cost anything.
+ */
+public class PlaceholderRankings implements Runnable {
+
+    public static final int DEFAULT_RANKING_SIZE = 10;
+
+    // Default time (in seconds) between two refreshes of the rankings.
+    public static final int DEFAULT_REFRESH_INTERVAL = 60;
+
+    private final Statz plugin;
+
+    // Number of players that are ranked per statistic.
+    private final int rankingSize;
+
+    // Statistics that have been requested by a placeholder.
+    private final Set<PlayerStat> requestedStats = ConcurrentHashMap.newKeySet();
+
+    private volatile Map<PlayerStat, RankingSnapshot> snapshots = Collections.emptyMap();
+
+    public PlaceholderRankings(Statz instance) {
+        this.plugin = instance;
+        this.rankingSize = Math.max(1, instance.getConfigHandler().getPlaceholderRankingSize());
+    }
+
+    /**
+     * Get the latest snapshot of the top players of a statistic. If the statistic was not requested before, it is
+     * ranked in the background.
+     *
+     * @param statType Type of statistic
+     * @return the latest snapshot, or null if the statistic has not been ranked yet.
+     */
+    public RankingSnapshot getSnapshot(PlayerStat statType) {
+        RankingSnapshot snapshot = snapshots.get(statType);
+
+        if (snapshot == null && requestedStats.add(statType)) {
+            plugin.getServer().getScheduler().runTaskAsynchronously(plugin, this);
+        }
+
+        return snapshot;
+    }
+
+    /**
+     * Check whether a statistic can be ranked, i.e. whether it has a total per player.
+     *
+     * @param statType Type of statistic
+     * @return true if the statistic can be used in a ranking placeholder.
+     */
+    public static boolean canRank(PlayerStat statType) {
+        return DatabaseConnector.supportsLeaderboard(DatabaseConnector.getTable(statType), null);
+    }
+
+    public int getRankingSize() {
+        return rankingSize;
+    }
+
+    @Override
+    public synchronized void run() {
+        Map<PlayerStat, RankingSnapshot> oldSnapshots = snapshots;
+        Map<PlayerStat, RankingSnapshot> newSnapshots = new EnumMap<>(PlayerStat.class);
+
+        for (PlayerStat statType : requestedStats) {
+            List<LeaderboardEntry> entries;
+
+            try {
+                entries = plugin.getLeaderboardManager().getTopPlayers(statType, null, rankingSize).get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ExecutionException e) {
+                plugin.getLogger().log(Level.WARNING, "Could not rank players of " + statType + ":", e.getCause());
+
+                // Keep showing the old ranking.
+                if (oldSnapshots.containsKey(statType)) {
+                    newSnapshots.put(statType, oldSnapshots.get(statType));
+                }
+
+                continue;
+            }
+
+            RankingSnapshot oldSnapshot = oldSnapshots.get(statType);
+            List<String> names = new ArrayList<>(entries.size());
+
+            for (LeaderboardEntry entry : entries) {
+                String name = oldSnapshot == null ? null : oldSnapshot.getName(entry.getUUID());
+
+                // Only look up names of players that were not ranked before.
+                if (name == null) {
+                    name = plugin.getServer().getOfflinePlayer(entry.getUUID()).getName();
+                }
+
+                names.add(name);
+            }
+
+            newSnapshots.put(statType, new RankingSnapshot(statType, entries, names));
+        }
+
+        snapshots = Collections.unmodifiableMap(newSnapshots);
+    }
+}
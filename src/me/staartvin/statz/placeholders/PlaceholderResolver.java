@@ -0,0 +1,20 @@
+package me.staartvin.statz.placeholders;
+
+import org.bukkit.OfflinePlayer;
+
+/**
+ * A placeholder that has already been parsed. Everything that does not depend on the player (such as the statistic
+ * and the {@link me.staartvin.statz.database.datatype.RowRequirement}s) is resolved once when the placeholder is
+ * compiled (see {@link StatzPlaceholders}), so resolving it for a player is cheap.
+ */
+@FunctionalInterface
+interface PlaceholderResolver {
+
+    /**
+     * Get the value of this placeholder for a player. This method should never block.
+     *
+     * @param player Player to get the value for, may be null
+     * @return the value of the placeholder or null if it cannot be resolved.
+     */
+    String resolve(OfflinePlayer player);
+}
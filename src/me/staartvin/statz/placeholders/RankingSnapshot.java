@@ -0,0 +1,115 @@
+package me.staartvin.statz.placeholders;
+
+import me.staartvin.statz.datamanager.player.PlayerStat;
+import me.staartvin.statz.leaderboard.LeaderboardEntry;
+
+import java.util.*;
+
+/**
+ * The top players of a statistic at a certain moment, as shown by the placeholders. A snapshot cannot be changed, so
+ * it can be read by any thread without locking. A new snapshot is created on every refresh of the
+ * {@link PlaceholderRankings}.
+ */
+public final class RankingSnapshot {
+
+    private final PlayerStat statType;
+
+    // Ranked players, highest first. The player at position n is stored at index n - 1.
+    private final LeaderboardEntry[] entries;
+    private final String[] names;
+
+    // Index of every ranked player in the arrays above.
+    private final Map<UUID, Integer> indices;
+
+    /**
+     * Create a snapshot of the top players of a statistic.
+     *
+     * @param statType Type of statistic
+     * @param entries  Ranked players, highest first
+     * @param names    Name of every ranked player, in the same order as the entries
+     * @throws IllegalArgumentException if the number of names does not match the number of entries.
+     */
+    public RankingSnapshot(PlayerStat statType, List<LeaderboardEntry> entries, List<String> names) throws
+            IllegalArgumentException {
+        if (entries.size() != names.size()) {
+            throw new IllegalArgumentException("Every entry needs a name.");
+        }
+
+        this.statType = statType;
+        this.entries = entries.toArray(new LeaderboardEntry[0]);
+        this.names = names.toArray(new String[0]);
+
+        Map<UUID, Integer> indices = new HashMap<>();
+
+        for (int i = 0; i < this.entries.length; i++) {
+            indices.put(this.entries[i].getUUID(), i);
+        }
+
+        this.indices = Collections.unmodifiableMap(indices);
+    }
+
+    public PlayerStat getStatType() {
+        return statType;
+    }
+
+    /**
+     * Get the player at a position of the ranking.
+     *
+     * @param position Position in the ranking, starting at 1
+     * @return the entry at the position or null if there are fewer players in the ranking.
+     */
+    public LeaderboardEntry getEntry(int position) {
+        if (position < 1 || position > entries.length) {
+            return null;
+        }
+
+        return entries[position - 1];
+    }
+
+    /**
+     * Get the name of the player at a position of the ranking.
+     *
+     * @param position Position in the ranking, starting at 1
+     * @return the name of the player or null if there are fewer players in the ranking or the name is unknown.
+     */
+    public String getName(int position) {
+        if (position < 1 || position > names.length) {
+            return null;
+        }
+
+        return names[position - 1];
+    }
+
+    /**
+     * Get the name of a player that is in the ranking. Can be used to avoid looking up names again.
+     *
+     * @param uuid UUID of the player
+     * @return the name of the player or null if the player is not in the ranking or the name is unknown.
+     */
+    public String getName(UUID uuid) {
+        Integer index = indices.get(uuid);
+
+        return index == null ? null : names[index];
+    }
+
+    /**
+     * Get the entry of a player in the ranking.
+     *
+     * @param uuid UUID of the player
+     * @return the entry of the player or null if the player is not in the ranking.
+     */
+    public LeaderboardEntry getEntry(UUID uuid) {
+        Integer index = indices.get(uuid);
+
+        return index == null ? null : entries[index];
+    }
+
+    /**
+     * Get the number of players in the ranking.
+     *
+     * @return the number of ranked players.
+     */
+    public int size() {
+        return entries.length;
+    }
+}
@@ -3,21 +3,56 @@ package me.staartvin.statz.placeholders;
 import me.clip.placeholderapi.expansion.PlaceholderExpansion;
 import me.staartvin.statz.Statz;
 import me.staartvin.statz.database.datatype.RowRequirement;
+import me.staartvin.statz.datamanager.player.PlayerInfo;
 import me.staartvin.statz.datamanager.player.PlayerStat;
+import me.staartvin.statz.leaderboard.LeaderboardEntry;
 import me.staartvin.statz.util.StatzUtil;
 import org.bukkit.Material;
 import org.bukkit.OfflinePlayer;
 import org.bukkit.entity.EntityType;
 import org.jetbrains.annotations.NotNull;
 
-import java.util.Locale;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.DoubleFunction;
 
+/**
+ * Provides the placeholders of Statz to PlaceholderAPI. Placeholders are requested very often (scoreboards render
+ * them several times per second for every player), so every placeholder is parsed only once into a
+ * {@link PlaceholderResolver}. Results of a player are stored for a short time in a {@link PlaceholderCache}.
+ * <br>
+ * <br>
+ * Placeholders never block the server: if the data of a player is not cached yet, it is loaded in the background
+ * and {@link #LOADING} is shown in the meantime.
+ */
 public class StatzPlaceholders extends PlaceholderExpansion {
 
+    // Shown while the data of a player is being loaded.
+    public static final String LOADING = "loading...";
+
+    // Maximum number of different placeholders that are kept compiled.
+    private static final int MAXIMUM_COMPILED_PLACEHOLDERS = 1024;
+
     Statz plugin;
 
-    public StatzPlaceholders(Statz instance) {
+    private final PlaceholderRankings rankings;
+    private final PlaceholderCache cache;
+
+    // Ranks of players that are not among the ranked players. They are kept as long as the rankings are not refreshed.
+    private final PlaceholderCache rankCache;
+
+    // Ranks (uuid, statistic) that are being looked up.
+    private final Set<List<Object>> runningRankLookups = ConcurrentHashMap.newKeySet();
+
+    private final Map<String, PlaceholderResolver> resolvers = new ConcurrentHashMap<>();
+
+    public StatzPlaceholders(Statz instance, PlaceholderRankings rankings) {
         this.plugin = instance;
+        this.rankings = rankings;
+        this.cache = new PlaceholderCache(instance.getConfigHandler().getPlaceholderCacheTime());
+        this.rankCache = new PlaceholderCache(TimeUnit.SECONDS.toMillis(instance.getConfigHandler()
+                .getPlaceholderRankingRefreshInterval()));
     }
 
     @Override
@@ -45,122 +80,325 @@ public class StatzPlaceholders extends PlaceholderExpansion {
 
     @Override
     public String onRequest(OfflinePlayer player, @NotNull String params) {
+        PlaceholderResolver resolver = resolvers.get(params);
 
-        // If data of player is not loaded, first load it.
-        if (!plugin.getDataManager().isPlayerLoaded(player.getUniqueId())) {
-            plugin.getDataManager().loadPlayerData(player.getUniqueId());
+        if (resolver == null) {
+            resolver = compile(params);
+
+            // Don't keep compiling placeholders forever if someone requests random placeholders.
+            if (resolvers.size() < MAXIMUM_COMPILED_PLACEHOLDERS) {
+                resolvers.put(params, resolver);
+            }
         }
 
+        return resolver.resolve(player);
+    }
+
+    @Override
+    public boolean persist() {
+        return true;
+    }
+
+    /**
+     * Parse a placeholder into a resolver.
+     *
+     * @param params Placeholder (without the 'statz_' prefix)
+     * @return a resolver of the placeholder. Placeholders that are not valid give a resolver that always returns null
+     * or an error message.
+     */
+    private PlaceholderResolver compile(String params) {
+        String lowerParams = params.toLowerCase(Locale.ROOT);
 
         // Regular placeholders
-        if (params.equalsIgnoreCase("joins")) {
-            return plugin.getStatzAPI().getSpecificData(PlayerStat.JOINS, player.getUniqueId()) + "";
-        } else if (params.equalsIgnoreCase("deaths")) {
-            return plugin.getStatzAPI().getSpecificData(PlayerStat.DEATHS, player.getUniqueId()) + "";
-        } else if (params.equalsIgnoreCase("blocks_broken")) {
-            return plugin.getStatzAPI().getSpecificData(PlayerStat.BLOCKS_BROKEN, player.getUniqueId()) + "";
-        } else if (params.equalsIgnoreCase("blocks_placed")) {
-            return plugin.getStatzAPI().getSpecificData(PlayerStat.BLOCKS_PLACED, player.getUniqueId()) + "";
-        } else if (params.equalsIgnoreCase("damage_taken")) {
-            return plugin.getStatzAPI().getSpecificData(PlayerStat.DAMAGE_TAKEN, player.getUniqueId()) + "";
-        } else if (params.equalsIgnoreCase("distance_travelled")) {
-            return plugin.getStatzAPI().getSpecificData(PlayerStat.DISTANCE_TRAVELLED, player.getUniqueId()) + "";
-        } else if (params.equalsIgnoreCase("food_eaten")) {
-            return plugin.getStatzAPI().getSpecificData(PlayerStat.FOOD_EATEN, player.getUniqueId()) + "";
-        } else if (params.equalsIgnoreCase("crafted_items")) {
-            return plugin.getStatzAPI().getSpecificData(PlayerStat.ITEMS_CRAFTED, player.getUniqueId()) + "";
-        } else if (params.equalsIgnoreCase("caught_items")) {
-            return plugin.getStatzAPI().getSpecificData(PlayerStat.ITEMS_CAUGHT, player.getUniqueId()) + "";
-        } else if (params.equalsIgnoreCase("players_killed")) {
-            return plugin.getStatzAPI().getSpecificData(PlayerStat.KILLS_PLAYERS, player.getUniqueId()) + "";
-        } else if (params.equalsIgnoreCase("time_played")) {
-            return plugin.getStatzAPI().getSpecificData(PlayerStat.TIME_PLAYED, player.getUniqueId()) + "";
-        } else if (params.equalsIgnoreCase("time_played_formatted")) {
-            return StatzUtil.timeToString((int) Math.round(plugin.getStatzAPI().getSpecificData(PlayerStat.TIME_PLAYED,
-                    player.getUniqueId())), StatzUtil.Time.MINUTES);
-        } else if (params.equalsIgnoreCase("times_shorn")) {
-            return plugin.getStatzAPI().getSpecificData(PlayerStat.TIMES_SHORN, player.getUniqueId()) + "";
-        } else if (params.equalsIgnoreCase("xp_gained")) {
-            return plugin.getStatzAPI().getSpecificData(PlayerStat.XP_GAINED, player.getUniqueId()) + "";
-        } else if (params.equalsIgnoreCase("mobs_killed")) {
-            return plugin.getStatzAPI().getSpecificData(PlayerStat.KILLS_MOBS, player.getUniqueId()) + "";
-        } else if (params.equalsIgnoreCase("villager_trades")) {
-            return plugin.getStatzAPI().getSpecificData(PlayerStat.VILLAGER_TRADES, player.getUniqueId()) + "";
-        } else if (params.equalsIgnoreCase("votes")) {
-            return plugin.getStatzAPI().getSpecificData(PlayerStat.VOTES, player.getUniqueId()) + "";
+        switch (lowerParams) {
+            case "joins":
+                return compileTotal(params, PlayerStat.JOINS);
+            case "deaths":
+                return compileTotal(params, PlayerStat.DEATHS);
+            case "blocks_broken":
+                return compileTotal(params, PlayerStat.BLOCKS_BROKEN);
+            case "blocks_placed":
+                return compileTotal(params, PlayerStat.BLOCKS_PLACED);
+            case "damage_taken":
+                return compileTotal(params, PlayerStat.DAMAGE_TAKEN);
+            case "distance_travelled":
+                return compileTotal(params, PlayerStat.DISTANCE_TRAVELLED);
+            case "food_eaten":
+                return compileTotal(params, PlayerStat.FOOD_EATEN);
+            case "crafted_items":
+                return compileTotal(params, PlayerStat.ITEMS_CRAFTED);
+            case "caught_items":
+                return compileTotal(params, PlayerStat.ITEMS_CAUGHT);
+            case "players_killed":
+                return compileTotal(params, PlayerStat.KILLS_PLAYERS);
+            case "time_played":
+                return compileTotal(params, PlayerStat.TIME_PLAYED);
+            case "time_played_formatted":
+                return compileTotal(params, PlayerStat.TIME_PLAYED, value -> StatzUtil.timeToString((int) Math.round
+                        (value), StatzUtil.Time.MINUTES));
+            case "times_shorn":
+                return compileTotal(params, PlayerStat.TIMES_SHORN);
+            case "xp_gained":
+                return compileTotal(params, PlayerStat.XP_GAINED);
+            case "mobs_killed":
+                return compileTotal(params, PlayerStat.KILLS_MOBS);
+            case "villager_trades":
+                return compileTotal(params, PlayerStat.VILLAGER_TRADES);
+            case "votes":
+                return compileTotal(params, PlayerStat.VOTES);
         }
 
         // More specific placeholders
-        else if (params.toLowerCase(Locale.ROOT).startsWith("mobs_killed_")) {
-            EntityType type;
+        if (lowerParams.startsWith("mobs_killed_")) {
             try {
-                type = EntityType.valueOf(params.replace("mobs_killed_", "").toUpperCase(Locale.ROOT));
-                return plugin.getStatzAPI().getSpecificData(PlayerStat.KILLS_MOBS, player.getUniqueId(),
-                        new RowRequirement("mob", type.toString())) + "";
+                EntityType type = EntityType.valueOf(params.substring("mobs_killed_".length()).toUpperCase(Locale
+                        .ROOT));
+                return compileTotal(params, PlayerStat.KILLS_MOBS, new RowRequirement("mob", type.toString()));
             } catch (Exception e) {
-                return "Unknown mob";
+                return player -> "Unknown mob";
             }
-        } else if (params.toLowerCase(Locale.ROOT).startsWith("blocks_broken_")) {
-            Material type;
+        } else if (lowerParams.startsWith("blocks_broken_")) {
             try {
-                type = Material.valueOf(params.replace("blocks_broken_", "").toUpperCase(Locale.ROOT));
-                return plugin.getStatzAPI().getSpecificData(PlayerStat.BLOCKS_BROKEN, player.getUniqueId(),
-                        new RowRequirement("block", type.toString())) + "";
+                Material type = Material.valueOf(params.substring("blocks_broken_".length()).toUpperCase(Locale
+                        .ROOT));
+                return compileTotal(params, PlayerStat.BLOCKS_BROKEN, new RowRequirement("block", type.toString()));
             } catch (Exception e) {
-                return "Unknown block";
+                return player -> "Unknown block";
             }
-        } else if (params.toLowerCase(Locale.ROOT).startsWith("blocks_placed_")) {
-            Material type;
+        } else if (lowerParams.startsWith("blocks_placed_")) {
             try {
-                type = Material.valueOf(params.replace("blocks_placed_", "").toUpperCase(Locale.ROOT));
-                return plugin.getStatzAPI().getSpecificData(PlayerStat.BLOCKS_PLACED, player.getUniqueId(),
-                        new RowRequirement("block", type.toString())) + "";
+                Material type = Material.valueOf(params.substring("blocks_placed_".length()).toUpperCase(Locale
+                        .ROOT));
+                return compileTotal(params, PlayerStat.BLOCKS_PLACED, new RowRequirement("block", type.toString()));
             } catch (Exception e) {
-                return "Unknown block";
+                return player -> "Unknown block";
             }
-        } else if (params.toLowerCase(Locale.ROOT).startsWith("food_eaten_")) {
-            Material type;
+        } else if (lowerParams.startsWith("food_eaten_")) {
             try {
-                type = Material.valueOf(params.replace("food_eaten_", "").toUpperCase(Locale.ROOT));
-                return plugin.getStatzAPI().getSpecificData(PlayerStat.FOOD_EATEN, player.getUniqueId(),
-                        new RowRequirement("foodEaten", type.toString())) + "";
+                Material type = Material.valueOf(params.substring("food_eaten_".length()).toUpperCase(Locale.ROOT));
+                return compileTotal(params, PlayerStat.FOOD_EATEN, new RowRequirement("foodEaten", type.toString()));
             } catch (Exception e) {
-                return "Unknown food";
+                return player -> "Unknown food";
             }
-        } else if (params.toLowerCase(Locale.ROOT).startsWith("villager_trades_")) {
-            Material type;
+        } else if (lowerParams.startsWith("villager_trades_")) {
             try {
-                type = Material.valueOf(params.replace("villager_trades_", "").toUpperCase(Locale.ROOT));
-                return plugin.getStatzAPI().getSpecificData(PlayerStat.VILLAGER_TRADES, player.getUniqueId(),
-                        new RowRequirement("item", type.toString())) + "";
+                Material type = Material.valueOf(params.substring("villager_trades_".length()).toUpperCase(Locale
+                        .ROOT));
+                return compileTotal(params, PlayerStat.VILLAGER_TRADES, new RowRequirement("item", type.toString()));
             } catch (Exception e) {
-                return "Unknown material";
+                return player -> "Unknown material";
             }
-        } else if (params.toLowerCase(Locale.ROOT).startsWith("distance_travelled_")) {
-            try {
-                return "" + (int) Math.round(plugin.getStatzAPI().getSpecificData(PlayerStat.DISTANCE_TRAVELLED,
-                        player.getUniqueId(),
-                        new RowRequirement("moveType",
-                                params.replace("distance_travelled_", "").toUpperCase(Locale.ROOT))));
-            } catch (Exception e) {
-                return "Unknown movementType";
+        } else if (lowerParams.startsWith("distance_travelled_")) {
+            String moveType = params.substring("distance_travelled_".length()).toUpperCase(Locale.ROOT);
+
+            return compileTotal(params, PlayerStat.DISTANCE_TRAVELLED, value -> "" + (int) Math.round(value), new
+                    RowRequirement("moveType", moveType));
+        } else if (lowerParams.startsWith("deaths_")) {
+            return compileTotal(params, PlayerStat.DEATHS, new RowRequirement("world", params.substring("deaths_"
+                    .length())));
+        }
+
+        // Ranking placeholders are read from a snapshot, so they rarely have to load data.
+        else if (lowerParams.startsWith("top_")) {
+            return compileTop(params.substring("top_".length()));
+        } else if (lowerParams.startsWith("rank_")) {
+            return compileRank(params.substring("rank_".length()));
+        }
+
+        // Return null as default because it does not seem to be a valid placeholder.
+        return player -> null;
+    }
+
+    private PlaceholderResolver compileTotal(String params, PlayerStat statType, RowRequirement... requirements) {
+        return compileTotal(params, statType, value -> value + "", requirements);
+    }
+
+    /**
+     * Create a resolver that shows the total of a statistic of a player.
+     *
+     * @param params       Placeholder (without the 'statz_' prefix), used to cache the result
+     * @param statType     Type of statistic
+     * @param format       Turns the total into the value of the placeholder
+     * @param requirements Requirements a row must meet to be counted
+     * @return a resolver that shows the (formatted) total, or {@link #LOADING} if the data of the player is not
+     * cached yet.
+     */
+    private PlaceholderResolver compileTotal(String params, PlayerStat statType, DoubleFunction<String> format,
+                                             RowRequirement... requirements) {
+        return player -> {
+            if (player == null) {
+                return null;
             }
-        } else if (params.toLowerCase(Locale.ROOT).startsWith("deaths_")) {
-            try {
-                return plugin.getStatzAPI().getSpecificData(PlayerStat.DEATHS, player.getUniqueId(),
-                        new RowRequirement("world", params.replace("deaths_", ""))) + "";
-            } catch (Exception e) {
-                return "Unknown world";
+
+            UUID uuid = player.getUniqueId();
+            long now = System.currentTimeMillis();
+
+            String result = cache.get(uuid, params, now);
+
+            if (result != null) {
+                return result;
+            }
+
+            PlayerInfo info = plugin.getDataManager().isPlayerLoaded(uuid, statType) ? plugin.getCachingManager()
+                    .getCachedPlayerData(uuid) : null;
+
+            if (info == null) {
+                // Load all data at once, as other placeholders of this player will probably need it as well.
+                plugin.getPlayerDataLoader().loadPlayerData(uuid);
+                return LOADING;
             }
+
+            result = format.apply(info.getTotalValue(statType, requirements));
+
+            cache.put(uuid, params, result, now);
+
+            return result;
+        };
+    }
+
+    /**
+     * Create a resolver for a placeholder of the form top_&lt;stat&gt;_&lt;n&gt;_name or top_&lt;stat&gt;_&lt;n&gt;_value.
+     *
+     * @param params Placeholder without the 'top_' prefix
+     * @return a resolver that shows the name or value of the player at position n, or "-" if there is no player at
+     * that position (yet).
+     */
+    private PlaceholderResolver compileTop(String params) {
+        String[] parts = params.split("_");
+
+        if (parts.length < 3) {
+            return player -> null;
         }
 
+        String property = parts[parts.length - 1].toLowerCase(Locale.ROOT);
 
-        // Return null as default because it does not seem to be a valid placeholder.
-        return null;
+        if (!property.equals("name") && !property.equals("value")) {
+            return player -> null;
+        }
+
+        int position;
+
+        try {
+            position = Integer.parseInt(parts[parts.length - 2]);
+        } catch (NumberFormatException e) {
+            return player -> "Unknown position";
+        }
+
+        if (position < 1 || position > rankings.getRankingSize()) {
+            return player -> "Unknown position";
+        }
+
+        PlayerStat statType = getRankedStat(String.join("_", Arrays.copyOf(parts, parts.length - 2)));
+
+        if (statType == null) {
+            return player -> "Unknown statistic";
+        }
+
+        boolean showValue = property.equals("value");
+
+        return player -> {
+            RankingSnapshot snapshot = rankings.getSnapshot(statType);
+
+            LeaderboardEntry entry = snapshot == null ? null : snapshot.getEntry(position);
+
+            if (entry == null) {
+                return "-";
+            }
+
+            if (showValue) {
+                return entry.getValue() + "";
+            }
+
+            String name = snapshot.getName(position);
+
+            return name == null ? entry.getUUID().toString() : name;
+        };
     }
 
-    @Override
-    public boolean persist() {
-        return true;
+    /**
+     * Create a resolver for a placeholder of the form rank_&lt;stat&gt;. The rank of a player that is not among the
+     * ranked players is looked up in the background (see {@link #lookUpRank(UUID, PlayerStat)}).
+     *
+     * @param params Placeholder without the 'rank_' prefix
+     * @return a resolver that shows the rank of the player, "-" if the player does not have data of the statistic, or
+     * {@link #LOADING} while the rank is looked up for the first time.
+     */
+    private PlaceholderResolver compileRank(String params) {
+        PlayerStat statType = getRankedStat(params);
+
+        if (statType == null) {
+            return player -> "Unknown statistic";
+        }
+
+        return player -> {
+            if (player == null) {
+                return null;
+            }
+
+            UUID uuid = player.getUniqueId();
+
+            RankingSnapshot snapshot = rankings.getSnapshot(statType);
+
+            LeaderboardEntry entry = snapshot == null ? null : snapshot.getEntry(uuid);
+
+            if (entry != null) {
+                return entry.getRank() + "";
+            }
+
+            String result = rankCache.get(uuid, statType.toString(), System.currentTimeMillis());
+
+            if (result != null) {
+                return result;
+            }
+
+            lookUpRank(uuid, statType);
+
+            // Show the old rank until the new rank has been looked up.
+            result = rankCache.getLatest(uuid, statType.toString());
+
+            return result == null ? LOADING : result;
+        };
+    }
+
+    /**
+     * Look up the rank of a player in the background and store it in the rank cache. If the rank of the player is
+     * already being looked up, no new lookup is started.
+     *
+     * @param uuid     UUID of the player
+     * @param statType Type of statistic
+     */
+    private void lookUpRank(UUID uuid, PlayerStat statType) {
+        List<Object> key = Arrays.asList(uuid, statType);
+
+        if (!runningRankLookups.add(key)) {
+            return;
+        }
+
+        plugin.getLeaderboardManager().getRank(statType, uuid, null).whenComplete((entry, throwable) -> {
+            if (throwable == null) {
+                rankCache.put(uuid, statType.toString(), entry == null ? "-" : entry.getRank() + "", System
+                        .currentTimeMillis());
+            }
+
+            runningRankLookups.remove(key);
+        });
+    }
+
+    /**
+     * Get the statistic of a ranking placeholder.
+     *
+     * @param statName Name of the table of the statistic, e.g. 'kills_players'
+     * @return the statistic or null if there is no statistic with that name that can be ranked.
+     */
+    private PlayerStat getRankedStat(String statName) {
+        PlayerStat statType;
+
+        try {
+            statType = PlayerStat.valueOf(statName.toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+
+        return PlaceholderRankings.canRank(statType) ? statType : null;
     }
 }
@@ -0,0 +1,227 @@
+package me.staartvin.statz.tasks;
+
+import me.staartvin.statz.Statz;
+import me.staartvin.statz.datamanager.player.PlayerInfo;
+import me.staartvin.statz.datamanager.player.PlayerStat;
+import me.staartvin.statz.update.FlushEpochs;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * This task grabs the data of players from the database and overwrites their cache so that the cache is up-to-date.
+ * <br>
+ * <br>
+ * Instead of running a task for every player, this task runs every second and refreshes a part of the registered
+ * players, so that every player is refreshed once per refresh interval (see
+ * {@link TaskManager#UPDATE_PLAYER_CACHE_INTERVAL}). The data of all players in a batch is retrieved with one
+ * query per statistic. Players whose cache was validated recently (e.g. because their data was just loaded) are
+ * skipped. Newly registered players are refreshed first.
+ * <br>
+ * <br>
+ * The data of the database is combined with the updates that have not been written to the database yet. If a
+ * statistic was written to the database while it was read, the player is refreshed again in the next run.
+ */
+public class RefreshPlayerCacheTask implements Runnable {
+
+    private Statz plugin;
+
+    // Players whose cache should be refreshed periodically. Each registration gets a unique token, so we can
+    // recognize entries of players that unregistered (and maybe registered again) in the refresh order.
+    private final Map<UUID, Object> registeredPlayers = new ConcurrentHashMap<>();
+
+    // Order in which players will be refreshed.
+    private final Queue<Registration> refreshOrder = new ConcurrentLinkedQueue<>();
+
+    // Players that were registered since the last run. They are refreshed in the next run.
+    private final Queue<Registration> newPlayers = new ConcurrentLinkedQueue<>();
+
+    // Players whose data could not be (completely) refreshed in the last run or whose cache missed an update. They
+    // are refreshed in the next run.
+    private final Queue<UUID> retryPlayers = new ConcurrentLinkedQueue<>();
+
+    // Prevent two runs of this task from running at the same time.
+    private final AtomicBoolean isRunning = new AtomicBoolean(false);
+
+    public RefreshPlayerCacheTask(Statz instance) {
+        this.plugin = instance;
+    }
+
+    /**
+     * Start refreshing the cache of a player periodically. The cache of the player will be refreshed the next time
+     * this task runs.
+     *
+     * @param uuid UUID of the player
+     */
+    public void registerPlayer(UUID uuid) {
+        Object token = new Object();
+
+        if (registeredPlayers.putIfAbsent(uuid, token) == null) {
+            newPlayers.add(new Registration(uuid, token));
+        }
+    }
+
+    /**
+     * Stop refreshing the cache of a player.
+     *
+     * @param uuid UUID of the player
+     */
+    public void unregisterPlayer(UUID uuid) {
+        // The player is removed from the refresh order the next time we encounter them.
+        registeredPlayers.remove(uuid);
+    }
+
+    /**
+     * Refresh the cache of a registered player the next time this task runs, e.g. because an update could not be
+     * applied to their cache. Players that are not registered are ignored.
+     *
+     * @param uuid UUID of the player
+     */
+    public void refreshPlayer(UUID uuid) {
+        if (registeredPlayers.containsKey(uuid)) {
+            retryPlayers.add(uuid);
+        }
+    }
+
+    /**
+     * Check whether the cache of a player is refreshed periodically.
+     *
+     * @param uuid UUID of the player
+     * @return true if the player is registered, false otherwise.
+     */
+    public boolean isRegistered(UUID uuid) {
+        return registeredPlayers.containsKey(uuid);
+    }
+
+    @Override
+    public void run() {
+
+        if (!isRunning.compareAndSet(false, true)) {
+            // Skip call, as we are still busy.
+            return;
+        }
+
+        try {
+            List<UUID> batch = this.getNextBatch();
+
+            if (batch.isEmpty()) {
+                return;
+            }
+
+            List<PlayerStat> statTypes = new ArrayList<>(Arrays.asList(PlayerStat.values()));
+
+            // The players table is not refreshed.
+            statTypes.remove(PlayerStat.PLAYERS);
+
+            // Remember which flushes happened before we read the database.
+            FlushEpochs epochs = plugin.getUpdatePoolManager().getFlushEpochs();
+
+            Map<UUID, PlayerInfo> databaseInfo = plugin.getDataManager().getFreshPlayerInfo(batch, statTypes);
+
+            for (Map.Entry<UUID, PlayerInfo> entry : databaseInfo.entrySet()) {
+                // Player might have left while we were reading the database.
+                if (!registeredPlayers.containsKey(entry.getKey())) {
+                    continue;
+                }
+
+                // Store into cache, together with the updates that have not reached the database yet.
+                Set<PlayerStat> unstableStatistics = plugin.getCachingManager().registerDatabaseData(entry.getKey(),
+                        entry.getValue(), epochs);
+
+                // The database was updated while we were reading it, so try again next time.
+                if (!unstableStatistics.isEmpty()) {
+                    retryPlayers.add(entry.getKey());
+                }
+            }
+
+            plugin.debugMessage("Refreshed cache of " + databaseInfo.size() + " players.");
+        } finally {
+            isRunning.set(false);
+        }
+    }
+
+    /**
+     * Get the players whose cache should be refreshed in this run.
+     *
+     * @return a list of players to refresh.
+     */
+    private List<UUID> getNextBatch() {
+        List<UUID> batch = new ArrayList<>();
+
+        int interval = Math.max(1, TaskManager.UPDATE_PLAYER_CACHE_INTERVAL);
+
+        // Refresh all new players, so their data is available as soon as possible.
+        Registration registration;
+
+        while ((registration = newPlayers.poll()) != null) {
+            if (!registration.isValid()) {
+                continue;
+            }
+
+            refreshOrder.add(registration);
+            batch.add(registration.uuid);
+        }
+
+        UUID uuid;
+
+        while ((uuid = retryPlayers.poll()) != null) {
+            if (registeredPlayers.containsKey(uuid) && !batch.contains(uuid)) {
+                batch.add(uuid);
+            }
+        }
+
+        // Spread the other players evenly over the refresh interval (this task runs every second).
+        int batchSize = (int) Math.ceil(refreshOrder.size() / (double) interval);
+
+        long now = System.currentTimeMillis();
+
+        for (int i = 0; i < batchSize; i++) {
+            registration = refreshOrder.poll();
+
+            if (registration == null) {
+                break;
+            }
+
+            // Player is not registered anymore, so forget about them.
+            if (!registration.isValid()) {
+                continue;
+            }
+
+            refreshOrder.add(registration);
+
+            // Skip players that have been validated recently.
+            if (batch.contains(registration.uuid) || now - plugin.getCachingManager().getLastValidationTime
+                    (registration.uuid) < interval * 1000L / 2) {
+                continue;
+            }
+
+            batch.add(registration.uuid);
+        }
+
+        return batch;
+    }
+
+    /**
+     * A registration of a player in this task.
+     */
+    private class Registration {
+        private final UUID uuid;
+        private final Object token;
+
+        private Registration(UUID uuid, Object token) {
+            this.uuid = uuid;
+            this.token = token;
+        }
+
+        /**
+         * Check whether this registration is still valid, i.e. the player has not been unregistered since.
+         *
+         * @return true if the player is still registered with this registration.
+         */
+        private boolean isValid() {
+            return registeredPlayers.get(uuid) == token;
+        }
+    }
+}
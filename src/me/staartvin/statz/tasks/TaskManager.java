@@ -1,10 +1,9 @@
 package me.staartvin.statz.tasks;
 
 import me.staartvin.statz.Statz;
-import org.bukkit.scheduler.BukkitTask;
+import me.staartvin.statz.placeholders.PlaceholderRankings;
+import org.bukkit.entity.Player;
 
-import java.util.HashMap;
-import java.util.Map;
 import java.util.UUID;
 
 /**
@@ -16,47 +15,64 @@ public class TaskManager {
     private Statz plugin;
 
     /**
-     * How often should the database be updated with queries from the pool (in seconds)?
+     * How often should the database be updated with queries from the pool (in seconds)? This is the interval of
+     * statistics with a normal flush priority.
      */
     public static int UPDATE_DATABASE_TASK_INTERVAL = 10;
+    /**
+     * How often should the pools be checked to see whether they need to be sent to the database (in seconds)?
+     */
+    public static final int FLUSH_CHECK_INTERVAL = 1;
     /**
      * How often should the cache of a player be validated with the database (in seconds)?
      */
     public static int UPDATE_PLAYER_CACHE_INTERVAL = 60;
-    // Store the task id of the 'update player cache' task for each player.
-    private Map<UUID, Integer> cacheUpdateTask = new HashMap<>();
+    /**
+     * How often should the distance travelled by players be sent to the pool (in seconds)?
+     */
+    public static int MOVEMENT_SAMPLE_INTERVAL = 5;
+    // Task that periodically refreshes the cache of online players.
+    private final RefreshPlayerCacheTask refreshPlayerCacheTask;
 
     public TaskManager(Statz instance) {
         this.plugin = instance;
         UPDATE_DATABASE_TASK_INTERVAL = instance.getConfigHandler().getPeriodicSaveTime();
         UPDATE_PLAYER_CACHE_INTERVAL = instance.getConfigHandler().getPeriodiceRefreshPlayerCacheTime();
+        MOVEMENT_SAMPLE_INTERVAL = instance.getConfigHandler().getMovementSampleTime();
+
+        this.refreshPlayerCacheTask = new RefreshPlayerCacheTask(instance);
     }
 
     /**
-     * Start an update task that periodically updates the cache of a player
+     * Start periodically updating the cache of a player. The cache of the player is updated as soon as possible.
      *
      * @param uuid UUID of the player to start the task for.
      */
     public void startUpdatePlayerCacheTask(UUID uuid) {
-        BukkitTask task = new UpdatePlayerCacheTask(plugin, uuid).runTaskTimerAsynchronously(plugin, 0, 20 *
-                UPDATE_PLAYER_CACHE_INTERVAL);
-
-        cacheUpdateTask.put(uuid, task.getTaskId());
-
+        refreshPlayerCacheTask.registerPlayer(uuid);
     }
 
     /**
-     * Check if a player has a running task that is updating their cache periodically
+     * Check if the cache of a player is being updated periodically
      *
      * @param uuid UUID of the player
-     * @return true if there is a updating task running, false otherwise.
+     * @return true if the cache of the player is updated periodically, false otherwise.
      */
     public boolean hasRunningCacheUpdateTask(UUID uuid) {
-        return cacheUpdateTask.containsKey(uuid) && cacheUpdateTask.get(uuid) != null;
+        return refreshPlayerCacheTask.isRegistered(uuid);
     }
 
     /**
-     * Stop the task that periodically updates the cache of a player.
+     * Refresh the cache of a player as soon as possible, if it is being updated periodically.
+     *
+     * @param uuid UUID of the player
+     */
+    public void refreshPlayerCache(UUID uuid) {
+        refreshPlayerCacheTask.refreshPlayer(uuid);
+    }
+
+    /**
+     * Stop periodically updating the cache of a player.
      *
      * @param uuid UUID of the player.
      */
@@ -65,22 +81,52 @@ public class TaskManager {
             return;
         }
 
-        int taskID = cacheUpdateTask.get(uuid);
-
         plugin.debugMessage("Stopped update task of " + uuid);
 
-        // Stop task
-        plugin.getServer().getScheduler().cancelTask(taskID);
+        refreshPlayerCacheTask.unregisterPlayer(uuid);
+    }
+
+    /**
+     * Starts the task that periodically updates the cache of all registered players. Players that are already
+     * online are registered as well.
+     */
+    public void startRefreshPlayerCacheTask() {
+        for (Player player : plugin.getServer().getOnlinePlayers()) {
+            plugin.getCachingManager().pinPlayer(player.getUniqueId());
+
+            this.startUpdatePlayerCacheTask(player.getUniqueId());
+        }
 
-        // Remove task id from hashmap.
-        cacheUpdateTask.remove(uuid);
+        plugin.getServer().getScheduler().runTaskTimerAsynchronously(plugin, refreshPlayerCacheTask, 20, 20);
     }
 
     /**
-     * Starts the task that periodically updates the database with queries from the pools.
+     * Starts the task that updates the database with queries from the pools. The task checks the pools often, but
+     * only writes them when the {@link me.staartvin.statz.update.FlushScheduler} decides they should be written.
      */
     public void startUpdateDatabaseTask() {
         plugin.getServer().getScheduler().runTaskTimerAsynchronously(plugin, new UpdateDatabaseTask(plugin),
-                0, 20 * UPDATE_DATABASE_TASK_INTERVAL);
+                0, 20 * FLUSH_CHECK_INTERVAL);
+    }
+
+    /**
+     * Starts the task that periodically refreshes the rankings that are shown by the placeholders.
+     *
+     * @param rankings Rankings to refresh
+     */
+    public void startPlaceholderRankingsTask(PlaceholderRankings rankings) {
+        int interval = Math.max(1, plugin.getConfigHandler().getPlaceholderRankingRefreshInterval());
+
+        plugin.getServer().getScheduler().runTaskTimerAsynchronously(plugin, rankings, 20 * interval, 20 *
+                interval);
+    }
+
+    /**
+     * Starts the task that periodically sends the distance travelled by players to the pools.
+     */
+    public void startMovementSampleTask() {
+        plugin.getServer().getScheduler().runTaskTimerAsynchronously(plugin,
+                () -> plugin.getMovementTracker().flushAll(), 20 * MOVEMENT_SAMPLE_INTERVAL,
+                20 * MOVEMENT_SAMPLE_INTERVAL);
     }
 }
@@ -1,23 +1,47 @@
 package me.staartvin.statz.tasks;
 
 import me.staartvin.statz.Statz;
+import me.staartvin.statz.api.events.UpdateDataEvent;
+import me.staartvin.statz.cache.CacheApplier;
+import me.staartvin.statz.cache.CachingManager;
 import me.staartvin.statz.database.DatabaseConnector;
 import me.staartvin.statz.database.datatype.Query;
+import me.staartvin.statz.database.datatype.Table;
 import me.staartvin.statz.datamanager.player.PlayerStat;
+import me.staartvin.statz.update.FlushScheduler;
 import me.staartvin.statz.update.UpdatePoolManager;
 
-import java.util.ArrayList;
-import java.util.Iterator;
-import java.util.List;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.logging.Level;
 
 /**
- * This task runs regularly and updates the database with the queries that are in the pool. Before the queries are
- * actually send to the database, they are compressed.
+ * This task runs every second and updates the database with the queries that are in the pool, whenever the
+ * {@link FlushScheduler} decides that (some of) the pools should be written. Before the queries are
+ * actually send to the database, they are compressed. The pools are swapped out atomically, so updates that are
+ * registered while the task runs stay in the pool for the next run. Updates of tables that could not be written are
+ * put back in the pool. The tables of all statistics are handed to the database connector at once, so it can write
+ * independent tables at the same time.
+ * <br>
+ * <br>
+ * After every sync, an {@link UpdateDataEvent} is fired with the updates that were written, so other plugins do not
+ * have to poll the API for changes. The same updates are added to the leaderboards of the
+ * {@link me.staartvin.statz.leaderboard.LeaderboardManager}.
+ * <br>
+ * <br>
+ * When the database is unavailable, the task waits longer and longer before trying again (see
+ * {@link me.staartvin.statz.update.FlushBackoff}) and spills the pools to disk when they grow too large.
  */
 public class UpdateDatabaseTask implements Runnable {
 
+    // Time (in milliseconds) a final sync that did not finish in time gets to stop after it was cancelled.
+    private static final long CANCEL_GRACE_PERIOD = 2000;
+
     private Statz plugin;
 
+    // Set when the final sync did not finish in time. Tables that have not been written yet are skipped.
+    private volatile boolean cancelled = false;
+
     public UpdateDatabaseTask(Statz instance) {
         this.plugin = instance;
     }
@@ -25,72 +49,361 @@ public class UpdateDatabaseTask implements Runnable {
     @Override
     public void run() {
 
-        if (UpdatePoolManager.isForcingPool) {
+        UpdatePoolManager updatePoolManager = plugin.getUpdatePoolManager();
+        FlushScheduler flushScheduler = updatePoolManager.getFlushScheduler();
+
+        long now = System.currentTimeMillis();
+
+        Set<PlayerStat> dueStats = flushScheduler.getDueStats(updatePoolManager.getPoolSizes(), now);
+
+        // Nothing needs to be written yet. Updates that were spilled to disk are retried every interval.
+        if (dueStats.isEmpty() && !(flushScheduler.isIntervalElapsed(now) && updatePoolManager.getSpillStore()
+                .getBatchCount() > 0)) {
+            return;
+        }
+
+        // Make sure we can't accidentally run two sync tasks at the same time.
+        if (!updatePoolManager.tryStartFlush()) {
             // Skip call, as we are still busy.
             plugin.debugMessage("Skip database sync as there is still one running.");
             return;
         }
 
-        plugin.debugMessage("Sending local data to database...");
+        try {
+            // The database was unavailable recently, so don't try again yet.
+            if (updatePoolManager.getFlushBackoff().isWaiting(System.currentTimeMillis())) {
+                plugin.debugMessage("Skip database sync as the database was unavailable.");
+
+                // Make sure the pools do not grow too large in the meantime.
+                if (updatePoolManager.isAboveHighWaterMark()) {
+                    spillUpdates();
+                }
+
+                return;
+            }
 
-        // Set lock so we can't accidentally run two sync tasks at the same time.
-        UpdatePoolManager.isForcingPool = true;
+            plugin.debugMessage("Sending local data of " + dueStats.size() + " statistics to database...");
 
-        for (PlayerStat statType : PlayerStat.values()) {
-            // Grab updates that have happened since the last sync.
-            List<Query> updates = plugin.getUpdatePoolManager().getUpdateQueriesCopy(statType);
+            long start = System.currentTimeMillis();
 
-            if (updates.isEmpty()) {
-                continue;
+            // More statistics than the due ones may be drained (e.g. when the journal is enabled).
+            Set<PlayerStat> drainedStats = EnumSet.noneOf(PlayerStat.class);
+
+            int writtenRows = sync(dueStats, false, drainedStats);
+
+            // A failed flush is handled by the backoff, so it does not count as a flush of the drained statistics.
+            if (writtenRows < 0) {
+                return;
+            }
+
+            flushScheduler.onFlushCompleted(drainedStats, start, System.currentTimeMillis());
+        } finally {
+            // Release lock
+            updatePoolManager.finishFlush();
+        }
+
+        plugin.debugMessage("Successfully updated database with local data.");
+
+        CacheApplier cacheApplier = plugin.getCacheApplier();
+
+        if (cacheApplier != null) {
+            plugin.debugMessage(String.format("Cache updates: %d queued, %d applied, %d dropped, %.2f ms average " +
+                            "latency.", cacheApplier.getQueueDepth(), cacheApplier.getAppliedUpdates(),
+                    cacheApplier.getDroppedUpdates(), cacheApplier.getAverageApplyLatency()));
+        }
+
+        CachingManager cachingManager = plugin.getCachingManager();
+
+        plugin.debugMessage(String.format("Cache: %d hits, %d misses, %d evictions, %d offline players cached (%d " +
+                        "rows).", cachingManager.getCacheHits(), cachingManager.getCacheMisses(),
+                cachingManager.getEvictions(), cachingManager.getCachedOfflinePlayerCount(),
+                cachingManager.getCachedOfflinePlayerRows()));
+
+        plugin.getLogsManager().writeToLogFile("Updated database with local data.");
+    }
+
+    /**
+     * Write all updates to the database for the last time, e.g. when Statz is disabled. Unlike {@link #run()}, this
+     * waits for a sync that is still running instead of skipping.
+     *
+     * <br>
+     * When the final sync does not finish in time, it is cancelled: tables that have not been written yet are put
+     * back into the pools and spilled to disk, so nothing is still writing when Statz closes the journal and the
+     * database connection.
+     *
+     * @param timeout Maximum time (in milliseconds) to wait for the running sync and the final sync
+     * @return the number of rows that were written to the database, or -1 if not all updates could be written in
+     * time.
+     */
+    public int runFinalSync(long timeout) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+
+        UpdatePoolManager updatePoolManager = plugin.getUpdatePoolManager();
+
+        try {
+            if (!updatePoolManager.tryStartFlush(timeout)) {
+                plugin.getLogger().warning("The running database sync did not finish in time.");
+                return -1;
             }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return -1;
+        }
 
-            // Store queries that have already been converted
-            List<Query> convertedQueries = new ArrayList<>();
+        // Run the sync on a separate thread, so we can stop waiting for it when it takes too long.
+        ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "Statz Final Sync");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        Future<Integer> result = executor.submit(() -> {
+            try {
+                return sync(EnumSet.allOf(PlayerStat.class), true, EnumSet.noneOf(PlayerStat.class));
+            } finally {
+                updatePoolManager.finishFlush();
+            }
+        });
+
+        executor.shutdown();
+
+        Integer writtenRows = waitForSync(result, deadline - System.nanoTime());
+
+        if (result.isDone()) {
+            return writtenRows == null ? -1 : writtenRows;
+        }
 
-            // Queries that should be send to the database
-            List<Query> resultingQueries = new ArrayList<>();
+        plugin.getLogger().warning("The final database sync did not finish in time.");
 
-            // Loop over all queries and remove duplicate queries.
-            for (Iterator<Query> iterator = updates.iterator(); iterator.hasNext(); ) {
+        // Stop the sync before the journal and the database connection are closed underneath it.
+        cancelled = true;
+
+        writtenRows = waitForSync(result, TimeUnit.MILLISECONDS.toNanos(CANCEL_GRACE_PERIOD));
+
+        if (!result.isDone()) {
+            plugin.getLogger().severe("The final database sync could not be stopped. Updates that it writes may " +
+                    "be written again after a restart.");
+            return -1;
+        }
+
+        return writtenRows == null ? -1 : writtenRows;
+    }
+
+    /**
+     * Wait for the final sync to finish. Waiting cannot be interrupted, as the sync must be stopped before Statz
+     * closes its resources. If the thread is interrupted while waiting, its interrupt flag is restored afterwards.
+     *
+     * @param result  Result of the final sync
+     * @param timeout Maximum time (in nanoseconds) to wait
+     * @return the number of rows that were written, or null if the sync failed or did not finish in time.
+     */
+    private Integer waitForSync(Future<Integer> result, long timeout) {
+        long deadline = System.nanoTime() + timeout;
+        boolean interrupted = false;
+
+        try {
+            while (true) {
+                try {
+                    return result.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+        } catch (TimeoutException e) {
+            return null;
+        } catch (ExecutionException e) {
+            plugin.getLogger().log(Level.SEVERE, "Could not update database with local data:", e.getCause());
+            return null;
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
 
-                // Get a query.
-                Query query = iterator.next();
+    /**
+     * Drain the pools of the given statistics and write them to the database. Updates that were spilled to disk are
+     * written first. The caller should hold the lock of the pools (see {@link UpdatePoolManager#tryStartFlush()}).
+     *
+     * @param statTypes Statistics to write
+     * @param finalSync Whether this is the last sync before Statz is disabled. If so, updates that could not be
+     *                  written are spilled to disk.
+     * @param drainedStats Set to which the statistics whose pools were drained are added
+     * @return the number of rows that were written, or -1 if some tables could not be written.
+     */
+    private int sync(Set<PlayerStat> statTypes, boolean finalSync, Set<PlayerStat> drainedStats) {
+        UpdatePoolManager updatePoolManager = plugin.getUpdatePoolManager();
 
-                // If we've already converted it, skip it.
-                if (convertedQueries.contains(query)) {
+        // Send updates that were spilled to disk first, so updates are written in the order they happened.
+        int writtenRows = updatePoolManager.getSpillStore().replay(plugin.getDatabaseConnector());
+
+        if (writtenRows < 0) {
+            handleFailure(finalSync);
+            return -1;
+        }
+
+        if (writtenRows > 0) {
+            plugin.getLogger().info("Wrote " + writtenRows + " spilled updates to the database.");
+
+            // Spilled updates are not passed to the leaderboards, so they have to be read again.
+            plugin.getLeaderboardManager().invalidate();
+        }
+
+        Set<Table> failedTables = null;
+
+        // Grab updates that have happened since the last sync. Updates that are registered while we are sending
+        // these to the database will stay in the pool until the next sync.
+        Map<PlayerStat, List<Query>> pools = updatePoolManager.drainUpdateQueries(statTypes);
+
+        drainedStats.addAll(pools.keySet());
+
+        Map<Table, List<Query>> batches = new LinkedHashMap<>();
+
+        try {
+            for (Map.Entry<PlayerStat, List<Query>> pool : pools.entrySet()) {
+                // Let the cache know that the database data of this statistic is changing.
+                updatePoolManager.markFlushStarted(pool.getKey());
+
+                if (pool.getValue().isEmpty()) {
                     continue;
                 }
 
-                // Remove the current query so it doesn't conflict with itself.
-                iterator.remove();
+                // Merge all queries that conflict with each other.
+                batches.put(DatabaseConnector.getTable(pool.getKey()), Query.compress(pool.getValue()));
+            }
 
-                // Find queries that conflict with the current query
-                List<Query> conflictingQueries = query.findConflicts(updates);
+            // Update database with new data. Tables may be written at the same time, except during the final sync,
+            // which should be able to stop between tables.
+            failedTables = finalSync ? writeTables(batches) : plugin.getDatabaseConnector().setBatchObjects(batches,
+                    DatabaseConnector.SET_OPERATION.ADD);
+        } finally {
+            for (PlayerStat statType : pools.keySet()) {
+                // Put updates that were not written back in the pool, so they are written during the next sync.
+                if (failedTables == null || failedTables.contains(DatabaseConnector.getTable(statType))) {
+                    updatePoolManager.markFlushFailed(statType);
+                } else {
+                    updatePoolManager.markFlushCompleted(statType);
+                }
+            }
+        }
+
+        Map<PlayerStat, List<Query>> writtenUpdates = getWrittenUpdates(pools.keySet(), batches, failedTables);
+
+        // Keep the leaderboards up to date while no other sync can write to the database.
+        plugin.getLeaderboardManager().applyWrittenUpdates(writtenUpdates);
+
+        // Let other plugins know what has changed, unless Statz is being disabled.
+        if (!finalSync && !writtenUpdates.isEmpty() && UpdateDataEvent.hasListeners()) {
+            plugin.getServer().getScheduler().runTaskAsynchronously(plugin, () -> plugin.getServer()
+                    .getPluginManager().callEvent(new UpdateDataEvent(writtenUpdates, plugin)));
+        }
 
-                // Add queries that were conflicting to converted queries, so we don't count them again.
-                convertedQueries.addAll(conflictingQueries);
+        if (!failedTables.isEmpty()) {
+            plugin.getLogger().warning("Could not update " + failedTables.size() + " tables in the database. The " +
+                    "updates will be sent again during the next sync.");
 
-                // Calculate sum of all conflicting queries.
-                Query sumQuery = query.resolveConflicts(conflictingQueries);
+            Map<PlayerStat, List<Query>> restoredUpdates = new EnumMap<>(PlayerStat.class);
 
-                // Store the final query
-                resultingQueries.add(sumQuery);
+            for (Map.Entry<PlayerStat, List<Query>> pool : pools.entrySet()) {
+                if (failedTables.contains(DatabaseConnector.getTable(pool.getKey()))) {
+                    restoredUpdates.put(pool.getKey(), pool.getValue());
+                }
             }
 
-            // Update database with new data.
-            plugin.getDatabaseConnector().setBatchObjects(DatabaseConnector.getTable(statType),
-                    resultingQueries, DatabaseConnector.SET_OPERATION.ADD);
+            // Only the updates that were put back in the pool still need to be recovered after a crash.
+            updatePoolManager.truncateJournal(restoredUpdates);
 
-            plugin.getUpdatePoolManager().clearUpdateQueries(statType);
+            handleFailure(finalSync);
+            return -1;
         }
 
-        // Release lock
-        UpdatePoolManager.isForcingPool = false;
+        updatePoolManager.getFlushBackoff().onSuccess();
 
-        plugin.debugMessage("Successfully updated database with local data.");
+        // All updates are in the database, so we don't need to recover them after a crash.
+        updatePoolManager.truncateJournal();
 
-        plugin.getLogsManager().writeToLogFile("Updated database with local data.");
+        for (List<Query> batch : batches.values()) {
+            writtenRows += batch.size();
+        }
+
+        return writtenRows;
+    }
 
+    /**
+     * Write the given batches to the database one table at a time. Once the sync is cancelled, the tables that have
+     * not been written yet are skipped.
+     *
+     * @param batches Updates to write, per table
+     * @return the tables that were not written.
+     */
+    private Set<Table> writeTables(Map<Table, List<Query>> batches) {
+        Set<Table> failedTables = new HashSet<>();
+
+        for (Map.Entry<Table, List<Query>> batch : batches.entrySet()) {
+            if (cancelled || !plugin.getDatabaseConnector().setBatchObjects(batch.getKey(), batch.getValue(),
+                    DatabaseConnector.SET_OPERATION.ADD)) {
+                failedTables.add(batch.getKey());
+            }
+        }
+
+        return failedTables;
+    }
+
+    /**
+     * Get the updates that were written to the database, leaving out the tables that could not be written.
+     *
+     * @param statTypes    Statistics that were drained
+     * @param batches      Updates that were sent to the database, per table
+     * @param failedTables Tables that could not be written
+     * @return the updates that were written, per statistic.
+     */
+    private Map<PlayerStat, List<Query>> getWrittenUpdates(Set<PlayerStat> statTypes, Map<Table, List<Query>>
+            batches, Set<Table> failedTables) {
+        Map<PlayerStat, List<Query>> writtenUpdates = new EnumMap<>(PlayerStat.class);
+
+        for (PlayerStat statType : statTypes) {
+            Table table = DatabaseConnector.getTable(statType);
+
+            if (!batches.containsKey(table) || failedTables.contains(table)) {
+                continue;
+            }
+
+            writtenUpdates.put(statType, batches.get(table));
+        }
+
+        return writtenUpdates;
+    }
+
+    /**
+     * Wait a while before trying to reach the database again and spill the pools to disk if they grow too large.
+     *
+     * @param finalSync Whether this is the last sync before Statz is disabled. If so, the pools are always spilled.
+     */
+    private void handleFailure(boolean finalSync) {
+        UpdatePoolManager updatePoolManager = plugin.getUpdatePoolManager();
+
+        long delay = updatePoolManager.getFlushBackoff().onFailure(System.currentTimeMillis());
+
+        if (finalSync || updatePoolManager.isAboveHighWaterMark()) {
+            spillUpdates();
+        }
+
+        if (!finalSync) {
+            plugin.getLogger().warning("Could not reach the database. Trying again in " + TimeUnit.MILLISECONDS
+                    .toSeconds(delay) + " seconds.");
+        }
+    }
+
+    /**
+     * Move the updates in the pools to disk, so they are not lost and do not take up memory.
+     */
+    private void spillUpdates() {
+        int spilledUpdates = plugin.getUpdatePoolManager().spillUpdateQueries();
+
+        if (spilledUpdates > 0) {
+            plugin.getLogger().warning("Spilled " + spilledUpdates + " updates to disk, as the database is " +
+                    "unavailable. They will be written to the database when it is available again.");
+        }
     }
 
 }
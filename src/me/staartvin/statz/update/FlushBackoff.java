@@ -0,0 +1,97 @@
+package me.staartvin.statz.update;
+
+import java.util.Random;
+
+/**
+ * Decides when the next attempt to write the pools to the database should be made after the database could not be
+ * reached. Every consecutive failure doubles the delay (exponential backoff), up to a maximum delay. To prevent
+ * multiple servers from retrying at exactly the same moment, a random part of the delay is left out (jitter): the
+ * actual delay is between half and the whole of the exponential delay.
+ */
+public class FlushBackoff {
+
+    // Maximum time (in milliseconds) between two attempts.
+    public static final long DEFAULT_MAXIMUM_DELAY = 300_000;
+
+    private final long baseDelay;
+    private final long maximumDelay;
+    private final Random random;
+
+    private int consecutiveFailures = 0;
+    private long nextAttemptTime = 0;
+
+    /**
+     * Create a new backoff.
+     *
+     * @param baseDelay    Delay (in milliseconds) after the first failure
+     * @param maximumDelay Maximum delay (in milliseconds)
+     * @param random       Source of the jitter
+     */
+    public FlushBackoff(long baseDelay, long maximumDelay, Random random) {
+        this.baseDelay = Math.max(1, baseDelay);
+        this.maximumDelay = Math.max(this.baseDelay, maximumDelay);
+        this.random = random;
+    }
+
+    /**
+     * Check whether we should wait before making a new attempt.
+     *
+     * @param now Current time (in milliseconds)
+     * @return true if the next attempt should not be made yet.
+     */
+    public synchronized boolean isWaiting(long now) {
+        return now < nextAttemptTime;
+    }
+
+    /**
+     * Register that an attempt failed.
+     *
+     * @param now Current time (in milliseconds)
+     * @return the time (in milliseconds) to wait before the next attempt.
+     */
+    public synchronized long onFailure(long now) {
+        consecutiveFailures++;
+
+        long delay = getDelay(consecutiveFailures);
+
+        nextAttemptTime = now + delay;
+
+        return delay;
+    }
+
+    /**
+     * Register that an attempt succeeded. The next failure will have the base delay again.
+     */
+    public synchronized void onSuccess() {
+        consecutiveFailures = 0;
+        nextAttemptTime = 0;
+    }
+
+    /**
+     * Get the number of attempts that failed since the last successful attempt.
+     *
+     * @return number of consecutive failures.
+     */
+    public synchronized int getConsecutiveFailures() {
+        return consecutiveFailures;
+    }
+
+    /**
+     * Get the delay after a number of consecutive failures, including jitter.
+     *
+     * @param failures Number of consecutive failures (at least 1)
+     * @return delay in milliseconds.
+     */
+    long getDelay(int failures) {
+        long delay = maximumDelay;
+
+        // Prevent overflows for large numbers of failures.
+        if (failures <= 32 && baseDelay << (failures - 1) < maximumDelay) {
+            delay = baseDelay << (failures - 1);
+        }
+
+        long half = delay / 2;
+
+        return delay - half + (long) (random.nextDouble() * half);
+    }
+}
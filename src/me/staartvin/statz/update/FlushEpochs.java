@@ -0,0 +1,42 @@
+package me.staartvin.statz.update;
+
+import me.staartvin.statz.datamanager.player.PlayerStat;
+
+/**
+ * A snapshot of the number of database flushes that have been started and completed for each statistic. Before the
+ * {@link me.staartvin.statz.tasks.UpdateDatabaseTask} writes the updates of a statistic to the database, it marks
+ * the flush of the statistic as started. After the updates are written (and are no longer in flight), the flush is
+ * marked as completed.
+ * <br>
+ * <br>
+ * Data that is read from the database can be combined with the pending updates of the {@link UpdatePoolManager}
+ * without counting updates twice (or not at all) if no flush of the statistic was running or has run in the
+ * meantime. Take a snapshot before reading the database and check it with {@link #isStable(PlayerStat, FlushEpochs)}
+ * after obtaining the pending updates.
+ */
+public class FlushEpochs {
+
+    private final long[] startedFlushes;
+    private final long[] completedFlushes;
+
+    FlushEpochs(long[] startedFlushes, long[] completedFlushes) {
+        this.startedFlushes = startedFlushes;
+        this.completedFlushes = completedFlushes;
+    }
+
+    /**
+     * Check whether no flush of the given statistic was running when this snapshot was taken and whether no flush
+     * has been started or completed between this snapshot and the given (later) snapshot.
+     *
+     * @param statType Type of statistic
+     * @param later    Snapshot that was taken after this snapshot
+     * @return true if the statistic was not written to the database between the two snapshots, false otherwise.
+     */
+    public boolean isStable(PlayerStat statType, FlushEpochs later) {
+        int index = statType.ordinal();
+
+        return startedFlushes[index] == completedFlushes[index]
+                && startedFlushes[index] == later.startedFlushes[index]
+                && completedFlushes[index] == later.completedFlushes[index];
+    }
+}
@@ -0,0 +1,40 @@
+package me.staartvin.statz.update;
+
+/**
+ * How eagerly the updates of a statistic are written to the database. The priority of a statistic determines how
+ * long its updates may stay in the pools, relative to the periodic save time (see {@link FlushScheduler}).
+ */
+public enum FlushPriority {
+
+    /**
+     * Updates are written five times as often as the periodic save time, e.g. for statistics that are shown to
+     * other players quickly.
+     */
+    FAST(0.2),
+
+    /**
+     * Updates are written every periodic save time.
+     */
+    NORMAL(1),
+
+    /**
+     * Updates are written six times less often than the periodic save time, e.g. for statistics that change
+     * constantly, but are rarely looked at.
+     */
+    LAZY(6);
+
+    private final double intervalFactor;
+
+    FlushPriority(double intervalFactor) {
+        this.intervalFactor = intervalFactor;
+    }
+
+    /**
+     * Get the factor that the periodic save time is multiplied with for statistics of this priority.
+     *
+     * @return factor of the periodic save time.
+     */
+    public double getIntervalFactor() {
+        return intervalFactor;
+    }
+}
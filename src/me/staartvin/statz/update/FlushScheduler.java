@@ -0,0 +1,180 @@
+package me.staartvin.statz.update;
+
+import me.staartvin.statz.datamanager.player.PlayerStat;
+
+import java.util.*;
+
+/**
+ * Decides when the pools of the {@link UpdatePoolManager} should be written to the database. Instead of writing all
+ * pools at a fixed interval, the pools are checked often and written as soon as one of the following happens:
+ * <ul>
+ * <li>The pools hold more entries than the configured pool size.</li>
+ * <li>The estimated memory used by the pools is larger than the configured memory limit.</li>
+ * <li>The updates of a statistic have waited longer than the interval of its {@link FlushPriority}.</li>
+ * </ul>
+ * In the first two cases, all statistics are written. In the last case, only the statistics whose interval has
+ * passed are written, so statistics with a lazy priority are written less often than others.
+ * <br>
+ * <br>
+ * The scheduler keeps track of how long it takes to write to the database. When writing becomes slow, the intervals
+ * are stretched (up to {@link #MAXIMUM_STRETCH} times), and a new flush is not started until at least the average
+ * flush time has passed since the previous one. This gives a busy database some room to recover.
+ */
+public class FlushScheduler {
+
+    public static final int DEFAULT_FLUSH_POOL_SIZE = 10000;
+
+    // Default memory limit (in megabytes).
+    public static final int DEFAULT_FLUSH_MEMORY_LIMIT = 16;
+
+    // Rough estimate of the memory (in bytes) used by a single entry in the pools.
+    static final long ESTIMATED_ENTRY_SIZE = 320;
+
+    // Maximum factor the intervals are stretched with when writing to the database is slow.
+    static final double MAXIMUM_STRETCH = 4;
+
+    // A flush should take at most this fraction of the periodic save time before the intervals are stretched.
+    private static final double TARGET_LATENCY_FRACTION = 0.1;
+
+    // Weight of the latest flush in the average flush time.
+    private static final double LATENCY_SMOOTHING = 0.3;
+
+    // Shortest interval (in milliseconds) a statistic can have.
+    private static final long MINIMUM_INTERVAL = 1000;
+
+    private final long interval;
+    private final int poolSizeLimit;
+    private final long memoryLimit;
+    private final Map<PlayerStat, FlushPriority> priorities;
+
+    // Time (in milliseconds) that the updates of each statistic were last written.
+    private final long[] lastFlushTimes = new long[PlayerStat.values().length];
+
+    private long lastFlushEnd;
+    private double averageLatency = 0;
+
+    /**
+     * Create a new scheduler.
+     *
+     * @param interval      Time (in milliseconds) between two flushes of statistics with a normal priority
+     * @param poolSizeLimit Number of entries in the pools that triggers a flush
+     * @param memoryLimit   Estimated memory (in bytes) of the pools that triggers a flush
+     * @param priorities    Priority of statistics. Statistics that are not in the map have a normal priority.
+     * @param now           Current time (in milliseconds)
+     */
+    public FlushScheduler(long interval, int poolSizeLimit, long memoryLimit, Map<PlayerStat, FlushPriority>
+            priorities, long now) {
+        this.interval = Math.max(MINIMUM_INTERVAL, interval);
+        this.poolSizeLimit = Math.max(1, poolSizeLimit);
+        this.memoryLimit = Math.max(ESTIMATED_ENTRY_SIZE, memoryLimit);
+        this.priorities = priorities.isEmpty() ? new EnumMap<>(PlayerStat.class) : new EnumMap<>(priorities);
+
+        Arrays.fill(lastFlushTimes, now);
+        this.lastFlushEnd = now;
+    }
+
+    /**
+     * Get the statistics that should be written to the database now.
+     *
+     * @param poolSizes Number of entries in the pool of each statistic
+     * @param now       Current time (in milliseconds)
+     * @return the statistics to write, or an empty set if no flush is needed.
+     */
+    public synchronized Set<PlayerStat> getDueStats(Map<PlayerStat, Integer> poolSizes, long now) {
+        Set<PlayerStat> dueStats = EnumSet.noneOf(PlayerStat.class);
+
+        // Give the database time to recover after a slow flush.
+        if (now - lastFlushEnd < averageLatency) {
+            return dueStats;
+        }
+
+        long totalSize = 0;
+
+        for (Map.Entry<PlayerStat, Integer> pool : poolSizes.entrySet()) {
+            if (pool.getValue() > 0) {
+                totalSize += pool.getValue();
+                dueStats.add(pool.getKey());
+            }
+        }
+
+        // The pools are too large, so write everything.
+        if (totalSize >= poolSizeLimit || totalSize * ESTIMATED_ENTRY_SIZE >= memoryLimit) {
+            return dueStats;
+        }
+
+        dueStats.removeIf(statType -> now - lastFlushTimes[statType.ordinal()] < getInterval(statType));
+
+        return dueStats;
+    }
+
+    /**
+     * Check whether a normal interval has passed since the last flush, e.g. to retry writing updates that were
+     * spilled to disk when there is nothing else to write.
+     *
+     * @param now Current time (in milliseconds)
+     * @return true if a normal interval has passed since the last flush.
+     */
+    public synchronized boolean isIntervalElapsed(long now) {
+        return now - lastFlushEnd >= interval * getStretch();
+    }
+
+    /**
+     * Register that a flush has finished.
+     *
+     * @param statTypes Statistics that were written
+     * @param start     Time (in milliseconds) the flush started
+     * @param end       Time (in milliseconds) the flush finished
+     */
+    public synchronized void onFlushCompleted(Set<PlayerStat> statTypes, long start, long end) {
+        for (PlayerStat statType : statTypes) {
+            lastFlushTimes[statType.ordinal()] = start;
+        }
+
+        long latency = Math.max(0, end - start);
+
+        averageLatency = averageLatency == 0 ? latency : LATENCY_SMOOTHING * latency + (1 - LATENCY_SMOOTHING) *
+                averageLatency;
+        lastFlushEnd = end;
+    }
+
+    /**
+     * Get the priority of a statistic.
+     *
+     * @param statType Type of statistic
+     * @return the configured priority, or {@link FlushPriority#NORMAL} if none is configured.
+     */
+    public FlushPriority getPriority(PlayerStat statType) {
+        return priorities.getOrDefault(statType, FlushPriority.NORMAL);
+    }
+
+    /**
+     * Get the time the updates of a statistic may stay in the pools, including the stretch caused by slow flushes.
+     *
+     * @param statType Type of statistic
+     * @return the interval of the statistic in milliseconds.
+     */
+    public synchronized long getInterval(PlayerStat statType) {
+        return Math.max(MINIMUM_INTERVAL, (long) (interval * getPriority(statType).getIntervalFactor() *
+                getStretch()));
+    }
+
+    /**
+     * Get the average time it took to write to the database.
+     *
+     * @return the average flush time in milliseconds.
+     */
+    public synchronized double getAverageLatency() {
+        return averageLatency;
+    }
+
+    /**
+     * Get the factor the intervals are stretched with, based on the average flush time.
+     *
+     * @return a factor between 1 and {@link #MAXIMUM_STRETCH}.
+     */
+    private double getStretch() {
+        double stretch = averageLatency / (interval * TARGET_LATENCY_FRACTION);
+
+        return Math.min(MAXIMUM_STRETCH, Math.max(1, stretch));
+    }
+}
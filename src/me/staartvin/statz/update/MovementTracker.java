@@ -0,0 +1,131 @@
+package me.staartvin.statz.update;
+
+import me.staartvin.statz.Statz;
+import me.staartvin.statz.datamanager.player.PlayerStat;
+import me.staartvin.statz.datamanager.player.specification.DistanceTravelledSpecification;
+import me.staartvin.statz.datamanager.player.specification.PlayerStatSpecification;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The MovementTracker keeps track of the distance that players travel, before it is registered in the
+ * {@link UpdatePoolManager}. Movement events are fired very often (up to 20 times a second per moving player), so
+ * instead of creating an update query for every event, the distance is summed per world and movement type. The
+ * summed distances are periodically sent to the update pool (see {@link #flushAll()}), and also when a player changes
+ * worlds or leaves the server.
+ */
+public class MovementTracker {
+
+    private final Statz plugin;
+
+    // Distance travelled of each player that has not been registered in the update pool yet.
+    private final Map<UUID, MovementSession> sessions = new ConcurrentHashMap<>();
+
+    public MovementTracker(Statz instance) {
+        this.plugin = instance;
+    }
+
+    /**
+     * Add a travelled distance of a player. The distance will be registered in the update pool the next time the
+     * player is flushed.
+     *
+     * @param uuid         UUID of the player
+     * @param worldName    Name of the world the player travelled in
+     * @param movementType Type of movement (see {@link me.staartvin.statz.util.StatzUtil#getMovementType})
+     * @param distance     Distance that was travelled
+     */
+    public void addDistance(UUID uuid, String worldName, String movementType, double distance) {
+        sessions.computeIfAbsent(uuid, id -> new MovementSession()).add(worldName, movementType, distance);
+    }
+
+    /**
+     * Register all distance a player has travelled since the last flush in the update pool.
+     *
+     * @param uuid UUID of the player
+     */
+    public void flushPlayer(UUID uuid) {
+        MovementSession session = sessions.get(uuid);
+
+        if (session == null) {
+            return;
+        }
+
+        session.flush(uuid);
+    }
+
+    /**
+     * Register all distance travelled of all players in the update pool.
+     */
+    public void flushAll() {
+        for (Map.Entry<UUID, MovementSession> entry : sessions.entrySet()) {
+            entry.getValue().flush(entry.getKey());
+        }
+    }
+
+    /**
+     * Register all distance a player has travelled in the update pool and stop tracking the player. This should be
+     * called when a player leaves the server.
+     *
+     * @param uuid UUID of the player
+     */
+    public void removePlayer(UUID uuid) {
+        MovementSession session = sessions.remove(uuid);
+
+        if (session == null) {
+            return;
+        }
+
+        session.flush(uuid);
+    }
+
+    /**
+     * Distance travelled of a single player, per world and per movement type.
+     */
+    private class MovementSession {
+
+        // World name -> movement type -> distance. The arrays are reused after a flush to prevent allocations.
+        private final Map<String, Map<String, double[]>> distances = new HashMap<>();
+
+        synchronized void add(String worldName, String movementType, double distance) {
+            double[] total = distances.computeIfAbsent(worldName, world -> new HashMap<>())
+                    .computeIfAbsent(movementType, type -> new double[1]);
+
+            total[0] += distance;
+        }
+
+        void flush(UUID uuid) {
+            Map<String, Map<String, Double>> flushed = new HashMap<>();
+
+            // Only hold the lock while reading the totals, so the main thread is not blocked by the update pool.
+            synchronized (this) {
+                for (Map.Entry<String, Map<String, double[]>> world : distances.entrySet()) {
+                    for (Map.Entry<String, double[]> movementType : world.getValue().entrySet()) {
+                        double[] total = movementType.getValue();
+
+                        if (total[0] == 0) {
+                            continue;
+                        }
+
+                        flushed.computeIfAbsent(world.getKey(), name -> new HashMap<>())
+                                .put(movementType.getKey(), total[0]);
+
+                        total[0] = 0;
+                    }
+                }
+            }
+
+            for (Map.Entry<String, Map<String, Double>> world : flushed.entrySet()) {
+                for (Map.Entry<String, Double> movementType : world.getValue().entrySet()) {
+                    PlayerStatSpecification specification = new DistanceTravelledSpecification(uuid,
+                            movementType.getValue(), world.getKey(), movementType.getKey());
+
+                    plugin.getDataManager().setPlayerInfo(uuid, PlayerStat.DISTANCE_TRAVELLED,
+                            specification.constructQuery());
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package me.staartvin.statz.update;
+
+import me.staartvin.statz.database.datatype.Query;
+import me.staartvin.statz.datamanager.player.PlayerStat;
+
+import java.util.*;
+
+/**
+ * A snapshot of the updates of a single player that have not been written to the database yet. This includes the
+ * updates that are still in the pools and the updates that are currently being written by the
+ * {@link me.staartvin.statz.tasks.UpdateDatabaseTask}.
+ * <br>
+ * <br>
+ * Every update that is registered in the {@link UpdatePoolManager} gets a sequence number. A snapshot contains all
+ * updates of the player up to (and including) the sequence number given by {@link #getSequenceNumber()}, and none
+ * after it.
+ */
+public class PendingUpdates {
+
+    private final Map<PlayerStat, List<Query>> updates;
+    private final long sequenceNumber;
+
+    PendingUpdates(Map<PlayerStat, List<Query>> updates, long sequenceNumber) {
+        this.updates = updates;
+        this.sequenceNumber = sequenceNumber;
+    }
+
+    /**
+     * Get the pending updates of a statistic.
+     *
+     * @param statType Type of statistic
+     * @return a list of queries that have not been written to the database yet, or an empty list if there are none.
+     */
+    public List<Query> getUpdates(PlayerStat statType) {
+        return Collections.unmodifiableList(updates.getOrDefault(statType, Collections.emptyList()));
+    }
+
+    /**
+     * Get the sequence number of the last update that is part of this snapshot.
+     *
+     * @return the sequence number of the last update in this snapshot.
+     */
+    public long getSequenceNumber() {
+        return sequenceNumber;
+    }
+}
@@ -0,0 +1,89 @@
+package me.staartvin.statz.update;
+
+import me.staartvin.statz.database.datatype.Query;
+import me.staartvin.statz.database.datatype.StatRow;
+
+import java.util.UUID;
+
+/**
+ * A single entry in a pool of the {@link UpdatePoolManager}. Every entry represents all update queries that
+ * conflict with each other (see {@link Query#conflicts(Query)}). Instead of storing every query, the entry stores
+ * the {@link StatRow} of the first query it has seen and keeps a running sum of the 'value' column of all queries
+ * that were merged into it. The row is also the key of the entry in its pool.
+ * <br>
+ * <br>
+ * Entries are not thread-safe by themselves. They are only ever modified while holding the lock of the stripe they
+ * belong to.
+ */
+class PoolEntry {
+
+    // Row of the first query that was added to this entry. Its value is not kept up-to-date.
+    private final StatRow row;
+
+    // Sum of the values of all queries that were merged into this entry.
+    private double value;
+
+    PoolEntry(StatRow row) {
+        this.row = row;
+        this.value = row.getValue();
+    }
+
+    private PoolEntry(PoolEntry entry) {
+        this.row = entry.row;
+        this.value = entry.value;
+    }
+
+    /**
+     * Create a copy of this entry that can be changed independently of this entry.
+     *
+     * @return a copy of this entry.
+     */
+    PoolEntry copy() {
+        return new PoolEntry(this);
+    }
+
+    /**
+     * Get the UUID of the player this entry belongs to.
+     *
+     * @return UUID of the player or null if the queries of this entry do not have a UUID.
+     */
+    UUID getUUID() {
+        return row.getUUID();
+    }
+
+    /**
+     * Merge a row that conflicts with this entry into this entry.
+     *
+     * @param addedRow Row to merge
+     */
+    void merge(StatRow addedRow) {
+        // Rows without a value (such as the players table) cannot be summed, so we keep the first one.
+        if (!row.hasValue()) {
+            return;
+        }
+
+        value += addedRow.getValue();
+    }
+
+    /**
+     * Merge another entry (of the same key) into this entry.
+     *
+     * @param entry Entry to merge
+     */
+    void merge(PoolEntry entry) {
+        if (!row.hasValue()) {
+            return;
+        }
+
+        value += entry.value;
+    }
+
+    /**
+     * Create a query that represents all queries that were merged into this entry.
+     *
+     * @return a new query object with the summed value.
+     */
+    Query toQuery() {
+        return row.withValue(value).toQuery();
+    }
+}
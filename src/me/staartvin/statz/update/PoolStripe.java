@@ -0,0 +1,189 @@
+package me.staartvin.statz.update;
+
+import me.staartvin.statz.datamanager.player.PlayerStat;
+
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A stripe of the pools of the {@link UpdatePoolManager}. Players are assigned to a stripe based on the hash of
+ * their UUID, so that listeners of different players do not have to wait for each other when they register an
+ * update. Each stripe stores its own buffer of {@link PoolEntry} objects per statistic.
+ * <br>
+ * <br>
+ * When the buffer is drained, its entries are kept as 'in flight' until they have been written to the database.
+ * This way, the updates of a player that have not reached the database yet can always be found in a stripe. Every
+ * update that is added to a stripe gets a sequence number, which is increasing within the stripe.
+ * <br>
+ * <br>
+ * All access to the buffer of a stripe should be done while holding its lock (synchronizing on the stripe).
+ */
+class PoolStripe {
+
+    private Map<PlayerStat, Map<Object, PoolEntry>> buffer = new EnumMap<>(PlayerStat.class);
+
+    // Entries that have been drained, but are not written to the database yet.
+    private final Map<PlayerStat, Map<Object, PoolEntry>> inFlight = new EnumMap<>(PlayerStat.class);
+
+    // Sequence number of the last update that was added to this stripe.
+    private long sequenceNumber = 0;
+
+    /**
+     * Get the entries of the given statistic in this stripe, creating the map if it does not exist yet.
+     *
+     * @param statType Type of statistic
+     * @return map of keys to entries of this stripe.
+     */
+    Map<Object, PoolEntry> getEntries(PlayerStat statType) {
+        return buffer.computeIfAbsent(statType, stat -> new LinkedHashMap<>());
+    }
+
+    /**
+     * Get the buffer of this stripe.
+     *
+     * @return all entries of this stripe, per statistic.
+     */
+    Map<PlayerStat, Map<Object, PoolEntry>> getBuffer() {
+        return buffer;
+    }
+
+    /**
+     * Get the entries of this stripe that are being written to the database.
+     *
+     * @return all in flight entries of this stripe, per statistic.
+     */
+    Map<PlayerStat, Map<Object, PoolEntry>> getInFlight() {
+        return inFlight;
+    }
+
+    /**
+     * Replace the current buffer of this stripe with an empty one.
+     *
+     * @return the buffer that was active before the swap.
+     */
+    Map<PlayerStat, Map<Object, PoolEntry>> swap() {
+        Map<PlayerStat, Map<Object, PoolEntry>> drained = buffer;
+        buffer = new EnumMap<>(PlayerStat.class);
+        return drained;
+    }
+
+    /**
+     * Replace the current buffer of this stripe with an empty one and mark the entries of the old buffer as in
+     * flight. The entries remain in flight until {@link #clearInFlight(PlayerStat)} or
+     * {@link #restoreInFlight(PlayerStat)} is called.
+     * <br>
+     * The drained entries are shared with the in flight entries, so they should not be changed until they are not in
+     * flight anymore.
+     *
+     * @return the buffer that was active before the swap.
+     */
+    Map<PlayerStat, Map<Object, PoolEntry>> drain() {
+        return markInFlight(swap());
+    }
+
+    /**
+     * Take the entries of the given statistics out of the buffer and mark them as in flight. Entries of other
+     * statistics stay in the buffer. See {@link #drain()}.
+     *
+     * @param statTypes Statistics to drain
+     * @return the entries that were drained, per statistic.
+     */
+    Map<PlayerStat, Map<Object, PoolEntry>> drain(Set<PlayerStat> statTypes) {
+        Map<PlayerStat, Map<Object, PoolEntry>> drained = new EnumMap<>(PlayerStat.class);
+
+        for (PlayerStat statType : statTypes) {
+            Map<Object, PoolEntry> entries = buffer.remove(statType);
+
+            if (entries != null) {
+                drained.put(statType, entries);
+            }
+        }
+
+        return markInFlight(drained);
+    }
+
+    /**
+     * Add drained entries to the entries that are in flight.
+     *
+     * @param drained Entries that were taken out of the buffer
+     * @return the drained entries.
+     */
+    private Map<PlayerStat, Map<Object, PoolEntry>> markInFlight(Map<PlayerStat, Map<Object, PoolEntry>> drained) {
+        for (Map.Entry<PlayerStat, Map<Object, PoolEntry>> stat : drained.entrySet()) {
+            Map<Object, PoolEntry> entries = inFlight.get(stat.getKey());
+
+            // Usually nothing of this statistic is in flight, so we don't need to copy anything.
+            if (entries == null) {
+                inFlight.put(stat.getKey(), stat.getValue());
+                continue;
+            }
+
+            for (Map.Entry<Object, PoolEntry> entry : stat.getValue().entrySet()) {
+                // Copy the entry, as the drained entries are read without holding the lock of this stripe.
+                entries.merge(entry.getKey(), entry.getValue().copy(), (stored, added) -> {
+                    stored.merge(added);
+                    return stored;
+                });
+            }
+        }
+
+        return drained;
+    }
+
+    /**
+     * Forget about the entries of a statistic that were in flight, as they have been written to the database.
+     *
+     * @param statType Type of statistic
+     */
+    void clearInFlight(PlayerStat statType) {
+        inFlight.remove(statType);
+    }
+
+    /**
+     * Put the entries of a statistic that were in flight back into the buffer, as they could not be written to the
+     * database. Entries that were added to the buffer in the meantime are merged with them.
+     *
+     * @param statType Type of statistic
+     */
+    void restoreInFlight(PlayerStat statType) {
+        Map<Object, PoolEntry> restored = inFlight.remove(statType);
+
+        if (restored == null) {
+            return;
+        }
+
+        Map<Object, PoolEntry> entries = buffer.get(statType);
+
+        // The restored entries are older, so they go first.
+        if (entries != null) {
+            for (Map.Entry<Object, PoolEntry> entry : entries.entrySet()) {
+                restored.merge(entry.getKey(), entry.getValue(), (stored, added) -> {
+                    stored.merge(added);
+                    return stored;
+                });
+            }
+        }
+
+        buffer.put(statType, restored);
+    }
+
+    /**
+     * Get a new sequence number for an update that is added to this stripe.
+     *
+     * @return a sequence number that is higher than all sequence numbers given out before.
+     */
+    long nextSequenceNumber() {
+        return ++sequenceNumber;
+    }
+
+    /**
+     * Get the sequence number of the last update that was added to this stripe.
+     *
+     * @return the last sequence number that was given out.
+     */
+    long getSequenceNumber() {
+        return sequenceNumber;
+    }
+}
@@ -0,0 +1,257 @@
+package me.staartvin.statz.update;
+
+import me.staartvin.statz.Statz;
+import me.staartvin.statz.database.DatabaseConnector;
+import me.staartvin.statz.database.datatype.Query;
+import me.staartvin.statz.database.datatype.Table;
+import me.staartvin.statz.datamanager.player.PlayerStat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.logging.Level;
+
+/**
+ * The SpillStore keeps updates on disk while the database is unavailable. When the pools of the
+ * {@link UpdatePoolManager} grow too large because the database cannot be reached, they are written to a spill file
+ * (a batch) so they do not take up memory. When the database is available again, the batches are sent to the
+ * database in the order they were spilled (see {@link #replay(DatabaseConnector)}).
+ * <br>
+ * <br>
+ * Every batch is a separate file in the spill folder. A batch is first written to a temporary file and then moved
+ * into place, so a batch is never read while it is only partly written. A batch is only deleted once all of its
+ * updates have been written to the database.
+ */
+public class SpillStore {
+
+    private static final String BATCH_PREFIX = "batch-";
+    private static final String BATCH_SUFFIX = ".spill";
+
+    private final Statz plugin;
+    private final File directory;
+
+    private long lastBatchNumber;
+
+    /**
+     * Create a new spill store. Batches that were spilled before are picked up again.
+     *
+     * @param instance  Instance of Statz
+     * @param directory Folder to store the batches in
+     */
+    public SpillStore(Statz instance, File directory) {
+        this.plugin = instance;
+        this.directory = directory;
+
+        List<Long> batches = getBatchNumbers();
+
+        lastBatchNumber = batches.isEmpty() ? 0 : batches.get(batches.size() - 1);
+    }
+
+    /**
+     * Write updates to a new batch on disk.
+     *
+     * @param updates Updates to write, per statistic
+     * @return true if the updates are stored on disk, false otherwise.
+     */
+    public synchronized boolean spill(Map<PlayerStat, List<Query>> updates) {
+        if (!directory.exists() && !directory.mkdirs()) {
+            plugin.getLogger().severe("Could not create spill folder " + directory);
+            return false;
+        }
+
+        try {
+            writeBatch(getBatchFile(lastBatchNumber + 1), updates);
+        } catch (IOException e) {
+            plugin.getLogger().log(Level.SEVERE, "Could not spill updates to disk:", e);
+            return false;
+        }
+
+        lastBatchNumber++;
+
+        return true;
+    }
+
+    /**
+     * Send all spilled batches to the database, oldest batch first. If a batch cannot be written completely, the
+     * updates that were not written stay on disk and no newer batches are sent.
+     *
+     * @param connector Connector to write the batches with
+     * @return the number of rows that were written, or -1 if not all batches could be written.
+     */
+    public synchronized int replay(DatabaseConnector connector) {
+        int writtenRows = 0;
+
+        for (long batchNumber : getBatchNumbers()) {
+            File batch = getBatchFile(batchNumber);
+
+            Map<PlayerStat, List<Query>> updates;
+
+            try {
+                updates = readBatch(batch);
+            } catch (IOException e) {
+                plugin.getLogger().log(Level.SEVERE, "Could not read spilled updates of " + batch.getName() + ":", e);
+                return -1;
+            }
+
+            Map<Table, List<Query>> tables = new LinkedHashMap<>();
+
+            for (Map.Entry<PlayerStat, List<Query>> stat : updates.entrySet()) {
+                tables.put(DatabaseConnector.getTable(stat.getKey()), stat.getValue());
+            }
+
+            Set<Table> failedTables = connector.setBatchObjects(tables, DatabaseConnector.SET_OPERATION.ADD);
+
+            if (failedTables.isEmpty()) {
+                if (!batch.delete()) {
+                    // We can't delete the batch, so empty it to make sure we don't write it again later.
+                    try {
+                        writeBatch(batch, new EnumMap<>(PlayerStat.class));
+                    } catch (IOException e) {
+                        plugin.getLogger().log(Level.SEVERE, "Could not remove spilled updates of " + batch
+                                .getName() + ". They may be written to the database twice.", e);
+                    }
+                }
+
+                for (List<Query> queries : updates.values()) {
+                    writtenRows += queries.size();
+                }
+
+                continue;
+            }
+
+            // Only keep the updates that were not written, so we don't write the others twice.
+            Map<PlayerStat, List<Query>> remainingUpdates = new EnumMap<>(PlayerStat.class);
+
+            for (Map.Entry<PlayerStat, List<Query>> stat : updates.entrySet()) {
+                Table table = DatabaseConnector.getTable(stat.getKey());
+
+                if (failedTables.contains(table)) {
+                    remainingUpdates.put(stat.getKey(), stat.getValue());
+                } else {
+                    writtenRows += stat.getValue().size();
+                }
+            }
+
+            try {
+                writeBatch(batch, remainingUpdates);
+            } catch (IOException e) {
+                plugin.getLogger().log(Level.SEVERE, "Could not update spilled updates of " + batch.getName() + ". " +
+                        "Some of them may be written to the database twice.", e);
+            }
+
+            return -1;
+        }
+
+        return writtenRows;
+    }
+
+    /**
+     * Get the number of batches that are waiting to be sent to the database.
+     *
+     * @return number of spilled batches.
+     */
+    public synchronized int getBatchCount() {
+        return getBatchNumbers().size();
+    }
+
+    /**
+     * Write updates to a batch file, replacing the batch if it exists.
+     *
+     * @param batch   File of the batch
+     * @param updates Updates to write, per statistic
+     * @throws IOException if the batch could not be written.
+     */
+    private void writeBatch(File batch, Map<PlayerStat, List<Query>> updates) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        for (Map.Entry<PlayerStat, List<Query>> stat : updates.entrySet()) {
+            for (Query query : stat.getValue()) {
+                bytes.write(UpdateRecord.encode(stat.getKey(), query));
+            }
+        }
+
+        File temporaryFile = new File(directory, batch.getName() + ".tmp");
+
+        try (FileChannel channel = FileChannel.open(temporaryFile.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+
+            channel.force(true);
+        }
+
+        Files.move(temporaryFile.toPath(), batch.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption
+                .ATOMIC_MOVE);
+    }
+
+    /**
+     * Read the updates of a batch file.
+     *
+     * @param batch File of the batch
+     * @return the updates of the batch, per statistic.
+     * @throws IOException if the batch could not be read.
+     */
+    private Map<PlayerStat, List<Query>> readBatch(File batch) throws IOException {
+        Map<PlayerStat, List<Query>> updates = new EnumMap<>(PlayerStat.class);
+
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(batch.toPath()));
+
+        for (UpdateRecord record : UpdateRecord.readAll(buffer)) {
+            updates.computeIfAbsent(record.getStatType(), statType -> new ArrayList<>()).add(record.getQuery());
+        }
+
+        if (buffer.hasRemaining()) {
+            plugin.getLogger().warning("Spilled batch " + batch.getName() + " contains corrupt updates. They are " +
+                    "ignored.");
+        }
+
+        return updates;
+    }
+
+    /**
+     * Get the numbers of all batches in the spill folder.
+     *
+     * @return the batch numbers, in ascending order.
+     */
+    private List<Long> getBatchNumbers() {
+        List<Long> batches = new ArrayList<>();
+
+        File[] files = directory.listFiles();
+
+        if (files == null) {
+            return batches;
+        }
+
+        for (File file : files) {
+            String name = file.getName();
+
+            if (!name.startsWith(BATCH_PREFIX) || !name.endsWith(BATCH_SUFFIX)) {
+                continue;
+            }
+
+            try {
+                batches.add(Long.parseLong(name.substring(BATCH_PREFIX.length(), name.length() - BATCH_SUFFIX
+                        .length())));
+            } catch (NumberFormatException e) {
+                // Not a batch of this store.
+            }
+        }
+
+        Collections.sort(batches);
+
+        return batches;
+    }
+
+    private File getBatchFile(long batch) {
+        return new File(directory, BATCH_PREFIX + batch + BATCH_SUFFIX);
+    }
+}
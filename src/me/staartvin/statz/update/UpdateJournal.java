@@ -0,0 +1,377 @@
+package me.staartvin.statz.update;
+
+import me.staartvin.statz.database.datatype.Query;
+import me.staartvin.statz.datamanager.player.PlayerStat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The UpdateJournal writes every update that is registered in the {@link UpdatePoolManager} to disk, so updates
+ * that have not been written to the database yet survive a crash of the server.
+ * <br>
+ * <br>
+ * Registering an update never waits for the disk. Updates are collected in memory and written to the journal
+ * together every few milliseconds, followed by a single sync to disk (group commit). Hence, a crash loses at most
+ * the updates of the last sync interval.
+ * <br>
+ * <br>
+ * The journal is split into segments (files in the journal folder). Every time the pools are drained, the journal
+ * starts a new segment (see {@link #rotate()}). Once the drained updates have been written to the database, the
+ * segments that contain them are deleted (see {@link #truncate(long)}). When Statz starts, the segments that are
+ * left are replayed into the pools (see {@link #open(BiConsumer)}).
+ * <br>
+ * <br>
+ * Every update is stored as an {@link UpdateRecord}. A record that was only partly written when the server crashed
+ * is ignored during the replay.
+ */
+public class UpdateJournal {
+
+    public static final int DEFAULT_SYNC_INTERVAL = 100;
+
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".journal";
+
+    private final Logger logger;
+    private final File directory;
+    private final long syncInterval;
+
+    // Protects the records that are not written yet and the current segment.
+    private final Object lock = new Object();
+
+    // Only one thread may write to the segments at a time.
+    private final Object writeLock = new Object();
+
+    private ByteArrayOutputStream pendingRecords = new ByteArrayOutputStream();
+    private FileChannel channel;
+    private long segmentNumber;
+    private boolean closed = true;
+
+    private ScheduledExecutorService syncer;
+
+    /**
+     * Create a new journal.
+     *
+     * @param logger       Logger to report problems to
+     * @param directory    Folder to store the segments in
+     * @param syncInterval Time (in milliseconds) between two syncs to disk
+     */
+    public UpdateJournal(Logger logger, File directory, long syncInterval) {
+        this.logger = logger;
+        this.directory = directory;
+        this.syncInterval = Math.max(1, syncInterval);
+    }
+
+    /**
+     * Replay all segments that are left and start a new segment.
+     *
+     * @param sink Receives every update that is replayed, in the order the updates were added (usually the pools of
+     *             the {@link UpdatePoolManager})
+     * @return the number of updates that were replayed.
+     * @throws IOException if the journal could not be opened.
+     */
+    public int open(BiConsumer<PlayerStat, Query> sink) throws IOException {
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IOException("Could not create journal folder " + directory);
+        }
+
+        List<Long> segments = getSegmentNumbers();
+
+        int replayedUpdates = 0;
+
+        for (long segment : segments) {
+            replayedUpdates += replay(getSegmentFile(segment), sink);
+        }
+
+        long firstSegment = segments.isEmpty() ? 1 : segments.get(segments.size() - 1) + 1;
+
+        FileChannel newChannel = openSegment(firstSegment);
+
+        synchronized (lock) {
+            segmentNumber = firstSegment;
+            channel = newChannel;
+            closed = false;
+        }
+
+        syncer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "Statz Update Journal");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        syncer.scheduleWithFixedDelay(this::sync, syncInterval, syncInterval, TimeUnit.MILLISECONDS);
+
+        return replayedUpdates;
+    }
+
+    /**
+     * Add an update to the journal. The update is written to disk during the next sync.
+     *
+     * @param statType Type of statistic
+     * @param query    Update to add
+     */
+    public void append(PlayerStat statType, Query query) {
+        byte[] record;
+
+        try {
+            record = UpdateRecord.encode(statType, query);
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Could not add update to journal:", e);
+            return;
+        }
+
+        synchronized (lock) {
+            if (closed) {
+                return;
+            }
+
+            pendingRecords.write(record, 0, record.length);
+        }
+    }
+
+    /**
+     * Write all updates that were added since the last sync to the current segment and sync it to disk.
+     *
+     * @return true if the updates are on disk, false if they could not be written or the journal is closed.
+     */
+    public boolean sync() {
+        synchronized (writeLock) {
+            byte[] records;
+            FileChannel currentChannel;
+
+            synchronized (lock) {
+                if (closed) {
+                    return false;
+                }
+
+                records = takePendingRecords();
+                currentChannel = channel;
+            }
+
+            return write(currentChannel, records);
+        }
+    }
+
+    /**
+     * Start a new segment. All updates that were added before this call are written to the old segment. This should
+     * be called while the pools are drained, so that the drained updates are exactly the updates of this segment
+     * and the segments before it.
+     *
+     * @return the number of the segment that was closed. Pass it to {@link #truncate(long)} when the drained updates
+     * have been written to the database.
+     */
+    public long rotate() {
+        synchronized (writeLock) {
+            synchronized (lock) {
+                if (closed) {
+                    return segmentNumber;
+                }
+            }
+
+            FileChannel newChannel;
+
+            try {
+                newChannel = openSegment(segmentNumber + 1);
+            } catch (IOException e) {
+                logger.log(Level.WARNING, "Could not start new journal segment:", e);
+
+                // Keep writing to the current segment. It will be deleted during the next successful flush.
+                sync();
+
+                return segmentNumber - 1;
+            }
+
+            byte[] records;
+            FileChannel oldChannel;
+            long oldSegment;
+
+            synchronized (lock) {
+                records = takePendingRecords();
+                oldChannel = channel;
+                oldSegment = segmentNumber;
+
+                channel = newChannel;
+                segmentNumber++;
+            }
+
+            write(oldChannel, records);
+            closeQuietly(oldChannel);
+
+            return oldSegment;
+        }
+    }
+
+    /**
+     * Delete all segments up to (and including) the given segment, as their updates are stored in the database.
+     *
+     * @param lastSegment Number of the last segment to delete
+     */
+    public void truncate(long lastSegment) {
+        for (long segment : getSegmentNumbers()) {
+            if (segment > lastSegment) {
+                break;
+            }
+
+            File file = getSegmentFile(segment);
+
+            if (file.exists() && !file.delete()) {
+                logger.warning("Could not delete journal segment " + file.getName());
+            }
+        }
+    }
+
+    /**
+     * Write all updates that are not on disk yet and close the journal. Updates that are added afterwards are not
+     * written to the journal.
+     */
+    public void close() {
+        if (syncer != null) {
+            syncer.shutdown();
+        }
+
+        synchronized (writeLock) {
+            byte[] records;
+            FileChannel currentChannel;
+
+            synchronized (lock) {
+                if (closed) {
+                    return;
+                }
+
+                records = takePendingRecords();
+                currentChannel = channel;
+                closed = true;
+            }
+
+            write(currentChannel, records);
+            closeQuietly(currentChannel);
+        }
+    }
+
+    /**
+     * Take the records that are not written yet. Must be called while holding the lock.
+     *
+     * @return all records that were added since the last time this method was called.
+     */
+    private byte[] takePendingRecords() {
+        byte[] records = pendingRecords.toByteArray();
+        pendingRecords = new ByteArrayOutputStream();
+        return records;
+    }
+
+    /**
+     * Write records to a segment and sync it to disk.
+     *
+     * @param segment Segment to write to
+     * @param records Records to write
+     * @return true if the records were written, false otherwise.
+     */
+    private boolean write(FileChannel segment, byte[] records) {
+        if (records.length == 0) {
+            return true;
+        }
+
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(records);
+
+            while (buffer.hasRemaining()) {
+                segment.write(buffer);
+            }
+
+            segment.force(false);
+
+            return true;
+        } catch (IOException e) {
+            logger.log(Level.SEVERE, "Could not write updates to journal:", e);
+
+            return false;
+        }
+    }
+
+    /**
+     * Read all updates of a segment and pass them to the sink.
+     *
+     * @param segment Segment to read
+     * @param sink    Receives the updates of the segment
+     * @return the number of updates that were passed to the sink.
+     */
+    private int replay(File segment, BiConsumer<PlayerStat, Query> sink) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(segment.toPath()));
+
+        List<UpdateRecord> records = UpdateRecord.readAll(buffer);
+
+        if (buffer.hasRemaining()) {
+            logger.warning("Journal segment " + segment.getName() + " ends with an incomplete or " +
+                    "corrupt update. It is ignored.");
+        }
+
+        for (UpdateRecord record : records) {
+            sink.accept(record.getStatType(), record.getQuery());
+        }
+
+        return records.size();
+    }
+
+    /**
+     * Get the numbers of all segments in the journal folder.
+     *
+     * @return the segment numbers, in ascending order.
+     */
+    private List<Long> getSegmentNumbers() {
+        List<Long> segments = new ArrayList<>();
+
+        File[] files = directory.listFiles();
+
+        if (files == null) {
+            return segments;
+        }
+
+        for (File file : files) {
+            String name = file.getName();
+
+            if (!name.startsWith(SEGMENT_PREFIX) || !name.endsWith(SEGMENT_SUFFIX)) {
+                continue;
+            }
+
+            try {
+                segments.add(Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() -
+                        SEGMENT_SUFFIX.length())));
+            } catch (NumberFormatException e) {
+                // Not a segment of this journal.
+            }
+        }
+
+        Collections.sort(segments);
+
+        return segments;
+    }
+
+    private File getSegmentFile(long segment) {
+        return new File(directory, SEGMENT_PREFIX + segment + SEGMENT_SUFFIX);
+    }
+
+    private FileChannel openSegment(long segment) throws IOException {
+        return FileChannel.open(getSegmentFile(segment).toPath(), StandardOpenOption.CREATE, StandardOpenOption
+                .WRITE, StandardOpenOption.APPEND);
+    }
+
+    private void closeQuietly(FileChannel segment) {
+        try {
+            segment.close();
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Could not close journal segment:", e);
+        }
+    }
+}
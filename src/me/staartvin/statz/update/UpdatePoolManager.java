@@ -2,13 +2,17 @@ package me.staartvin.statz.update;
 
 import me.staartvin.statz.Statz;
 import me.staartvin.statz.database.datatype.Query;
+import me.staartvin.statz.database.datatype.StatRow;
 import me.staartvin.statz.datamanager.player.PlayerStat;
 
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Map;
-import java.util.UUID;
-import java.util.concurrent.ConcurrentHashMap;
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Level;
 
 /**
  * The UpdatePoolManager is responsible for keeping track of the different update queries that need to be sent to the
@@ -41,39 +45,121 @@ import java.util.concurrent.ConcurrentHashMap;
  * <li>PlayerB walked 11 blocks on world 'overworld'.</li>
  * </ul>
  * After compression, the database is updated with these queries.
+ * <br>
+ * <br>
+ * To prevent the pools from growing with every event, queries are compressed the moment they are added: each pool
+ * stores one entry per set of conflicting queries and keeps the sum of their values. Queries are converted to a
+ * compact {@link StatRow} when they are added, and back to queries when they are read. The pools are split into
+ * stripes based on the UUID of the player, so registering updates of different players does not contend for the
+ * same lock. The task that updates the database should use {@link #drainUpdateQueries()} to atomically take the
+ * current contents of the pools.
+ * <br>
+ * <br>
+ * Updates that are drained stay 'in flight' until the task marks the flush of their statistic as completed (see
+ * {@link #markFlushStarted(PlayerStat)} and {@link #markFlushCompleted(PlayerStat)}). Together with the
+ * {@link FlushEpochs}, this allows the cache to combine data of the database with the updates that have not reached
+ * the database yet (see {@link #getPendingUpdates(UUID)}). When a flush fails, its updates are put back into the
+ * pools with {@link #markFlushFailed(PlayerStat)}, so they are not lost. Optionally, all updates are also written
+ * to an {@link UpdateJournal}, so they are not lost when the server crashes.
+ * <br>
+ * <br>
+ * When the database is unavailable, the pools keep growing. To prevent running out of memory, the pools are moved to
+ * a {@link SpillStore} on disk when they hold more updates than the configured maximum. Attempts to reach the
+ * database again are spread out by a {@link FlushBackoff}. When the pools are written is decided by the
+ * {@link FlushScheduler}, which may drain the pools of only some statistics (see {@link #drainUpdateQueries(Set)}).
  */
 public class UpdatePoolManager {
 
-    public static boolean isForcingPool = false;
-    private Map<PlayerStat, List<Query>> updateQueries = new ConcurrentHashMap<>();
+    public static final int DEFAULT_MAXIMUM_PENDING_UPDATES = 100000;
+
+    // Number of stripes the pools are divided into. Must be a power of two.
+    private static final int STRIPE_COUNT = 16;
+
+    private final PoolStripe[] stripes = new PoolStripe[STRIPE_COUNT];
     private Statz plugin;
 
+    // Number of flushes that have been started and completed, per statistic.
+    private final AtomicLongArray startedFlushes = new AtomicLongArray(PlayerStat.values().length);
+    private final AtomicLongArray completedFlushes = new AtomicLongArray(PlayerStat.values().length);
+
+    // Whether the pools are being written to the database.
+    private final AtomicBoolean flushing = new AtomicBoolean(false);
+
+    // Whether new updates are registered. This is false when Statz is being disabled.
+    private volatile boolean acceptingUpdates = true;
+
+    // Journal of the updates in the pools, or null if the journal is disabled.
+    private volatile UpdateJournal journal = null;
+
+    // Makes sure that an update is in the same journal segment as the drain it is part of.
+    private final ReentrantReadWriteLock journalLock = new ReentrantReadWriteLock();
+
+    // Last journal segment that belongs to the updates of the last drain.
+    private volatile long drainedJournalSegment = 0;
+
+    // Updates that are stored on disk, because the database was unavailable.
+    private final SpillStore spillStore;
+
+    // Decides when to try again after the database was unavailable.
+    private final FlushBackoff flushBackoff;
+
+    // Number of updates that can be kept in the pools before they are spilled to disk.
+    private final int maximumPendingUpdates;
+
+    // Decides when the pools are written to the database.
+    private final FlushScheduler flushScheduler;
+
     public UpdatePoolManager(Statz instance) {
         this.plugin = instance;
+
+        for (int i = 0; i < STRIPE_COUNT; i++) {
+            stripes[i] = new PoolStripe();
+        }
+
+        this.spillStore = new SpillStore(instance, new File(instance.getDataFolder(), "spill"));
+        this.flushBackoff = new FlushBackoff(TimeUnit.SECONDS.toMillis(instance.getConfigHandler()
+                .getPeriodicSaveTime()), FlushBackoff.DEFAULT_MAXIMUM_DELAY, new Random());
+        this.maximumPendingUpdates = instance.getConfigHandler().getMaximumPendingUpdates();
+        this.flushScheduler = new FlushScheduler(TimeUnit.SECONDS.toMillis(instance.getConfigHandler()
+                .getPeriodicSaveTime()), instance.getConfigHandler().getFlushPoolSize(), instance.getConfigHandler()
+                .getFlushMemoryLimit() * 1024L * 1024L, instance.getConfigHandler().getFlushPriorities(), System
+                .currentTimeMillis());
     }
 
     /**
-     * Get a map containing every pool for each statistic. The pools are given in key-value pairs where the key is
-     * the type of statistic for the pool, and the value is the pool (list of queries) itself.
+     * Get the stripe that stores the updates of the given player.
      *
-     * @return a map of all pools.
+     * @param uuid UUID of the player
+     * @return the stripe that the updates of the player belong to.
      */
-    public Map<PlayerStat, List<Query>> getAllUpdateQueries() {
-        return updateQueries;
+    private PoolStripe getStripe(UUID uuid) {
+        // Queries without a UUID can never conflict, so it does not matter where we put them.
+        if (uuid == null) {
+            return stripes[0];
+        }
+
+        int hash = uuid.hashCode();
+
+        return stripes[(hash ^ (hash >>> 16)) & (STRIPE_COUNT - 1)];
     }
 
     /**
-     * Get a list of queries that are in the pool of the given statistic.
+     * Get a map containing every pool for each statistic. The pools are given in key-value pairs where the key is
+     * the type of statistic for the pool, and the value is the pool (list of queries) itself. Note that this map is
+     * a snapshot of the pools: altering it does not alter the 'real' pools.
      *
-     * @param statType Type of statistic.
-     * @return a list of queries that are in the pool.
+     * @return a map of all pools.
      */
-    private List<Query> getUpdateQueries(PlayerStat statType) {
-        if (!hasUpdateQueries(statType)) {
-            return new ArrayList<>();
+    public Map<PlayerStat, List<Query>> getAllUpdateQueries() {
+        Map<PlayerStat, List<Query>> pools = new EnumMap<>(PlayerStat.class);
+
+        for (PoolStripe stripe : stripes) {
+            synchronized (stripe) {
+                collectQueries(stripe.getBuffer(), pools);
+            }
         }
 
-        return this.updateQueries.get(statType);
+        return pools;
     }
 
     /**
@@ -84,48 +170,540 @@ public class UpdatePoolManager {
      * @return a list of queries that are in the pool.
      */
     public List<Query> getUpdateQueriesCopy(PlayerStat statType) {
-        return new ArrayList<>(this.getUpdateQueries(statType));
+        List<Query> queries = new ArrayList<>();
+
+        for (PoolStripe stripe : stripes) {
+            synchronized (stripe) {
+                Map<Object, PoolEntry> entries = stripe.getBuffer().get(statType);
+
+                if (entries == null) {
+                    continue;
+                }
+
+                for (PoolEntry entry : entries.values()) {
+                    queries.add(entry.toQuery());
+                }
+            }
+        }
+
+        return queries;
     }
 
     /**
-     * Get whether there is a pool for the given statistic. Note that a pool may exist but still be empty.
+     * Get whether there are queries in the pool of the given statistic.
      *
      * @param statType Type of statistic
-     * @return true if there is a pool for the given statistic, false otherwise.
+     * @return true if the pool of the given statistic is not empty, false otherwise.
      */
     public boolean hasUpdateQueries(PlayerStat statType) {
-        return updateQueries.containsKey(statType) && updateQueries.get(statType) != null;
+        for (PoolStripe stripe : stripes) {
+            synchronized (stripe) {
+                Map<Object, PoolEntry> entries = stripe.getBuffer().get(statType);
+
+                if (entries != null && !entries.isEmpty()) {
+                    return true;
+                }
+            }
+        }
+
+        return false;
     }
 
     /**
-     * Set the pool of the given statistic.
+     * Get the number of entries that are currently stored in all pools. Since conflicting queries are merged when
+     * they are added, this is the number of queries that will be sent to the database.
      *
-     * @param statType Type of statistic
-     * @param queries List of queries to set the pool to
+     * @return number of entries in the pools.
      */
-    private void setUpdateQueries(PlayerStat statType, List<Query> queries) {
-        this.updateQueries.put(statType, queries);
+    public int getPoolSize() {
+        int size = 0;
+
+        for (PoolStripe stripe : stripes) {
+            synchronized (stripe) {
+                for (Map<Object, PoolEntry> entries : stripe.getBuffer().values()) {
+                    size += entries.size();
+                }
+            }
+        }
+
+        return size;
     }
 
     /**
-     * Add a query to a pool of the given statistic.
+     * Get the number of entries that are currently stored in the pool of each statistic.
+     *
+     * @return number of entries per statistic. Statistics without entries are left out.
+     */
+    public Map<PlayerStat, Integer> getPoolSizes() {
+        Map<PlayerStat, Integer> sizes = new EnumMap<>(PlayerStat.class);
+
+        for (PoolStripe stripe : stripes) {
+            synchronized (stripe) {
+                for (Map.Entry<PlayerStat, Map<Object, PoolEntry>> stat : stripe.getBuffer().entrySet()) {
+                    if (!stat.getValue().isEmpty()) {
+                        sizes.merge(stat.getKey(), stat.getValue().size(), Integer::sum);
+                    }
+                }
+            }
+        }
+
+        return sizes;
+    }
+
+    /**
+     * Add a query to a pool of the given statistic. If the pool already has a query that conflicts with the given
+     * query, the value of the given query is added to the stored query.
      *
      * @param statType Type of statistic
      * @param query Query to add
+     * @return the sequence number of the update. See {@link PendingUpdates#getSequenceNumber()}.
+     */
+    public long addQuery(PlayerStat statType, Query query) {
+        // Rows that conflict are equal, so the row is the key of its entry. Rows without a UUID never conflict, so
+        // they always get their own entry.
+        StatRow row = StatRow.fromQuery(statType, query);
+        PoolStripe stripe = getStripe(row.getUUID());
+
+        synchronized (stripe) {
+            Map<Object, PoolEntry> entries = stripe.getEntries(statType);
+
+            PoolEntry entry = entries.get(row);
+
+            if (entry == null) {
+                entries.put(row, new PoolEntry(row));
+            } else {
+                entry.merge(row);
+            }
+
+            return stripe.nextSequenceNumber();
+        }
+    }
+
+    /**
+     * Take all queries that are currently in the pools and leave empty pools behind. Every stripe is swapped
+     * atomically, so each query that is added to the pool is either returned by this method or stays in the pool
+     * for the next call.
+     * <br>
+     * The returned queries are in flight until {@link #markFlushCompleted(PlayerStat)} is called for their statistic.
+     *
+     * @return a map of all pools that were drained, per statistic.
+     */
+    public Map<PlayerStat, List<Query>> drainUpdateQueries() {
+        Map<PlayerStat, List<Query>> pools = new EnumMap<>(PlayerStat.class);
+
+        List<Map<PlayerStat, Map<Object, PoolEntry>>> drainedBuffers = new ArrayList<>();
+
+        // No updates can be registered while we drain, so the journal segment matches the drained updates.
+        journalLock.writeLock().lock();
+
+        try {
+            for (PoolStripe stripe : stripes) {
+                synchronized (stripe) {
+                    drainedBuffers.add(stripe.drain());
+                }
+            }
+
+            UpdateJournal currentJournal = journal;
+
+            if (currentJournal != null) {
+                drainedJournalSegment = currentJournal.rotate();
+            }
+        } finally {
+            journalLock.writeLock().unlock();
+        }
+
+        // The drained buffers are not visible to other threads anymore, so we can read them without holding the lock.
+        for (Map<PlayerStat, Map<Object, PoolEntry>> drained : drainedBuffers) {
+            collectQueries(drained, pools);
+        }
+
+        return pools;
+    }
+
+    /**
+     * Take all queries of the given statistics that are currently in the pools. The pools of other statistics are
+     * left untouched. See {@link #drainUpdateQueries()}.
+     * <br>
+     * The journal can only forget about updates per segment, so when the journal is enabled, all pools are drained.
+     *
+     * @param statTypes Statistics to drain
+     * @return a map of all pools that were drained, per statistic.
+     */
+    public Map<PlayerStat, List<Query>> drainUpdateQueries(Set<PlayerStat> statTypes) {
+        if (journal != null) {
+            return drainUpdateQueries();
+        }
+
+        Map<PlayerStat, List<Query>> pools = new EnumMap<>(PlayerStat.class);
+
+        List<Map<PlayerStat, Map<Object, PoolEntry>>> drainedBuffers = new ArrayList<>();
+
+        for (PoolStripe stripe : stripes) {
+            synchronized (stripe) {
+                drainedBuffers.add(stripe.drain(statTypes));
+            }
+        }
+
+        for (Map<PlayerStat, Map<Object, PoolEntry>> drained : drainedBuffers) {
+            collectQueries(drained, pools);
+        }
+
+        return pools;
+    }
+
+    /**
+     * Start writing all updates that are registered to a journal on disk. Updates that were left in the journal
+     * (because the server crashed) are put back into the pools.
+     *
+     * @param directory    Folder of the journal
+     * @param syncInterval Time (in milliseconds) between two syncs of the journal to disk
+     */
+    public void openJournal(File directory, long syncInterval) {
+        UpdateJournal newJournal = new UpdateJournal(plugin.getLogger(), directory, syncInterval);
+
+        try {
+            // Add to the pools directly, as the cache is loaded from the database and the pools anyway.
+            int replayedUpdates = newJournal.open(this::addQuery);
+
+            if (replayedUpdates > 0) {
+                plugin.getLogger().info("Recovered " + replayedUpdates + " updates from the update journal.");
+            }
+        } catch (IOException e) {
+            plugin.getLogger().log(Level.SEVERE, "Could not open update journal. Updates will not be journaled:", e);
+            return;
+        }
+
+        journal = newJournal;
+    }
+
+    /**
+     * Stop writing updates to the journal. Updates that are still in the journal are kept, so they are recovered
+     * when the journal is opened again, unless they are written to the database in the meantime.
+     */
+    public void closeJournal() {
+        UpdateJournal currentJournal = journal;
+
+        if (currentJournal != null) {
+            currentJournal.close();
+        }
+    }
+
+    /**
+     * Remove the updates of the last drain from the journal. This should be called when all drained updates have
+     * been written to the database.
+     */
+    public void truncateJournal() {
+        UpdateJournal currentJournal = journal;
+
+        if (currentJournal != null) {
+            currentJournal.truncate(drainedJournalSegment);
+        }
+    }
+
+    /**
+     * Remove the updates of the last drain from the journal after some of them could not be written to the
+     * database. The updates that were put back into the pools (see {@link #markFlushFailed(PlayerStat)}) are added
+     * to the current segment first, so the journal holds exactly the updates that are not in the database. Without
+     * this, the updates of the tables that were written would be replayed (and written again) after a crash.
+     *
+     * @param restoredUpdates Updates that were put back into the pools, per statistic
+     */
+    public void truncateJournal(Map<PlayerStat, List<Query>> restoredUpdates) {
+        UpdateJournal currentJournal = journal;
+
+        if (currentJournal == null) {
+            return;
+        }
+
+        for (Map.Entry<PlayerStat, List<Query>> updates : restoredUpdates.entrySet()) {
+            for (Query query : updates.getValue()) {
+                currentJournal.append(updates.getKey(), query);
+            }
+        }
+
+        // Only forget the drained segments when the restored updates are safely on disk.
+        if (currentJournal.sync()) {
+            currentJournal.truncate(drainedJournalSegment);
+        }
+    }
+
+    /**
+     * Check whether the pools hold more updates than allowed. If so, they should be moved to the spill store (see
+     * {@link #spillUpdateQueries()}).
+     *
+     * @return true if the pools hold too many updates.
+     */
+    public boolean isAboveHighWaterMark() {
+        return getPoolSize() > maximumPendingUpdates;
+    }
+
+    /**
+     * Move all updates in the pools to the {@link SpillStore}, so they do not take up memory while the database is
+     * unavailable. The caller should hold the right to flush the pools (see {@link #tryStartFlush()}).
+     * <br>
+     * Note that spilled updates are not part of the pending updates of a player anymore, so the cache of a player may
+     * lack them until they have been written to the database.
+     *
+     * @return the number of updates that were spilled, or -1 if they could not be spilled. In that case, the updates
+     * stay in the pools.
+     */
+    public int spillUpdateQueries() {
+        Map<PlayerStat, List<Query>> pools = drainUpdateQueries();
+        Map<PlayerStat, List<Query>> updates = new EnumMap<>(PlayerStat.class);
+
+        if (pools.isEmpty()) {
+            return 0;
+        }
+
+        int spilledUpdates = 0;
+
+        for (Map.Entry<PlayerStat, List<Query>> pool : pools.entrySet()) {
+            markFlushStarted(pool.getKey());
+
+            List<Query> queries = Query.compress(pool.getValue());
+
+            updates.put(pool.getKey(), queries);
+            spilledUpdates += queries.size();
+        }
+
+        boolean spilled = spillStore.spill(updates);
+
+        for (PlayerStat statType : pools.keySet()) {
+            if (spilled) {
+                markFlushCompleted(statType);
+            } else {
+                markFlushFailed(statType);
+            }
+        }
+
+        if (!spilled) {
+            return -1;
+        }
+
+        // The updates are safe on disk, so we don't need to recover them from the journal.
+        truncateJournal();
+
+        return spilledUpdates;
+    }
+
+    /**
+     * Get the store of updates that were spilled to disk.
+     *
+     * @return the spill store.
+     */
+    public SpillStore getSpillStore() {
+        return spillStore;
+    }
+
+    /**
+     * Get the backoff that decides when to try to write to the database again after a failure.
+     *
+     * @return the flush backoff.
+     */
+    public FlushBackoff getFlushBackoff() {
+        return flushBackoff;
+    }
+
+    /**
+     * Get the scheduler that decides when the pools are written to the database.
+     *
+     * @return the flush scheduler.
+     */
+    public FlushScheduler getFlushScheduler() {
+        return flushScheduler;
+    }
+
+    /**
+     * Try to claim the right to write the pools to the database. Only one flush can run at the same time.
+     *
+     * @return true if the caller may flush the pools, false if another flush is still running.
+     */
+    public boolean tryStartFlush() {
+        return flushing.compareAndSet(false, true);
+    }
+
+    /**
+     * Claim the right to write the pools to the database, waiting for a running flush to finish if needed.
+     *
+     * @param timeout Maximum time (in milliseconds) to wait
+     * @return true if the caller may flush the pools, false if the running flush did not finish in time.
+     * @throws InterruptedException if the thread was interrupted while waiting.
      */
-    public void addQuery(PlayerStat statType, Query query) {
-        List<Query> queries = getUpdateQueries(statType);
+    public boolean tryStartFlush(long timeout) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
 
-        queries.add(query);
+        synchronized (flushing) {
+            while (!flushing.compareAndSet(false, true)) {
+                long remaining = deadline - System.nanoTime();
+
+                if (remaining <= 0) {
+                    return false;
+                }
 
-        this.setUpdateQueries(statType, queries);
+                TimeUnit.NANOSECONDS.timedWait(flushing, remaining);
+            }
+
+            return true;
+        }
+    }
+
+    /**
+     * Release the right to write the pools to the database. See {@link #tryStartFlush()}.
+     */
+    public void finishFlush() {
+        synchronized (flushing) {
+            flushing.set(false);
+            flushing.notifyAll();
+        }
+    }
+
+    /**
+     * Stop accepting new updates. Updates that are registered afterwards are ignored. This is used when Statz is
+     * disabled, so that the final sync writes all updates.
+     */
+    public void stopAcceptingUpdates() {
+        acceptingUpdates = false;
+    }
+
+    /**
+     * Check whether the pools are currently being written to the database.
+     *
+     * @return true if a flush is running, false otherwise.
+     */
+    public boolean isFlushing() {
+        return flushing.get();
+    }
+
+    /**
+     * Mark that the updates of a statistic are about to be written to the database. This should be called after the
+     * updates have been drained, but before anything is written.
+     *
+     * @param statType Type of statistic
+     */
+    public void markFlushStarted(PlayerStat statType) {
+        startedFlushes.incrementAndGet(statType.ordinal());
+    }
+
+    /**
+     * Mark that the updates of a statistic have been written to the database. The updates of this statistic are not
+     * in flight anymore.
+     *
+     * @param statType Type of statistic
+     */
+    public void markFlushCompleted(PlayerStat statType) {
+        for (PoolStripe stripe : stripes) {
+            synchronized (stripe) {
+                stripe.clearInFlight(statType);
+            }
+        }
+
+        completedFlushes.incrementAndGet(statType.ordinal());
+    }
+
+    /**
+     * Mark that the updates of a statistic could not be written to the database. The updates that were in flight are
+     * put back into the pools, so they are written by the next flush.
+     *
+     * @param statType Type of statistic
+     */
+    public void markFlushFailed(PlayerStat statType) {
+        for (PoolStripe stripe : stripes) {
+            synchronized (stripe) {
+                stripe.restoreInFlight(statType);
+            }
+        }
+
+        completedFlushes.incrementAndGet(statType.ordinal());
+    }
+
+    /**
+     * Get a snapshot of the number of flushes that have been started and completed for each statistic.
+     *
+     * @return a snapshot of the flush epochs.
+     */
+    public FlushEpochs getFlushEpochs() {
+        int size = startedFlushes.length();
+
+        long[] started = new long[size];
+        long[] completed = new long[size];
+
+        for (int i = 0; i < size; i++) {
+            started[i] = startedFlushes.get(i);
+            completed[i] = completedFlushes.get(i);
+        }
+
+        return new FlushEpochs(started, completed);
+    }
+
+    /**
+     * Get all updates of a player that have not been written to the database yet. This includes the updates that
+     * are in the pools and the updates that are in flight.
+     *
+     * @param uuid UUID of the player
+     * @return a snapshot of the pending updates of the player.
+     */
+    public PendingUpdates getPendingUpdates(UUID uuid) {
+        PoolStripe stripe = getStripe(uuid);
+
+        Map<PlayerStat, List<Query>> updates = new EnumMap<>(PlayerStat.class);
+
+        synchronized (stripe) {
+            collectQueries(stripe.getInFlight(), uuid, updates);
+            collectQueries(stripe.getBuffer(), uuid, updates);
+
+            return new PendingUpdates(updates, stripe.getSequenceNumber());
+        }
+    }
+
+    /**
+     * Convert the entries of a player in a buffer to queries and add them to the given map.
+     *
+     * @param buffer  Buffer to read
+     * @param uuid    UUID of the player
+     * @param updates Map to add the queries to
+     */
+    private void collectQueries(Map<PlayerStat, Map<Object, PoolEntry>> buffer, UUID uuid, Map<PlayerStat,
+            List<Query>> updates) {
+        for (Map.Entry<PlayerStat, Map<Object, PoolEntry>> stat : buffer.entrySet()) {
+            for (PoolEntry entry : stat.getValue().values()) {
+                if (!uuid.equals(entry.getUUID())) {
+                    continue;
+                }
+
+                updates.computeIfAbsent(stat.getKey(), statType -> new ArrayList<>()).add(entry.toQuery());
+            }
+        }
+    }
+
+    /**
+     * Convert the entries of a buffer to queries and add them to the given pools.
+     *
+     * @param buffer Buffer to read
+     * @param pools  Pools to add the queries to
+     */
+    private void collectQueries(Map<PlayerStat, Map<Object, PoolEntry>> buffer, Map<PlayerStat, List<Query>> pools) {
+        for (Map.Entry<PlayerStat, Map<Object, PoolEntry>> stat : buffer.entrySet()) {
+            if (stat.getValue().isEmpty()) {
+                continue;
+            }
+
+            List<Query> queries = pools.computeIfAbsent(stat.getKey(), statType -> new ArrayList<>());
+
+            for (PoolEntry entry : stat.getValue().values()) {
+                queries.add(entry.toQuery());
+            }
+        }
     }
 
     /**
      * Clear all pools.
      */
     public void clearAllUpdateQueries() {
-        updateQueries.clear();
+        for (PoolStripe stripe : stripes) {
+            synchronized (stripe) {
+                stripe.swap();
+            }
+        }
     }
 
     /**
@@ -134,7 +712,11 @@ public class UpdatePoolManager {
      * @param statType Type of statistic
      */
     public void clearUpdateQueries(PlayerStat statType) {
-        this.updateQueries.remove(statType);
+        for (PoolStripe stripe : stripes) {
+            synchronized (stripe) {
+                stripe.getBuffer().remove(statType);
+            }
+        }
     }
 
     /**
@@ -156,17 +738,38 @@ public class UpdatePoolManager {
             throw new IllegalArgumentException("UUID cannot be null.");
         }
 
-        // Add query to list of update queries
-        this.addQuery(statType, query);
+        // Statz is shutting down, so the update would not be written anymore.
+        if (!acceptingUpdates) {
+            plugin.debugMessage("Ignored update of " + uuid + " as Statz is shutting down.");
+            return;
+        }
+
+        long sequenceNumber;
 
-        // Update cache of a player with this new update query. Run this async as it can be an intensive task.
-        plugin.getServer().getScheduler().runTaskAsynchronously(plugin, new Runnable() {
-            @Override
-            public void run() {
-                plugin.getCachingManager().addCachedQuery(statType, query, uuid);
+        UpdateJournal currentJournal = journal;
+
+        if (currentJournal == null) {
+            // Add query to list of update queries
+            sequenceNumber = this.addQuery(statType, query);
+        } else {
+            journalLock.readLock().lock();
+
+            try {
+                // Add query to list of update queries and to the journal, so it is not lost when the server crashes.
+                sequenceNumber = this.addQuery(statType, query);
+                currentJournal.append(statType, query);
+            } finally {
+                journalLock.readLock().unlock();
             }
-        });
+        }
 
+        // Update cache of a player with this new update query. This is done by a separate thread, as it can be an
+        // intensive task.
+        if (!plugin.getCacheApplier().addUpdate(statType, query, uuid, sequenceNumber)) {
+            // The cache misses this update, so reconcile it with the database and the pending updates instead.
+            plugin.getCachingManager().invalidatePlayerCache(uuid);
+            plugin.getTaskManager().refreshPlayerCache(uuid);
+        }
     }
 
     /**
@@ -174,7 +777,7 @@ public class UpdatePoolManager {
      */
     public void printPool() {
 
-        if (this.updateQueries.isEmpty()) {
+        if (this.getPoolSize() == 0) {
             System.out.println("POOL IS EMPTY");
             return;
         }
@@ -0,0 +1,178 @@
+package me.staartvin.statz.update;
+
+import me.staartvin.statz.database.datatype.Query;
+import me.staartvin.statz.datamanager.player.PlayerStat;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * An update that is stored on disk by the {@link UpdateJournal} or the {@link SpillStore}. Every record consists of
+ * its length, a CRC32 checksum and the statistic and columns of the update. This way, a record that was only partly
+ * written (e.g. because the server crashed) can be recognized.
+ */
+class UpdateRecord {
+
+    // Types of values that can be stored in a record.
+    private static final byte TYPE_STRING = 0;
+    private static final byte TYPE_INTEGER = 1;
+    private static final byte TYPE_LONG = 2;
+    private static final byte TYPE_DOUBLE = 3;
+
+    private final PlayerStat statType;
+    private final Query query;
+
+    private UpdateRecord(PlayerStat statType, Query query) {
+        this.statType = statType;
+        this.query = query;
+    }
+
+    PlayerStat getStatType() {
+        return statType;
+    }
+
+    Query getQuery() {
+        return query;
+    }
+
+    /**
+     * Convert an update to a record.
+     *
+     * @param statType Type of statistic
+     * @param query    Update to convert
+     * @return the bytes of the record.
+     * @throws IOException if the update could not be converted.
+     */
+    static byte[] encode(PlayerStat statType, Query query) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+
+        try (DataOutputStream output = new DataOutputStream(bytes)) {
+            output.writeUTF(statType.name());
+
+            Map<String, Object> data = query.getData();
+
+            output.writeInt(data.size());
+
+            for (Map.Entry<String, Object> column : data.entrySet()) {
+                output.writeUTF(column.getKey());
+
+                Object value = column.getValue();
+
+                if (value instanceof Integer) {
+                    output.writeByte(TYPE_INTEGER);
+                    output.writeInt((Integer) value);
+                } else if (value instanceof Long) {
+                    output.writeByte(TYPE_LONG);
+                    output.writeLong((Long) value);
+                } else if (value instanceof Number) {
+                    output.writeByte(TYPE_DOUBLE);
+                    output.writeDouble(((Number) value).doubleValue());
+                } else {
+                    output.writeByte(TYPE_STRING);
+                    output.writeUTF(String.valueOf(value));
+                }
+            }
+        }
+
+        byte[] payload = bytes.toByteArray();
+
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+
+        ByteBuffer record = ByteBuffer.allocate(Integer.BYTES + Long.BYTES + payload.length);
+
+        record.putInt(payload.length);
+        record.putLong(crc.getValue());
+        record.put(payload);
+
+        return record.array();
+    }
+
+    /**
+     * Read records from a buffer. Reading stops at the first record that is incomplete or does not match its
+     * checksum, so the buffer has remaining bytes if not all records could be read. Records that match their
+     * checksum, but cannot be converted to an update (e.g. a statistic that does not exist anymore) are skipped.
+     *
+     * @param buffer Buffer to read from
+     * @return the records that were read, in order.
+     */
+    static List<UpdateRecord> readAll(ByteBuffer buffer) {
+        List<UpdateRecord> records = new ArrayList<>();
+
+        while (buffer.remaining() >= Integer.BYTES + Long.BYTES) {
+            int start = buffer.position();
+
+            int length = buffer.getInt();
+            long checksum = buffer.getLong();
+
+            if (length < 0 || length > buffer.remaining()) {
+                buffer.position(start);
+                break;
+            }
+
+            byte[] payload = new byte[length];
+            buffer.get(payload);
+
+            CRC32 crc = new CRC32();
+            crc.update(payload);
+
+            if (crc.getValue() != checksum) {
+                buffer.position(start);
+                break;
+            }
+
+            try {
+                records.add(decode(payload));
+            } catch (IOException | IllegalArgumentException e) {
+                // Skip this record, but read the others.
+            }
+        }
+
+        return records;
+    }
+
+    /**
+     * Convert the payload of a record to an update.
+     *
+     * @param payload Bytes of the record (without length and checksum)
+     * @return the update of the record.
+     */
+    private static UpdateRecord decode(byte[] payload) throws IOException {
+        try (DataInputStream input = new DataInputStream(new ByteArrayInputStream(payload))) {
+            PlayerStat statType = PlayerStat.valueOf(input.readUTF());
+
+            int columns = input.readInt();
+
+            Map<String, Object> data = new HashMap<>();
+
+            for (int i = 0; i < columns; i++) {
+                String column = input.readUTF();
+
+                switch (input.readByte()) {
+                    case TYPE_INTEGER:
+                        data.put(column, input.readInt());
+                        break;
+                    case TYPE_LONG:
+                        data.put(column, input.readLong());
+                        break;
+                    case TYPE_DOUBLE:
+                        data.put(column, input.readDouble());
+                        break;
+                    default:
+                        data.put(column, input.readUTF());
+                        break;
+                }
+            }
+
+            Query query = new Query(data);
+            query.setSpecification(statType.getSpecification());
+
+            return new UpdateRecord(statType, query);
+        }
+    }
+}
@@ -0,0 +1,88 @@
+import me.staartvin.statz.datamanager.player.PlayerStat;
+import me.staartvin.statz.update.FlushPriority;
+import me.staartvin.statz.update.FlushScheduler;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.*;
+
+public class FlushSchedulerTest {
+
+    @Test
+    public void testPrioritiesDecideWhenStatsAreDue() {
+        Map<PlayerStat, FlushPriority> priorities = new EnumMap<>(PlayerStat.class);
+        priorities.put(PlayerStat.TIME_PLAYED, FlushPriority.LAZY);
+        priorities.put(PlayerStat.KILLS_PLAYERS, FlushPriority.FAST);
+
+        FlushScheduler scheduler = new FlushScheduler(10000, 100, 1024 * 1024, priorities, 0);
+
+        Map<PlayerStat, Integer> poolSizes = new EnumMap<>(PlayerStat.class);
+        poolSizes.put(PlayerStat.TIME_PLAYED, 1);
+        poolSizes.put(PlayerStat.KILLS_PLAYERS, 1);
+        poolSizes.put(PlayerStat.JOINS, 1);
+
+        Assert.assertTrue(scheduler.getDueStats(poolSizes, 1000).isEmpty());
+        Assert.assertEquals(EnumSet.of(PlayerStat.KILLS_PLAYERS), scheduler.getDueStats(poolSizes, 2000));
+        Assert.assertEquals(EnumSet.of(PlayerStat.KILLS_PLAYERS, PlayerStat.JOINS), scheduler.getDueStats
+                (poolSizes, 10000));
+        Assert.assertEquals(3, scheduler.getDueStats(poolSizes, 60000).size());
+
+        // Empty pools are never written.
+        poolSizes.replaceAll((statType, size) -> 0);
+
+        Assert.assertTrue(scheduler.getDueStats(poolSizes, 60000).isEmpty());
+    }
+
+    @Test
+    public void testLargePoolsAreWrittenImmediately() {
+        Map<PlayerStat, FlushPriority> priorities = new EnumMap<>(PlayerStat.class);
+        priorities.put(PlayerStat.TIME_PLAYED, FlushPriority.LAZY);
+        priorities.put(PlayerStat.KILLS_PLAYERS, FlushPriority.FAST);
+
+        FlushScheduler scheduler = new FlushScheduler(10000, 100, 1024 * 1024, priorities, 0);
+
+        Map<PlayerStat, Integer> poolSizes = new EnumMap<>(PlayerStat.class);
+        poolSizes.put(PlayerStat.TIME_PLAYED, 40);
+        poolSizes.put(PlayerStat.KILLS_PLAYERS, 40);
+        poolSizes.put(PlayerStat.JOINS, 40);
+
+        Assert.assertEquals(3, scheduler.getDueStats(poolSizes, 1).size());
+
+        // Pool is small, but takes up more memory than allowed.
+        scheduler = new FlushScheduler(10000, 100000, 1024, new HashMap<>(), 0);
+
+        poolSizes.replaceAll((statType, size) -> 2);
+
+        Assert.assertEquals(3, scheduler.getDueStats(poolSizes, 1).size());
+    }
+
+    @Test
+    public void testSlowFlushesStretchIntervals() {
+        Map<PlayerStat, FlushPriority> priorities = new EnumMap<>(PlayerStat.class);
+        priorities.put(PlayerStat.TIME_PLAYED, FlushPriority.LAZY);
+        priorities.put(PlayerStat.KILLS_PLAYERS, FlushPriority.FAST);
+
+        FlushScheduler scheduler = new FlushScheduler(10000, 100, 1024 * 1024, priorities, 0);
+
+        Assert.assertEquals(10000, scheduler.getInterval(PlayerStat.JOINS));
+
+        // Flushes take three seconds, while they should take at most one second.
+        scheduler.onFlushCompleted(EnumSet.of(PlayerStat.JOINS), 10000, 13000);
+
+        Assert.assertEquals(30000, scheduler.getInterval(PlayerStat.JOINS));
+
+        Map<PlayerStat, Integer> poolSizes = new EnumMap<>(PlayerStat.class);
+        poolSizes.put(PlayerStat.TIME_PLAYED, 1000);
+        poolSizes.put(PlayerStat.KILLS_PLAYERS, 1000);
+        poolSizes.put(PlayerStat.JOINS, 1000);
+
+        // Even large pools wait until the database had time to recover.
+        Assert.assertTrue(scheduler.getDueStats(poolSizes, 14000).isEmpty());
+        Assert.assertEquals(3, scheduler.getDueStats(poolSizes, 16000).size());
+
+        poolSizes.replaceAll((statType, size) -> 1);
+
+        Assert.assertFalse(scheduler.getDueStats(poolSizes, 39000).contains(PlayerStat.JOINS));
+        Assert.assertTrue(scheduler.getDueStats(poolSizes, 40000).contains(PlayerStat.JOINS));
+    }
+}
@@ -0,0 +1,76 @@
+import me.staartvin.statz.leaderboard.Leaderboard;
+import me.staartvin.statz.leaderboard.LeaderboardEntry;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.*;
+
+public class LeaderboardTest {
+
+    private static final UUID FIRST = UUID.fromString("00000000-0000-0000-0000-000000000001");
+    private static final UUID SECOND = UUID.fromString("00000000-0000-0000-0000-000000000002");
+    private static final UUID THIRD = UUID.fromString("00000000-0000-0000-0000-000000000003");
+    private static final UUID OTHER = UUID.fromString("00000000-0000-0000-0000-000000000004");
+
+    @Test
+    public void testUpdatesChangeRanks() {
+        Leaderboard leaderboard = new Leaderboard(3);
+
+        leaderboard.load(Arrays.asList(new LeaderboardEntry(FIRST, 30, 1), new LeaderboardEntry(SECOND, 20, 2), new
+                LeaderboardEntry(THIRD, 10, 3)), 1000);
+
+        Assert.assertFalse(leaderboard.isStale());
+
+        leaderboard.applyUpdate(THIRD, 25, null);
+        leaderboard.applyUpdate(SECOND, 10, null);
+
+        List<LeaderboardEntry> top = leaderboard.getTop(3);
+
+        Assert.assertEquals(THIRD, top.get(0).getUUID());
+        Assert.assertEquals(35, top.get(0).getValue(), 0);
+
+        // Players with the same total share a rank.
+        Assert.assertEquals(2, top.get(1).getRank());
+        Assert.assertEquals(2, top.get(2).getRank());
+        Assert.assertEquals(2, leaderboard.getEntry(SECOND).getRank());
+        Assert.assertNull(leaderboard.getEntry(OTHER));
+        Assert.assertFalse(leaderboard.isStale());
+    }
+
+    @Test
+    public void testUnknownPlayersMakeLeaderboardStale() {
+        Leaderboard leaderboard = new Leaderboard(3);
+
+        leaderboard.load(Arrays.asList(new LeaderboardEntry(FIRST, 30, 1), new LeaderboardEntry(SECOND, 20, 2), new
+                LeaderboardEntry(THIRD, 10, 3)), 1000);
+
+        // The player cannot have passed the lowest player.
+        leaderboard.applyUpdate(OTHER, 5, 8.0);
+        Assert.assertFalse(leaderboard.isStale());
+
+        // We cannot tell whether the player has passed the lowest player.
+        leaderboard.applyUpdate(OTHER, 5, null);
+        Assert.assertTrue(leaderboard.isStale());
+    }
+
+    @Test
+    public void testCompleteLeaderboardAddsNewPlayers() {
+        Leaderboard leaderboard = new Leaderboard(2);
+
+        leaderboard.load(Collections.singletonList(new LeaderboardEntry(FIRST, 10, 1)), 1000);
+
+        leaderboard.applyUpdate(SECOND, 20, null);
+        leaderboard.applyUpdate(THIRD, 15, null);
+
+        List<LeaderboardEntry> top = leaderboard.getTop(5);
+
+        Assert.assertEquals(2, top.size());
+        Assert.assertEquals(SECOND, top.get(0).getUUID());
+        Assert.assertEquals(THIRD, top.get(1).getUUID());
+        Assert.assertFalse(leaderboard.isStale());
+
+        // The leaderboard is full, so it may now miss players.
+        leaderboard.applyUpdate(FIRST, 1, null);
+        Assert.assertTrue(leaderboard.isStale());
+    }
+}
@@ -0,0 +1,47 @@
+import me.staartvin.statz.placeholders.PlaceholderCache;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.UUID;
+
+public class PlaceholderCacheTest {
+
+    @Test
+    public void testResultsExpire() {
+        PlaceholderCache cache = new PlaceholderCache(1000);
+        UUID uuid = UUID.randomUUID();
+
+        cache.put(uuid, "joins", "5.0", 10000);
+
+        Assert.assertEquals("5.0", cache.get(uuid, "joins", 10999));
+        Assert.assertNull(cache.get(uuid, "deaths", 10999));
+        Assert.assertNull(cache.get(UUID.randomUUID(), "joins", 10999));
+        Assert.assertNull(cache.get(uuid, "joins", 11000));
+    }
+
+    @Test
+    public void testLatestResultOutlivesExpiry() {
+        PlaceholderCache cache = new PlaceholderCache(1000);
+        UUID uuid = UUID.randomUUID();
+
+        cache.put(uuid, "rank_joins", "12", 10000);
+
+        Assert.assertNull(cache.get(uuid, "rank_joins", 11000));
+        Assert.assertEquals("12", cache.getLatest(uuid, "rank_joins"));
+
+        // Expired results are removed when a result is stored after the clean up interval.
+        cache.put(uuid, "joins", "5.0", 80000);
+
+        Assert.assertNull(cache.getLatest(uuid, "rank_joins"));
+    }
+
+    @Test
+    public void testDisabledCacheStoresNothing() {
+        PlaceholderCache cache = new PlaceholderCache(0);
+        UUID uuid = UUID.randomUUID();
+
+        cache.put(uuid, "joins", "5.0", 10000);
+
+        Assert.assertNull(cache.get(uuid, "joins", 10000));
+    }
+}
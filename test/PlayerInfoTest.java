@@ -1,4 +1,5 @@
 import me.staartvin.statz.database.datatype.Query;
+import me.staartvin.statz.database.datatype.RowRequirement;
 import me.staartvin.statz.datamanager.player.PlayerInfo;
 import me.staartvin.statz.datamanager.player.PlayerStat;
 import me.staartvin.statz.util.StatzUtil;
@@ -237,4 +238,48 @@ public class PlayerInfoTest {
         Assert.assertEquals(111, nonConflictingPlayerInfo.getTotalValue(statType), 0);
         Assert.assertEquals(53, nonConflictingPlayerInfo.getTotalValue(statType2), 0);
     }
+
+    // Test that merged rows are summed in place and rows that were handed out are not changed.
+    @Test
+    public void testMergeRowsInPlace() {
+        UUID uuid = UUID.fromString("3657b9cc-2518-4265-ad69-323e11286ce2");
+        PlayerStat statType = PlayerStat.KILLS_MOBS;
+
+        PlayerInfo playerInfo = new PlayerInfo(uuid);
+
+        playerInfo.mergeRow(statType, StatzUtil.makeQuery(
+                "UUID", uuid,
+                "Mob", "COW",
+                "World", "worldName1",
+                "value", 2));
+
+        List<Query> rowsBefore = playerInfo.getDataOfPlayerStat(statType);
+
+        for (int i = 0; i < 100; i++) {
+            playerInfo.mergeRow(statType, StatzUtil.makeQuery(
+                    "UUID", uuid,
+                    "Mob", "COW",
+                    "World", "worldName1",
+                    "value", 0.5));
+        }
+
+        playerInfo.mergeRow(statType, StatzUtil.makeQuery(
+                "UUID", uuid,
+                "Mob", "PIG",
+                "World", "worldName1",
+                "value", 3));
+
+        // Verify that conflicting rows were merged into one row
+        Assert.assertEquals(2, playerInfo.getNumberOfRows(statType));
+
+        // Verify that values are correct, with and without requirements
+        Assert.assertEquals(55, playerInfo.getTotalValue(statType), 0);
+        Assert.assertEquals(52, playerInfo.getTotalValue(statType, new RowRequirement("mob", "COW")), 0);
+        Assert.assertEquals(3, playerInfo.getTotalValue(statType, new RowRequirement("mob", "PIG"),
+                new RowRequirement("world", "worldName1")), 0);
+        Assert.assertEquals(0, playerInfo.getTotalValue(statType, new RowRequirement("world", "worldName2")), 0);
+
+        // Verify that the row that was handed out before the merges did not change
+        Assert.assertEquals(2, rowsBefore.get(0).getValue(), 0);
+    }
 }
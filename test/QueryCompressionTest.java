@@ -0,0 +1,182 @@
+import me.staartvin.statz.database.datatype.Query;
+import me.staartvin.statz.database.datatype.StatRow;
+import me.staartvin.statz.datamanager.player.PlayerStat;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.*;
+
+public class QueryCompressionTest {
+
+    private static final String[] UUIDS = {"3657b9cc-2518-4265-ad69-323e11286ce2",
+            "c019cc4e-e9b9-4140-9cf5-07338a21659f", "e5a3b2a4-3b1c-4f36-9c43-8d2b1f0f4f6e"};
+
+    private static final String[] WORLDS = {"world", "world_nether", "world_the_end"};
+
+    private static final String[] MOBS = {"COW", "PIG", "ZOMBIE", "SKELETON"};
+
+    /**
+     * Compress queries the way UpdateDatabaseTask used to do it, by checking every query against every other query.
+     *
+     * @param queries Queries to compress
+     * @return compressed queries
+     */
+    private List<Query> compressLegacy(List<Query> queries) {
+        List<Query> updates = new ArrayList<>(queries);
+        List<Query> convertedQueries = new ArrayList<>();
+        List<Query> resultingQueries = new ArrayList<>();
+
+        for (Iterator<Query> iterator = updates.iterator(); iterator.hasNext(); ) {
+            Query query = iterator.next();
+
+            if (convertedQueries.contains(query)) {
+                continue;
+            }
+
+            iterator.remove();
+
+            List<Query> conflictingQueries = query.findConflicts(updates);
+
+            convertedQueries.addAll(conflictingQueries);
+
+            resultingQueries.add(query.resolveConflicts(conflictingQueries));
+        }
+
+        return resultingQueries;
+    }
+
+    /**
+     * Create a random query that looks like a query of one of the tables of Statz.
+     *
+     * @param random Random generator to use
+     * @param table  Type of table (0 to 3) the query should belong to
+     * @return a random query
+     */
+    private Query randomQuery(Random random, int table) {
+        Map<String, Object> data = new HashMap<>();
+
+        data.put("uuid", UUIDS[random.nextInt(UUIDS.length)]);
+
+        switch (table) {
+            case 0:
+                // Players table
+                data.put("playerName", "player" + random.nextInt(2));
+                break;
+            case 1:
+                // Joins table
+                data.put("value", random.nextInt(10) + 1);
+                break;
+            case 2:
+                // Distance travelled table
+                data.put("world", WORLDS[random.nextInt(WORLDS.length)]);
+                data.put("moveType", random.nextBoolean() ? "WALK" : "SWIM");
+                data.put("value", random.nextDouble() * 10);
+                break;
+            default:
+                // Killed mobs table
+                data.put("world", WORLDS[random.nextInt(WORLDS.length)]);
+                data.put("mob", MOBS[random.nextInt(MOBS.length)]);
+                data.put("value", random.nextInt(5) + 1);
+                break;
+        }
+
+        return new Query(data);
+    }
+
+    @Test
+    public void testCompressionMatchesLegacyCompression() {
+        Random random = new Random(1337);
+
+        for (int run = 0; run < 200; run++) {
+            List<Query> pool = new ArrayList<>();
+
+            // A pool only contains queries of one statistic.
+            int table = random.nextInt(4);
+            int size = random.nextInt(300);
+
+            for (int i = 0; i < size; i++) {
+                pool.add(randomQuery(random, table));
+            }
+
+            List<Query> expected = compressLegacy(pool);
+            List<Query> actual = Query.compress(pool);
+
+            Assert.assertEquals(expected.size(), actual.size());
+
+            for (int i = 0; i < expected.size(); i++) {
+                Query expectedQuery = expected.get(i);
+                Query actualQuery = actual.get(i);
+
+                Assert.assertEquals(expectedQuery.getFilteredCopy("value").getData(),
+                        actualQuery.getFilteredCopy("value").getData());
+                Assert.assertEquals(expectedQuery.hasColumn("value"), actualQuery.hasColumn("value"));
+                Assert.assertEquals(expectedQuery.getValue(), actualQuery.getValue(), 0.000001);
+            }
+        }
+    }
+
+    @Test
+    public void testConflictKeyMatchesConflicts() {
+        Random random = new Random(42);
+
+        for (int run = 0; run < 5000; run++) {
+            Query queryA = randomQuery(random, random.nextInt(4));
+            Query queryB = randomQuery(random, random.nextInt(4));
+
+            boolean conflicting = queryA.conflicts(queryB) && queryB.conflicts(queryA);
+
+            Assert.assertEquals(conflicting, queryA.conflictKey().equals(queryB.conflictKey()));
+        }
+    }
+
+    @Test
+    public void testStatRowMatchesConflicts() {
+        Random random = new Random(7);
+
+        for (int run = 0; run < 5000; run++) {
+            Query queryA = randomQuery(random, random.nextInt(4));
+            Query queryB = randomQuery(random, random.nextInt(4));
+
+            StatRow rowA = StatRow.fromQuery(PlayerStat.KILLS_MOBS, queryA);
+            StatRow rowB = StatRow.fromQuery(PlayerStat.KILLS_MOBS, queryB);
+
+            boolean conflicting = queryA.conflicts(queryB) && queryB.conflicts(queryA);
+
+            Assert.assertEquals(conflicting, rowA.equals(rowB));
+            Assert.assertTrue(!conflicting || rowA.hashCode() == rowB.hashCode());
+
+            // Converting back to a query does not lose any data.
+            Assert.assertEquals(queryA.getFilteredCopy("value").getData(), rowA.toQuery().getFilteredCopy("value")
+                    .getData());
+            Assert.assertEquals(queryA.getValue(), rowA.toQuery().getValue(), 0);
+        }
+    }
+
+    @Test
+    public void testCompressionDoesNotAlterInput() {
+        Query queryA = new Query(UUID.fromString(UUIDS[0]));
+        queryA.setValue("value", 5);
+
+        Query queryB = new Query(UUID.fromString(UUIDS[0]));
+        queryB.setValue("value", 6);
+
+        List<Query> compressed = Query.compress(Arrays.asList(queryA, queryB));
+
+        Assert.assertEquals(1, compressed.size());
+        Assert.assertEquals(11, compressed.get(0).getValue(), 0);
+        Assert.assertEquals(5, queryA.getValue(), 0);
+        Assert.assertEquals(6, queryB.getValue(), 0);
+    }
+
+    @Test
+    public void testQueriesWithoutUUIDAreNotMerged() {
+        Query queryA = new Query();
+        queryA.setValue("value", 5);
+
+        Query queryB = new Query();
+        queryB.setValue("value", 6);
+
+        Assert.assertNull(queryA.conflictKey());
+        Assert.assertEquals(2, Query.compress(Arrays.asList(queryA, queryB)).size());
+    }
+}
@@ -0,0 +1,30 @@
+import me.staartvin.statz.datamanager.player.PlayerStat;
+import me.staartvin.statz.leaderboard.LeaderboardEntry;
+import me.staartvin.statz.placeholders.RankingSnapshot;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.UUID;
+
+public class RankingSnapshotTest {
+
+    @Test
+    public void testLookupByPositionAndPlayer() {
+        UUID first = UUID.randomUUID();
+        UUID second = UUID.randomUUID();
+
+        RankingSnapshot snapshot = new RankingSnapshot(PlayerStat.JOINS, Arrays.asList(new LeaderboardEntry(first,
+                20, 1), new LeaderboardEntry(second, 20, 1)), Arrays.asList("Alice", null));
+
+        Assert.assertEquals(2, snapshot.size());
+        Assert.assertEquals(first, snapshot.getEntry(1).getUUID());
+        Assert.assertEquals("Alice", snapshot.getName(1));
+        Assert.assertNull(snapshot.getName(2));
+        Assert.assertEquals(1, snapshot.getEntry(second).getRank());
+
+        Assert.assertNull(snapshot.getEntry(0));
+        Assert.assertNull(snapshot.getEntry(3));
+        Assert.assertNull(snapshot.getEntry(UUID.randomUUID()));
+    }
+}
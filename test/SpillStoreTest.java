@@ -0,0 +1,210 @@
+import me.staartvin.statz.database.DatabaseConnector;
+import me.staartvin.statz.database.datatype.Query;
+import me.staartvin.statz.database.datatype.RowRequirement;
+import me.staartvin.statz.database.datatype.Table;
+import me.staartvin.statz.database.datatype.sqlite.SQLiteTable;
+import me.staartvin.statz.datamanager.player.PlayerStat;
+import me.staartvin.statz.update.FlushBackoff;
+import me.staartvin.statz.update.SpillStore;
+import me.staartvin.statz.util.StatzUtil;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.util.*;
+
+public class SpillStoreTest {
+
+    private static final String UUID_A = "3657b9cc-2518-4265-ad69-323e11286ce2";
+    private static final String UUID_B = "c019cc4e-e9b9-4140-9cf5-07338a21659f";
+
+    /**
+     * Connector that keeps written rows in memory and fails writes to tables that are marked as unavailable.
+     */
+    private static class FaultyConnector extends DatabaseConnector {
+
+        private final Set<String> unavailableTables = new HashSet<>();
+        private final Map<String, List<Query>> writtenRows = new LinkedHashMap<>();
+        private boolean available = true;
+
+        FaultyConnector() {
+            super(null);
+        }
+
+        @Override
+        public boolean setBatchObjects(Table table, List<Query> queries, SET_OPERATION mode) {
+            if (!available || unavailableTables.contains(table.getTableName())) {
+                return false;
+            }
+
+            writtenRows.computeIfAbsent(table.getTableName(), name -> new ArrayList<>()).addAll(queries);
+            return true;
+        }
+
+        private int getWrittenRows(PlayerStat statType) {
+            List<Query> rows = writtenRows.get(DatabaseConnector.getTable(statType).getTableName());
+            return rows == null ? 0 : rows.size();
+        }
+
+        @Override
+        public void setObjects(Table table, Query results, SET_OPERATION mode) {
+        }
+
+        @Override
+        public void loadTables() {
+        }
+
+        @Override
+        public Connection getConnection() {
+            return null;
+        }
+
+        @Override
+        public void load() {
+        }
+
+        @Override
+        public List<Query> getObjects(Table table, RowRequirement... requirements) {
+            return new ArrayList<>();
+        }
+
+        @Override
+        public List<Query> getObjects(Table table, String columnName, Collection<String> values) {
+            return new ArrayList<>();
+        }
+
+        @Override
+        public Map<Table, List<Query>> getObjects(Collection<Table> tables, String columnName, String value) {
+            return new HashMap<>();
+        }
+
+        @Override
+        public void purgeData(UUID uuid) {
+        }
+
+        @Override
+        public ResultSet sendQuery(String query, boolean wantResult) {
+            return null;
+        }
+
+        @Override
+        public List<ResultSet> sendQueries(List<String> queries, boolean wantResult) {
+            return new ArrayList<>();
+        }
+
+        @Override
+        public boolean createBackup(String identifier) {
+            return false;
+        }
+    }
+
+    @Test
+    public void testReplayAfterOutage() throws IOException {
+        FaultyConnector connector = new FaultyConnector();
+
+        if (DatabaseConnector.getTable(PlayerStat.JOINS) == null) {
+            connector.addTable(new SQLiteTable(PlayerStat.JOINS.getTableName()));
+        }
+
+        File directory = Files.createTempDirectory("statz-spill").toFile();
+        directory.deleteOnExit();
+
+        SpillStore store = new SpillStore(null, directory);
+
+        connector.available = false;
+
+        Map<PlayerStat, List<Query>> batch = new EnumMap<>(PlayerStat.class);
+        batch.put(PlayerStat.JOINS, Arrays.asList(StatzUtil.makeQuery("uuid", UUID_A, "value", 1), StatzUtil
+                .makeQuery("uuid", UUID_B, "value", 2)));
+
+        Assert.assertTrue(store.spill(batch));
+        Assert.assertTrue(store.spill(Collections.singletonMap(PlayerStat.JOINS, Collections.singletonList(StatzUtil
+                .makeQuery("uuid", UUID_A, "value", 3)))));
+
+        // Database is still down, so nothing is written and the batches stay on disk.
+        Assert.assertEquals(-1, store.replay(connector));
+        Assert.assertEquals(2, store.getBatchCount());
+        Assert.assertEquals(0, connector.getWrittenRows(PlayerStat.JOINS));
+
+        connector.available = true;
+
+        Assert.assertEquals(3, store.replay(connector));
+        Assert.assertEquals(0, store.getBatchCount());
+
+        // Batches are written in the order they were spilled.
+        List<Query> rows = connector.writtenRows.get(DatabaseConnector.getTable(PlayerStat.JOINS).getTableName());
+
+        Assert.assertEquals(3, rows.size());
+        Assert.assertEquals(UUID_A, rows.get(0).getValue("uuid"));
+        Assert.assertEquals(1, rows.get(0).getValue(), 0);
+        Assert.assertEquals(3, rows.get(2).getValue(), 0);
+
+        // Nothing is written twice.
+        Assert.assertEquals(0, store.replay(connector));
+        Assert.assertEquals(3, connector.getWrittenRows(PlayerStat.JOINS));
+    }
+
+    @Test
+    public void testPartialFailureKeepsOnlyFailedTables() throws IOException {
+        FaultyConnector connector = new FaultyConnector();
+
+        for (PlayerStat statType : Arrays.asList(PlayerStat.JOINS, PlayerStat.VILLAGER_TRADES)) {
+            if (DatabaseConnector.getTable(statType) == null) {
+                connector.addTable(new SQLiteTable(statType.getTableName()));
+            }
+        }
+
+        File directory = Files.createTempDirectory("statz-spill").toFile();
+        directory.deleteOnExit();
+
+        SpillStore store = new SpillStore(null, directory);
+
+        Map<PlayerStat, List<Query>> batch = new EnumMap<>(PlayerStat.class);
+        batch.put(PlayerStat.JOINS, Collections.singletonList(StatzUtil.makeQuery("uuid", UUID_A, "value", 5)));
+        batch.put(PlayerStat.VILLAGER_TRADES, Collections.singletonList(StatzUtil.makeQuery("uuid", UUID_B, "value",
+                7)));
+
+        Assert.assertTrue(store.spill(batch));
+
+        connector.unavailableTables.add(DatabaseConnector.getTable(PlayerStat.VILLAGER_TRADES).getTableName());
+
+        Assert.assertEquals(-1, store.replay(connector));
+        Assert.assertEquals(1, connector.getWrittenRows(PlayerStat.JOINS));
+        Assert.assertEquals(1, store.getBatchCount());
+
+        connector.unavailableTables.clear();
+
+        // A new store picks up the batch that is left on disk.
+        store = new SpillStore(null, directory);
+
+        Assert.assertEquals(1, store.replay(connector));
+        Assert.assertEquals(1, connector.getWrittenRows(PlayerStat.JOINS));
+        Assert.assertEquals(1, connector.getWrittenRows(PlayerStat.VILLAGER_TRADES));
+    }
+
+    @Test
+    public void testBackoffGrowsWithJitter() {
+        FlushBackoff backoff = new FlushBackoff(1000, 8000, new Random(42));
+
+        long[] maximumDelays = {1000, 2000, 4000, 8000, 8000};
+
+        for (long maximumDelay : maximumDelays) {
+            long delay = backoff.onFailure(0);
+
+            Assert.assertTrue(delay >= maximumDelay / 2 && delay <= maximumDelay);
+            Assert.assertTrue(backoff.isWaiting(delay - 1));
+            Assert.assertFalse(backoff.isWaiting(delay));
+        }
+
+        Assert.assertEquals(maximumDelays.length, backoff.getConsecutiveFailures());
+
+        backoff.onSuccess();
+
+        Assert.assertFalse(backoff.isWaiting(0));
+        Assert.assertTrue(backoff.onFailure(0) <= 1000);
+    }
+}
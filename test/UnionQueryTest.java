@@ -0,0 +1,138 @@
+import me.staartvin.statz.database.DatabaseConnector;
+import me.staartvin.statz.database.datatype.Query;
+import me.staartvin.statz.database.datatype.RowRequirement;
+import me.staartvin.statz.database.datatype.Table;
+import me.staartvin.statz.database.datatype.sqlite.SQLiteTable;
+import me.staartvin.statz.datamanager.player.PlayerStat;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.*;
+
+public class UnionQueryTest {
+
+    /**
+     * Connector that only reads the rows of a result set of a UNION statement.
+     */
+    private static class UnionConnector extends DatabaseConnector {
+
+        UnionConnector() {
+            super(null);
+        }
+
+        private Map<Table, List<Query>> read(ResultSet rs, Collection<Table> tables) throws SQLException {
+            return readUnionQueries(rs, tables);
+        }
+
+        @Override
+        public boolean setBatchObjects(Table table, List<Query> queries, SET_OPERATION mode) {
+            return false;
+        }
+
+        @Override
+        public void setObjects(Table table, Query results, SET_OPERATION mode) {
+        }
+
+        @Override
+        public void loadTables() {
+        }
+
+        @Override
+        public Connection getConnection() {
+            return null;
+        }
+
+        @Override
+        public void load() {
+        }
+
+        @Override
+        public List<Query> getObjects(Table table, RowRequirement... requirements) {
+            return new ArrayList<>();
+        }
+
+        @Override
+        public List<Query> getObjects(Table table, String columnName, Collection<String> values) {
+            return new ArrayList<>();
+        }
+
+        @Override
+        public Map<Table, List<Query>> getObjects(Collection<Table> tables, String columnName, String value) {
+            return new HashMap<>();
+        }
+
+        @Override
+        public void purgeData(UUID uuid) {
+        }
+
+        @Override
+        public ResultSet sendQuery(String query, boolean wantResult) {
+            return null;
+        }
+
+        @Override
+        public List<ResultSet> sendQueries(List<String> queries, boolean wantResult) {
+            return new ArrayList<>();
+        }
+
+        @Override
+        public boolean createBackup(String identifier) {
+            return false;
+        }
+    }
+
+    // SQLite stores distances as decimals, even though the value column is declared as an integer.
+    @Test
+    public void testUnionKeepsDecimalValues() throws SQLException {
+        String uuid = "3657b9cc-2518-4265-ad69-323e11286ce2";
+
+        Table joins = new SQLiteTable(PlayerStat.JOINS.getTableName());
+        joins.addColumn("id", true, Table.SQLDataType.INT);
+        joins.addColumn("uuid", false, Table.SQLDataType.TEXT);
+        joins.addColumn("value", false, Table.SQLDataType.INT);
+
+        Table distances = new SQLiteTable(PlayerStat.DISTANCE_TRAVELLED.getTableName());
+        distances.addColumn("id", true, Table.SQLDataType.INT);
+        distances.addColumn("uuid", false, Table.SQLDataType.TEXT);
+        distances.addColumn("value", false, Table.SQLDataType.INT);
+        distances.addColumn("world", false, Table.SQLDataType.TEXT);
+        distances.addColumn("moveType", false, Table.SQLDataType.TEXT);
+
+        // Rows as returned by the UNION statement: the name of the table, followed by id, uuid, value, world and
+        // moveType. Combining the value columns turns them into decimals.
+        List<Object[]> rows = Arrays.asList(
+                new Object[]{joins.getTableName(), 1, uuid, 4.0, null, null},
+                new Object[]{distances.getTableName(), 1, uuid, 12.75, "world", "WALK"});
+
+        int[] index = {-1};
+
+        ResultSet rs = (ResultSet) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{ResultSet
+                .class}, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "next":
+                    return ++index[0] < rows.size();
+                case "getString":
+                    return (String) rows.get(index[0])[(int) args[0] - 1];
+                case "getObject":
+                    return rows.get(index[0])[(int) args[0] - 1];
+                default:
+                    throw new UnsupportedOperationException(method.getName());
+            }
+        });
+
+        Map<Table, List<Query>> results = new UnionConnector().read(rs, Arrays.asList(joins, distances));
+
+        Query distance = results.get(distances).get(0);
+
+        Assert.assertEquals(12.75, distance.getValue(), 0);
+        Assert.assertEquals("WALK", distance.getValue("moveType"));
+
+        // Whole numbers are still read as integers.
+        Assert.assertEquals("4", results.get(joins).get(0).getValue("value"));
+        Assert.assertFalse(results.get(joins).get(0).hasColumn("world"));
+    }
+}
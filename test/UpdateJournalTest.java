@@ -0,0 +1,98 @@
+import me.staartvin.statz.database.datatype.Query;
+import me.staartvin.statz.datamanager.player.PlayerStat;
+import me.staartvin.statz.update.UpdateJournal;
+import me.staartvin.statz.util.StatzUtil;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.logging.Logger;
+
+public class UpdateJournalTest {
+
+    private static final Logger LOGGER = Logger.getLogger("UpdateJournalTest");
+
+    // Don't let the background sync interfere with the test.
+    private static final long SYNC_INTERVAL = 3600000;
+
+    @Test
+    public void testReplayIgnoresTornRecord() throws IOException {
+        UUID uuid = UUID.fromString("3657b9cc-2518-4265-ad69-323e11286ce2");
+        File directory = Files.createTempDirectory("statz-journal").toFile();
+
+        UpdateJournal journal = new UpdateJournal(LOGGER, directory, SYNC_INTERVAL);
+        Assert.assertEquals(0, journal.open((statType, query) -> Assert.fail()));
+
+        journal.append(PlayerStat.JOINS, StatzUtil.makeQuery("uuid", uuid.toString(), "value", 1));
+        journal.append(PlayerStat.DEATHS, StatzUtil.makeQuery("uuid", uuid.toString(), "world", "world", "value", 2));
+        long drainedSegment = journal.rotate();
+
+        journal.append(PlayerStat.JOINS, StatzUtil.makeQuery("uuid", uuid.toString(), "value", 3));
+        journal.append(PlayerStat.JOINS, StatzUtil.makeQuery("uuid", uuid.toString(), "value", 4));
+        Assert.assertTrue(journal.sync());
+        journal.close();
+
+        // Simulate a crash while the last record was being written.
+        File lastSegment = new File(directory, "segment-" + (drainedSegment + 1) + ".journal");
+
+        try (RandomAccessFile file = new RandomAccessFile(lastSegment, "rw")) {
+            file.setLength(file.length() - 3);
+        }
+
+        List<PlayerStat> statTypes = new ArrayList<>();
+        List<Query> queries = new ArrayList<>();
+
+        journal = new UpdateJournal(LOGGER, directory, SYNC_INTERVAL);
+
+        Assert.assertEquals(3, journal.open((statType, query) -> {
+            statTypes.add(statType);
+            queries.add(query);
+        }));
+
+        journal.close();
+
+        // Updates are replayed in the order they were added, without the torn record.
+        Assert.assertEquals(PlayerStat.JOINS, statTypes.get(0));
+        Assert.assertEquals(PlayerStat.DEATHS, statTypes.get(1));
+        Assert.assertEquals(PlayerStat.JOINS, statTypes.get(2));
+        Assert.assertEquals(uuid, queries.get(0).getUUID());
+        Assert.assertEquals(1, queries.get(0).getValue(), 0);
+        Assert.assertEquals("world", queries.get(1).getValue("world"));
+        Assert.assertEquals(2, queries.get(1).getValue(), 0);
+        Assert.assertEquals(3, queries.get(2).getValue(), 0);
+    }
+
+    @Test
+    public void testTruncateAfterRotate() throws IOException {
+        UUID uuid = UUID.fromString("c019cc4e-e9b9-4140-9cf5-07338a21659f");
+        File directory = Files.createTempDirectory("statz-journal").toFile();
+
+        UpdateJournal journal = new UpdateJournal(LOGGER, directory, SYNC_INTERVAL);
+        journal.open((statType, query) -> Assert.fail());
+
+        journal.append(PlayerStat.JOINS, StatzUtil.makeQuery("uuid", uuid.toString(), "value", 1));
+        long drainedSegment = journal.rotate();
+
+        // Added while the drained updates are written to the database.
+        journal.append(PlayerStat.JOINS, StatzUtil.makeQuery("uuid", uuid.toString(), "value", 5));
+
+        journal.truncate(drainedSegment);
+        journal.close();
+
+        List<Query> queries = new ArrayList<>();
+
+        journal = new UpdateJournal(LOGGER, directory, SYNC_INTERVAL);
+
+        Assert.assertEquals(1, journal.open((statType, query) -> queries.add(query)));
+
+        journal.close();
+
+        Assert.assertEquals(5, queries.get(0).getValue(), 0);
+    }
+}
@@ -0,0 +1,160 @@
+import me.staartvin.statz.Statz;
+import me.staartvin.statz.config.ConfigHandler;
+import me.staartvin.statz.database.datatype.Query;
+import me.staartvin.statz.datamanager.player.PlayerStat;
+import me.staartvin.statz.update.PendingUpdates;
+import me.staartvin.statz.update.UpdatePoolManager;
+import me.staartvin.statz.util.StatzUtil;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+public class UpdatePoolManagerTest {
+
+    private static final UUID PLAYER = UUID.fromString("3657b9cc-2518-4265-ad69-323e11286ce2");
+    private static final UUID OTHER_PLAYER = UUID.fromString("c019cc4e-e9b9-4140-9cf5-07338a21659f");
+
+    private UpdatePoolManager pools;
+
+    @Before
+    public void createPools() {
+        // The pools only read their settings from the plugin, so no server is needed.
+        Statz plugin = Mockito.mock(Statz.class);
+        Mockito.when(plugin.getConfigHandler()).thenReturn(Mockito.mock(ConfigHandler.class));
+
+        pools = new UpdatePoolManager(plugin);
+    }
+
+    @Test
+    public void testDrainKeepsLaterUpdates() {
+        pools.addQuery(PlayerStat.JOINS, StatzUtil.makeQuery("uuid", PLAYER.toString(), "value", 1));
+
+        Map<PlayerStat, List<Query>> drained = pools.drainUpdateQueries();
+
+        pools.addQuery(PlayerStat.JOINS, StatzUtil.makeQuery("uuid", PLAYER.toString(), "value", 2));
+
+        Assert.assertEquals(1, drained.get(PlayerStat.JOINS).size());
+        Assert.assertEquals(1, drained.get(PlayerStat.JOINS).get(0).getValue(), 0);
+
+        // The update that was added after the drain stays in the pool for the next drain.
+        List<Query> buffered = pools.getUpdateQueriesCopy(PlayerStat.JOINS);
+
+        Assert.assertEquals(1, buffered.size());
+        Assert.assertEquals(2, buffered.get(0).getValue(), 0);
+
+        pools.markFlushCompleted(PlayerStat.JOINS);
+
+        drained = pools.drainUpdateQueries();
+
+        Assert.assertEquals(2, drained.get(PlayerStat.JOINS).get(0).getValue(), 0);
+    }
+
+    @Test
+    public void testDrainSelectedStatistics() {
+        pools.addQuery(PlayerStat.JOINS, StatzUtil.makeQuery("uuid", PLAYER.toString(), "value", 1));
+        pools.addQuery(PlayerStat.DEATHS, StatzUtil.makeQuery("uuid", PLAYER.toString(), "world", "world", "value",
+                3));
+
+        Map<PlayerStat, List<Query>> drained = pools.drainUpdateQueries(EnumSet.of(PlayerStat.JOINS));
+
+        pools.addQuery(PlayerStat.JOINS, StatzUtil.makeQuery("uuid", PLAYER.toString(), "value", 2));
+
+        Assert.assertEquals(1, drained.size());
+        Assert.assertEquals(1, drained.get(PlayerStat.JOINS).get(0).getValue(), 0);
+
+        // Statistics that were not drained keep their updates.
+        Assert.assertEquals(3, pools.getUpdateQueriesCopy(PlayerStat.DEATHS).get(0).getValue(), 0);
+        Assert.assertEquals(2, pools.getUpdateQueriesCopy(PlayerStat.JOINS).get(0).getValue(), 0);
+    }
+
+    @Test
+    public void testFailedFlushRestoresUpdates() {
+        pools.addQuery(PlayerStat.DEATHS, StatzUtil.makeQuery("uuid", PLAYER.toString(), "world", "world", "value",
+                1));
+        pools.addQuery(PlayerStat.DEATHS, StatzUtil.makeQuery("uuid", PLAYER.toString(), "world", "nether", "value",
+                2));
+
+        pools.drainUpdateQueries();
+
+        // Added while the drained updates are written to the database.
+        pools.addQuery(PlayerStat.DEATHS, StatzUtil.makeQuery("uuid", PLAYER.toString(), "world", "world", "value",
+                4));
+        pools.addQuery(PlayerStat.DEATHS, StatzUtil.makeQuery("uuid", PLAYER.toString(), "world", "end", "value",
+                8));
+
+        pools.markFlushFailed(PlayerStat.DEATHS);
+
+        List<Query> restored = pools.getUpdateQueriesCopy(PlayerStat.DEATHS);
+
+        Assert.assertEquals(3, restored.size());
+
+        for (Query query : restored) {
+            switch (query.getValue("world").toString()) {
+                case "world":
+                    Assert.assertEquals(5, query.getValue(), 0);
+                    break;
+                case "nether":
+                    Assert.assertEquals(2, query.getValue(), 0);
+                    break;
+                case "end":
+                    Assert.assertEquals(8, query.getValue(), 0);
+                    break;
+                default:
+                    Assert.fail();
+            }
+        }
+
+        // Nothing is in flight anymore, so the pending updates are exactly the restored updates.
+        Assert.assertEquals(3, pools.getPendingUpdates(PLAYER).getUpdates(PlayerStat.DEATHS).size());
+    }
+
+    @Test
+    public void testFailedFlushAfterSecondDrain() {
+        pools.addQuery(PlayerStat.JOINS, StatzUtil.makeQuery("uuid", PLAYER.toString(), "value", 1));
+        pools.drainUpdateQueries();
+
+        // Drained again before the first flush finished, so both drains are in flight.
+        pools.addQuery(PlayerStat.JOINS, StatzUtil.makeQuery("uuid", PLAYER.toString(), "value", 2));
+        pools.drainUpdateQueries();
+
+        pools.addQuery(PlayerStat.JOINS, StatzUtil.makeQuery("uuid", PLAYER.toString(), "value", 4));
+
+        pools.markFlushFailed(PlayerStat.JOINS);
+
+        List<Query> restored = pools.getUpdateQueriesCopy(PlayerStat.JOINS);
+
+        Assert.assertEquals(1, restored.size());
+        Assert.assertEquals(7, restored.get(0).getValue(), 0);
+    }
+
+    @Test
+    public void testPendingUpdatesIncludeInFlight() {
+        pools.addQuery(PlayerStat.JOINS, StatzUtil.makeQuery("uuid", PLAYER.toString(), "value", 1));
+        pools.addQuery(PlayerStat.JOINS, StatzUtil.makeQuery("uuid", OTHER_PLAYER.toString(), "value", 10));
+
+        pools.drainUpdateQueries();
+
+        long sequenceNumber = pools.addQuery(PlayerStat.JOINS, StatzUtil.makeQuery("uuid", PLAYER.toString(),
+                "value", 2));
+
+        PendingUpdates pending = pools.getPendingUpdates(PLAYER);
+
+        // Both the update in flight and the update in the pool are pending, but not those of other players.
+        Assert.assertEquals(2, pending.getUpdates(PlayerStat.JOINS).size());
+        Assert.assertEquals(3, pending.getUpdates(PlayerStat.JOINS).stream().mapToDouble(Query::getValue).sum(), 0);
+        Assert.assertEquals(sequenceNumber, pending.getSequenceNumber());
+
+        pools.markFlushCompleted(PlayerStat.JOINS);
+
+        pending = pools.getPendingUpdates(PLAYER);
+
+        Assert.assertEquals(1, pending.getUpdates(PlayerStat.JOINS).size());
+        Assert.assertEquals(2, pending.getUpdates(PlayerStat.JOINS).get(0).getValue(), 0);
+    }
+}